@@ -0,0 +1,95 @@
+package com.itheima.ai.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 标量与 SIMD 距离内核的单次计算耗时，维度取常见 embedding 模型的 1024 / 1536
+ * batchDot 为一个查询对 BATCH 个平铺向量的点积，对应精确扫描的内层循环
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class VectorKernelsBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"1024", "1536"})
+    public int dimensions;
+
+    @Param({"scalar", "simd"})
+    public String kernel;
+
+    private VectorKernels kernels;
+    private float[] a;
+    private float[] b;
+    private float[] batch;
+    private float[] scores;
+    private byte[] codeA;
+    private byte[] codeB;
+
+    @Setup
+    public void setup() {
+        kernels = "simd".equals(kernel) ? new SimdVectorKernels() : new ScalarVectorKernels();
+        SplittableRandom random = new SplittableRandom(42);
+        a = random(random, dimensions);
+        b = random(random, dimensions);
+        batch = random(random, dimensions * BATCH);
+        scores = new float[BATCH];
+        codeA = new byte[dimensions];
+        codeB = new byte[dimensions];
+        VectorDistanceUtils.quantizeInt8(a, codeA);
+        VectorDistanceUtils.quantizeInt8(b, codeB);
+    }
+
+    @Benchmark
+    public float dot() {
+        return kernels.dot(a, 0, b, 0, dimensions);
+    }
+
+    @Benchmark
+    public float cosine() {
+        return kernels.cosine(a, 0, b, 0, dimensions);
+    }
+
+    @Benchmark
+    public float squareDistance() {
+        return kernels.squareDistance(a, 0, b, 0, dimensions);
+    }
+
+    @Benchmark
+    public int dotInt8() {
+        return kernels.dotInt8(codeA, 0, codeB, 0, dimensions);
+    }
+
+    @Benchmark
+    public float[] batchDot() {
+        for (int i = 0, offset = 0; i < BATCH; i++, offset += dimensions) {
+            scores[i] = kernels.dot(a, 0, batch, offset, dimensions);
+        }
+        return scores;
+    }
+
+    private static float[] random(SplittableRandom random, int length) {
+        float[] v = new float[length];
+        for (int i = 0; i < length; i++) {
+            v[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return v;
+    }
+}
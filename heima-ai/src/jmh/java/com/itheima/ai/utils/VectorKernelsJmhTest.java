@@ -0,0 +1,21 @@
+package com.itheima.ai.utils;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 通过 surefire 启动 JMH：mvn test -Pjmh，结果打印到控制台
+ */
+class VectorKernelsJmhTest {
+
+    @Test
+    void runBenchmarks() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VectorKernelsBenchmark.class.getName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -7,4 +7,31 @@ public interface ChatMessageRepository {
     void append(String type, String chatId, ChatMessage message);
 
     List<ChatMessage> list(String type, String chatId);
+
+    /**
+     * 按游标分页读取，最新的一页在前；页内按时间正序
+     * 消息只追加，序号即在会话中的位置，游标取上一页第一条的序号
+     * @param before 只返回序号小于 before 的消息；null 表示从最新一条开始
+     * @param limit  每页条数
+     */
+    default Page page(String type, String chatId, Integer before, int limit) {
+        return Page.of(list(type, chatId), before, limit);
+    }
+
+    /**
+     * @param messages   本页消息，按时间正序
+     * @param first      本页第一条的序号
+     * @param nextBefore 下一页（更早的消息）的游标，没有更早的消息时为 null
+     */
+    record Page(List<ChatMessage> messages, int first, Integer nextBefore) {
+
+        /**
+         * 从按时间正序的完整列表中截取一页（subList，不拷贝）
+         */
+        public static Page of(List<ChatMessage> all, Integer before, int limit) {
+            int end = before == null ? all.size() : Math.max(0, Math.min(before, all.size()));
+            int start = Math.max(0, end - Math.max(limit, 0));
+            return new Page(all.subList(start, end), start, start > 0 ? start : null);
+        }
+    }
 }
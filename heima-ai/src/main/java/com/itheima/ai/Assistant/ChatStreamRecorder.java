@@ -0,0 +1,100 @@
+package com.itheima.ai.Assistant;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 流式回答落库：在同一个订阅上一边把 token 转发给前端，一边拼接全文
+ * - 只订阅上游一次（不用 share），前端的背压、取消原样传给模型调用；不会出现漏 token 或重复调用模型
+ * - 正常结束、出错或前端断开时，在 doFinally 里把已生成的内容作为 assistant 消息保存一次
+ * - 拼接用的 StringBuilder 放回池里复用，过大的直接丢弃
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatStreamRecorder {
+
+    private static final int POOL_SIZE = 64;
+    // 超过该容量（字符）的缓冲不回池，避免长期占用大块内存
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ChatMessageRepository chatMessageRepository;
+
+    private final BlockingQueue<StringBuilder> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * 包装模型的流式输出，结束后保存 assistant 消息
+     */
+    public Flux<String> record(Flux<String> stream, String type, String chatId) {
+        return record(stream, type, chatId, null);
+    }
+
+    /**
+     * @param onComplete 正常结束时以完整回答回调（如写入回答缓存）；取消或出错时不调用
+     */
+    public Flux<String> record(Flux<String> stream, String type, String chatId, Consumer<String> onComplete) {
+        // 每次订阅各自一份缓冲
+        return Flux.defer(() -> {
+            StringBuilder buffer = borrow();
+            AtomicBoolean finished = new AtomicBoolean();
+            return stream
+                    .doOnNext(token -> {
+                        // 取消与迟到的 onNext 可能并发；结束后缓冲可能已被别的请求借走，不能再写
+                        synchronized (buffer) {
+                            if (!finished.get()) buffer.append(token);
+                        }
+                    })
+                    .doFinally(signal -> {
+                        String full;
+                        synchronized (buffer) {
+                            if (!finished.compareAndSet(false, true)) return;
+                            full = buffer.toString();
+                        }
+                        release(buffer);
+                        finish(type, chatId, full, signal, onComplete);
+                    });
+        });
+    }
+
+    private void finish(String type, String chatId, String full, SignalType signal, Consumer<String> onComplete) {
+        if (full.isEmpty()) return;
+        try {
+            chatMessageRepository.append(type, chatId, new ChatMessage("assistant", full));
+        } catch (RuntimeException e) {
+            log.error("Failed to save assistant message, type={}, chatId={}", type, chatId, e);
+        }
+        if (signal != SignalType.ON_COMPLETE) {
+            log.debug("Stream ended with {}, saved partial answer ({} chars), chatId={}", signal, full.length(), chatId);
+            return;
+        }
+        if (onComplete != null) {
+            try {
+                onComplete.accept(full);
+            } catch (RuntimeException e) {
+                log.warn("Stream completion callback failed, chatId={}", chatId, e);
+            }
+        }
+    }
+
+    private StringBuilder borrow() {
+        StringBuilder buffer = pool.poll();
+        return buffer != null ? buffer : new StringBuilder(INITIAL_CAPACITY);
+    }
+
+    private void release(StringBuilder buffer) {
+        synchronized (buffer) {
+            if (buffer.capacity() > MAX_POOLED_CAPACITY) return;
+            buffer.setLength(0);
+        }
+        pool.offer(buffer);
+    }
+}
@@ -2,17 +2,27 @@ package com.itheima.ai.Assistant;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.journal.WriteAheadLog;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Component;
 
-import java.io.PrintWriter;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * 消息记录：按 type -> chatId 两级 ConcurrentHashMap 存放，每个会话一个只追加的数组
+ * - 两级 map 查找，不需要拼接 type + chatId 组合 key
+ * - 同一会话的追加由会话自己的锁串行（保证日志顺序 = 内存顺序），不同会话之间互不阻塞；日志用 appendShared，只与快照互斥
+ * - 读取不加锁、不拷贝：返回当前长度的只读视图，之后的追加不会影响已返回的视图
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
@@ -23,51 +33,128 @@ public class InMemoryChatMessageRepository implements ChatMessageRepository {
     /**
      * type -> chatId -> messages   实现保存消息记录到messages-store.json，和展示历史记录的功能
      */
-    private final Map<String, Map<String, List<ChatMessage>>> store = new HashMap<>();
+    private final Map<String, Map<String, Conversation>> store = new ConcurrentHashMap<>();
 
     private static final String FILE = "messages-store.json";
 
+    @Value("${heima.journal.dir:journal}")
+    private String journalDir;
+
+    @Value("${heima.journal.flush-interval-ms:20}")
+    private long flushIntervalMs;
+
+    @Value("${heima.journal.checkpoint-records:5000}")
+    private long checkpointRecords;
+
+    // 每条消息写一条日志，定期快照到 messages-store.json
+    private WriteAheadLog journal;
+
     @Override
-    public synchronized void append(String type, String chatId, ChatMessage message) {
-        store.computeIfAbsent(type, k -> new HashMap<>())
-                .computeIfAbsent(chatId, k -> new ArrayList<>())
-                .add(message);
+    public void append(String type, String chatId, ChatMessage message) {
+        Conversation conversation = conversation(type, chatId);
+        conversation.lock.lock();
+        try {
+            journal.appendShared(new Entry(type, chatId, message), () -> conversation.add(message));
+        } finally {
+            conversation.lock.unlock();
+        }
     }
 
     @Override
-    public synchronized List<ChatMessage> list(String type, String chatId) {
-        return new ArrayList<>(
-                store.getOrDefault(type, Map.of())
-                        .getOrDefault(chatId, List.of())
-        );
+    public List<ChatMessage> list(String type, String chatId) {
+        Map<String, Conversation> chats = store.get(type);
+        Conversation conversation = chats == null ? null : chats.get(chatId);
+        return conversation == null ? List.of() : conversation.snapshot();
     }
 
+    // 启动时加载快照并重放日志
     @PostConstruct
-    private void init() {
+    private void init() throws IOException {
+        journal = new WriteAheadLog(Path.of(journalDir, "messages"), objectMapper, this::capture,
+                flushIntervalMs, checkpointRecords);
         FileSystemResource res = new FileSystemResource(FILE);
-        if (!res.exists()) return;
-        try {
+        if (res.exists()) {
             Map<String, Map<String, List<ChatMessage>>> data =
                     objectMapper.readValue(res.getInputStream(), new TypeReference<>() {});
             store.clear();
-            store.putAll(data);
-            log.info("Loaded chat messages from {}. types={}", FILE, store.keySet());
-        } catch (Exception e) {
-            log.error("Failed to load {}", FILE, e);
+            data.forEach((type, chats) -> chats.forEach((chatId, messages) ->
+                    messages.forEach(conversation(type, chatId)::add)));
         }
+        journal.replay(Entry.class, e -> conversation(e.type(), e.chatId()).add(e.message()));
+        journal.start();
+        log.info("Loaded chat messages from {}. types={}", FILE, store.keySet());
     }
 
     @PreDestroy
-    private void persist() {
-        try {
-            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(store);
-            FileSystemResource res = new FileSystemResource(FILE);
-            try (PrintWriter w = new PrintWriter(res.getOutputStream(), true, StandardCharsets.UTF_8)) {
-                w.write(json);
+    private void close() throws IOException {
+        journal.close();
+    }
+
+    private Conversation conversation(String type, String chatId) {
+        return store.computeIfAbsent(type, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(chatId, k -> new Conversation());
+    }
+
+    // 在日志写锁内调用，此时没有进行中的追加；视图本身不可变，不需要拷贝，也不能去拿会话锁
+    private Map<Path, Object> capture() {
+        Map<String, Map<String, List<ChatMessage>>> copy = new HashMap<>();
+        store.forEach((type, chats) -> {
+            Map<String, List<ChatMessage>> chatsCopy = new HashMap<>();
+            chats.forEach((chatId, conversation) -> chatsCopy.put(chatId, conversation.snapshot()));
+            copy.put(type, chatsCopy);
+        });
+        return Map.of(Path.of(FILE), copy);
+    }
+
+    /**
+     * 一个会话的消息：只追加的数组 + 已发布长度
+     * 写入方（持有 lock）先写元素、扩容时先发布新数组，最后写 size；读取方先读 size 再读数组，
+     * 读到的数组一定包含前 size 个元素，且这些位置之后不会再被修改
+     */
+    private static final class Conversation {
+        final ReentrantLock lock = new ReentrantLock();
+        private volatile ChatMessage[] items = new ChatMessage[8];
+        private volatile int size;
+
+        void add(ChatMessage message) {
+            ChatMessage[] array = items;
+            int n = size;
+            if (n == array.length) {
+                array = Arrays.copyOf(array, n * 2);
+                array[n] = message;
+                items = array;
+            } else {
+                array[n] = message;
             }
-            log.info("Persisted chat messages to {}.", FILE);
-        } catch (Exception e) {
-            log.error("Failed to persist {}", FILE, e);
+            size = n + 1;
+        }
+
+        List<ChatMessage> snapshot() {
+            int n = size;
+            return n == 0 ? List.of() : new View(items, n);
+        }
+    }
+
+    private static final class View extends AbstractList<ChatMessage> implements RandomAccess {
+        private final ChatMessage[] items;
+        private final int size;
+
+        View(ChatMessage[] items, int size) {
+            this.items = items;
+            this.size = size;
+        }
+
+        @Override
+        public ChatMessage get(int index) {
+            Objects.checkIndex(index, size);
+            return items[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
         }
     }
+
+    record Entry(String type, String chatId, ChatMessage message) {}
 }
@@ -1,22 +1,39 @@
 package com.itheima.ai.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.prompt.PromptUsageAdvisor;
+import com.itheima.ai.repository.JournaledChatMemory;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemory;
 import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.ai.openai.OpenAiChatModel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
 @Configuration
 public class CommonConfiguration {
 
 
-    // 创建一个InMemoryChatMemory对象，用于存储聊天记录
-    @Bean
-    public ChatMemory chatMemory() {
-        return new InMemoryChatMemory();
+    // 会话记忆：每个会话只保留最近 N 条，空闲或超出内存预算的会话淘汰到磁盘；每次变更写 WAL，定期快照到 chat-memory.json
+    @Bean(destroyMethod = "close")
+    public JournaledChatMemory chatMemory(ObjectMapper objectMapper,
+                                          @Value("${heima.journal.dir:journal}") String journalDir,
+                                          @Value("${heima.journal.flush-interval-ms:20}") long flushIntervalMs,
+                                          @Value("${heima.journal.checkpoint-records:5000}") long checkpointRecords,
+                                          @Value("${heima.chat-memory.spill-dir:chat-memory-spill}") String spillDir,
+                                          @Value("${heima.chat-memory.max-messages:200}") int maxMessages,
+                                          @Value("${heima.chat-memory.ttl-minutes:30}") long ttlMinutes,
+                                          @Value("${heima.chat-memory.max-memory-mb:64}") long maxMemoryMb)
+            throws IOException {
+        return new JournaledChatMemory(objectMapper, Path.of(journalDir, "memory"), flushIntervalMs, checkpointRecords,
+                Path.of(spillDir), maxMessages, Duration.ofMinutes(ttlMinutes).toMillis(), maxMemoryMb * 1024 * 1024);
     }
 
 
@@ -33,6 +50,7 @@ public class CommonConfiguration {
 //                .build();
 //    }
 
+    // PromptUsageAdvisor 打印每次调用模型返回的实际 token 用量（流式需开启 stream-usage）
     @Bean
     public ChatClient chatClient(OpenAiChatModel model, ChatMemory chatMemory) {
         return ChatClient
@@ -40,6 +58,7 @@ public class CommonConfiguration {
                 .defaultSystem("你是一个热心、可爱的智能助手，你的名字叫小小Eman，请以小小Eman的身份和语气回答问题。")
                 .defaultAdvisors(
                         new SimpleLoggerAdvisor(),
+                        new PromptUsageAdvisor(),
                         new MessageChatMemoryAdvisor(chatMemory)
                 )
                 .build();
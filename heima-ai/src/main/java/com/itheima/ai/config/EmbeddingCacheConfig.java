@@ -0,0 +1,39 @@
+package com.itheima.ai.config;
+
+import com.itheima.ai.embedding.CachingEmbeddingModel;
+import com.itheima.ai.embedding.DiskEmbeddingCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+@Slf4j
+@Configuration
+public class EmbeddingCacheConfig {
+
+    // 包一层缓存放在 openAiEmbeddingModel 前面：重复上传同一份 PDF、重复提问不再调用远程 embedding
+    // 标为 @Primary，注入 EmbeddingModel 的地方默认拿到带缓存的版本
+    @Primary
+    @Bean(destroyMethod = "close")
+    public CachingEmbeddingModel cachingEmbeddingModel(@Qualifier("openAiEmbeddingModel") EmbeddingModel embeddingModel,
+                                                       @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}") String model,
+                                                       @Value("${heima.embedding-cache.max-memory-mb:64}") long maxMemoryMb,
+                                                       @Value("${heima.embedding-cache.disk-enabled:true}") boolean diskEnabled,
+                                                       @Value("${heima.embedding-cache.disk-file:embedding-cache/embeddings.bin}") String diskFile) {
+        DiskEmbeddingCache diskCache = null;
+        if (diskEnabled) {
+            try {
+                diskCache = new DiskEmbeddingCache(Path.of(diskFile));
+            } catch (IOException e) {
+                log.error("Failed to open disk embedding cache {}, using memory cache only.", diskFile, e);
+            }
+        }
+        return new CachingEmbeddingModel(embeddingModel, model, maxMemoryMb * 1024 * 1024, diskCache);
+    }
+}
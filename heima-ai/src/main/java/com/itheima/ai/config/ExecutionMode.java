@@ -0,0 +1,132 @@
+package com.itheima.ai.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程模式：平台线程 / 虚拟线程
+ * - 与 Spring Boot 共用开关 spring.threads.virtual.enabled：开启后 Tomcat 请求线程由 Spring Boot 切到虚拟线程，
+ *   这里负责我们自己的后台线程池（PDF 入库、embedding、混合检索等）和阻塞检索用的 Reactor 调度器
+ * - 编译目标是 Java 17，虚拟线程 API 通过反射调用；运行在 Java 21 以下时打印警告并退回平台线程
+ * - 线程池的大小仍按配置创建：它们同时也是对远程 embedding 接口、CPU 的并发限制，换成虚拟线程只是不再占用平台线程
+ */
+@Slf4j
+@Component
+public class ExecutionMode {
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, perTask = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (ReflectiveOperationException e) {
+            // Java 21 以下
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+    }
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualRequested;
+
+    private boolean virtual;
+
+    private Scheduler blockingScheduler;
+
+    @PostConstruct
+    private void init() {
+        if (virtualRequested && OF_VIRTUAL == null) {
+            log.warn("spring.threads.virtual.enabled=true requires Java 21+, running on {}. Falling back to platform threads.",
+                    Runtime.version());
+        }
+        virtual = virtualRequested && OF_VIRTUAL != null;
+        blockingScheduler = virtual
+                ? Schedulers.fromExecutorService(newPerTaskExecutor("blocking-"), "virtual-blocking")
+                : Schedulers.boundedElastic();
+        log.info("Execution mode: {} threads.", virtual ? "virtual" : "platform");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        // boundedElastic 是全局共享的，只释放自己创建的
+        if (virtual) blockingScheduler.dispose();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 后台线程工厂：虚拟模式下为虚拟线程，否则为守护平台线程；线程名 = prefix + 序号（从 1 开始）
+     */
+    public ThreadFactory threadFactory(String prefix) {
+        if (virtual) {
+            return virtualFactory(prefix);
+        }
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * 固定大小的线程池，大小即并发上限
+     */
+    public ExecutorService newFixedExecutor(String prefix, int threads) {
+        return Executors.newFixedThreadPool(threads, threadFactory(prefix));
+    }
+
+    /**
+     * 纯 IO 扇出用：虚拟模式下每个任务一个虚拟线程、不限并发；平台模式下为固定大小的线程池
+     */
+    public ExecutorService newIoExecutor(String prefix, int platformThreads) {
+        return virtual ? newPerTaskExecutor(prefix) : newFixedExecutor(prefix, platformThreads);
+    }
+
+    /**
+     * 在响应式链路里执行阻塞调用（如检索时的远程 embedding）的调度器，替代 Schedulers.boundedElastic()
+     */
+    public Scheduler blockingScheduler() {
+        return blockingScheduler;
+    }
+
+    private static ThreadFactory virtualFactory(String prefix) {
+        try {
+            Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), prefix, 1L);
+            return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread factory", e);
+        }
+    }
+
+    private static ExecutorService newPerTaskExecutor(String prefix) {
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, virtualFactory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+}
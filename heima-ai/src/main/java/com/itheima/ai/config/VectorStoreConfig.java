@@ -1,20 +1,70 @@
 package com.itheima.ai.config;
 
-import org.springframework.beans.factory.annotation.Qualifier;
+import com.itheima.ai.embedding.CachingEmbeddingModel;
+import com.itheima.ai.embedding.TokenAndCountBatchingStrategy;
+import com.itheima.ai.vectorstore.HnswVectorStore;
+import com.itheima.ai.vectorstore.PartitionedVectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.VectorStore;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.context.annotation.Primary;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.nio.file.Path;
 
 @Configuration
 public class VectorStoreConfig {
 
-    //后期优化可换redisvectorStore
+    // embedding 分批：每批条数和 token 数都不超过服务商的单次请求上限（DashScope text-embedding-v4 最多 10 条）
     @Bean
+    public BatchingStrategy embeddingBatchingStrategy(@Value("${heima.embedding.batch.max-size:10}") int maxBatchSize,
+                                                      @Value("${heima.embedding.batch.max-tokens:8191}") int maxTokens) {
+        return new TokenAndCountBatchingStrategy(maxBatchSize, maxTokens);
+    }
+
+    // 按 chatId 分区的 HNSW 索引：检索只扫当前会话的分区；有变化的分区在每次入库完成后、后台每 flush-interval-ms、
+    // 关闭时持久化到本地，重启直接加载；软删除超过 compact-ratio 的分区写盘前先压缩
+    // 向量插入时归一化，可选 int8 编码建图检索（float32 放堆外只用于重排）
+    // embedding 走带缓存的模型，重复文本不再请求远程
+    @Primary
+    @Bean(destroyMethod = "close")
+    public PartitionedVectorStore vectorStore(CachingEmbeddingModel embeddingModel,
+                                              BatchingStrategy embeddingBatchingStrategy,
+                                              @Value("${heima.vector-store.partition-key:chatId}") String partitionKey,
+                                              @Value("${heima.vector-store.hnsw.m:16}") int m,
+                                              @Value("${heima.vector-store.hnsw.ef-construction:200}") int efConstruction,
+                                              @Value("${heima.vector-store.hnsw.ef-search:64}") int efSearch,
+                                              @Value("${heima.vector-store.quantized:true}") boolean quantized,
+                                              @Value("${heima.vector-store.rerank-factor:4}") int rerankFactor,
+                                              @Value("${heima.vector-store.compact-ratio:0.2}") double compactRatio,
+                                              @Value("${heima.vector-store.flush-interval-ms:30000}") long flushIntervalMs,
+                                              @Value("${heima.vector-store.persist-dir:vector-store/partitions}") String persistDir) {
+        return PartitionedVectorStore.builder(embeddingModel)
+                .partitionKey(partitionKey)
+                .m(m)
+                .efConstruction(efConstruction)
+                .efSearch(efSearch)
+                .quantized(quantized)
+                .rerankFactor(rerankFactor)
+                .compactRatio(compactRatio)
+                .flushIntervalMs(flushIntervalMs)
+                .persistDir(Path.of(persistDir))
+                .batchingStrategy(embeddingBatchingStrategy)
+                .build();
+    }
 
-    public VectorStore vectorStore(@Qualifier("openAiEmbeddingModel") EmbeddingModel embeddingModel) {
-        return SimpleVectorStore.builder(embeddingModel).build();
+    // 客服知识库的向量索引，与 PDF 向量库分开；内容与 service-kb.json 同步，供混合检索的向量一路使用
+    // 每次同步后持久化；启动时同步会补齐文件中缺失的条目
+    @Bean(destroyMethod = "save")
+    public HnswVectorStore serviceKbVectorStore(CachingEmbeddingModel embeddingModel,
+                                                BatchingStrategy embeddingBatchingStrategy,
+                                                @Value("${heima.vector-store.compact-ratio:0.2}") double compactRatio,
+                                                @Value("${heima.vector-store.service-kb-file:vector-store/service-kb.bin}") String persistFile) {
+        return HnswVectorStore.builder(embeddingModel)
+                .compactRatio(compactRatio)
+                .persistPath(Path.of(persistFile))
+                .batchingStrategy(embeddingBatchingStrategy)
+                .build();
     }
 }
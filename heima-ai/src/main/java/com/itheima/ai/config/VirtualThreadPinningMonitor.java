@@ -0,0 +1,86 @@
+package com.itheima.ai.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 虚拟线程 pinning 诊断（仅虚拟线程模式）
+ * - 用 JFR 事件流订阅 jdk.VirtualThreadPinned：虚拟线程在 synchronized 内阻塞、或竞争 monitor 时占住载体线程超过阈值即产生事件
+ * - 按第一个本项目的栈帧归类，每个位置首次出现打印完整栈，之后每 100 次汇总一次，避免刷屏
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class VirtualThreadPinningMonitor {
+
+    private static final String EVENT = "jdk.VirtualThreadPinned";
+    private static final String APP_PACKAGE = "com.itheima.ai.";
+    private static final int LOG_FRAMES = 12;
+
+    private final ExecutionMode executionMode;
+
+    @Value("${heima.threads.pinned-threshold-ms:20}")
+    private long thresholdMs;
+
+    private RecordingStream stream;
+
+    // 栈上位置 -> 次数
+    private final Map<String, LongAdder> sites = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (!executionMode.isVirtual()) return;
+        try {
+            stream = new RecordingStream();
+            stream.enable(EVENT).withThreshold(Duration.ofMillis(thresholdMs)).withStackTrace();
+            stream.onEvent(EVENT, this::onPinned);
+            stream.startAsync();
+            log.info("Watching virtual thread pinning longer than {} ms.", thresholdMs);
+        } catch (RuntimeException e) {
+            log.warn("JFR unavailable, virtual thread pinning diagnostics disabled: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        if (stream != null) stream.close();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        List<RecordedFrame> frames = event.getStackTrace() == null ? List.of() : event.getStackTrace().getFrames();
+        String site = frames.stream()
+                .filter(f -> f.getMethod().getType().getName().startsWith(APP_PACKAGE))
+                .findFirst()
+                .or(() -> frames.stream().findFirst())
+                .map(VirtualThreadPinningMonitor::format)
+                .orElse("unknown");
+        LongAdder counter = sites.computeIfAbsent(site, k -> new LongAdder());
+        counter.increment();
+        long count = counter.sum();
+        long millis = event.getDuration().toMillis();
+        if (count == 1) {
+            StringBuilder stack = new StringBuilder();
+            frames.stream().limit(LOG_FRAMES).forEach(f -> stack.append("\n\tat ").append(format(f)));
+            log.warn("Virtual thread pinned for {} ms at {}:{}", millis, site, stack);
+        } else if (count % 100 == 0) {
+            log.warn("Virtual thread pinned {} times at {} (last {} ms)", count, site, millis);
+        }
+    }
+
+    private static String format(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
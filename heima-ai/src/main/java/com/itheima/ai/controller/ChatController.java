@@ -1,10 +1,17 @@
 package com.itheima.ai.controller;
 
+import com.itheima.ai.Assistant.ChatMessage;
+import com.itheima.ai.Assistant.ChatMessageRepository;
+import com.itheima.ai.Assistant.ChatStreamRecorder;
 import com.itheima.ai.repository.ChatHistoryRepository;
+import com.itheima.ai.stream.SseStreamHub;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.model.Media;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.util.MimeType;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -24,6 +31,12 @@ public class ChatController {
 
     private final ChatHistoryRepository chatHistoryRepository;
 
+    private final ChatMessageRepository chatMessageRepository;
+
+    private final ChatStreamRecorder streamRecorder;
+
+    private final SseStreamHub sseStreamHub;
+
     @RequestMapping(value = "/chat", produces = "text/html;charset=utf-8")
     public Flux<String> chat(
             @RequestParam("prompt") String prompt,
@@ -31,17 +44,30 @@ public class ChatController {
             @RequestParam(value = "files", required = false) List<MultipartFile> files) {
         // 1.保存会话id
         chatHistoryRepository.save("chat", chatId);
-        // 2.请求模型
+        chatMessageRepository.append("chat", chatId, new ChatMessage("user", prompt));
+        // 2.请求模型，结束后保存回答
         if (files == null || files.isEmpty()) {
             // 没有附件，纯文本聊天
-            return textChat(prompt, chatId);
+            return streamRecorder.record(textChat(prompt, chatId), "chat", chatId);
         } else {
             // 有附件，多模态聊天
-            return multiModalChat(prompt, chatId, files);
+            return streamRecorder.record(multiModalChat(prompt, chatId, files), "chat", chatId);
         }
 
     }
 
+    /**
+     * SSE 版本：token 合并成帧发送，支持 Last-Event-ID 断线续传
+     */
+    @RequestMapping(value = "/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> chatSse(
+            @RequestParam("prompt") String prompt,
+            @RequestParam("chatId") String chatId,
+            @RequestParam(value = "files", required = false) List<MultipartFile> files,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return sseStreamHub.stream("chat", chatId, prompt, lastEventId, () -> chat(prompt, chatId, files));
+    }
+
     private Flux<String> multiModalChat(String prompt, String chatId, List<MultipartFile> files) {
         // 1.解析多媒体
         List<Media> medias = files.stream()
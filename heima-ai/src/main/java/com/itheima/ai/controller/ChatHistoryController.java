@@ -1,48 +1,153 @@
 package com.itheima.ai.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.Assistant.ChatMessage;
+import com.itheima.ai.Assistant.ChatMessageRepository;
 import com.itheima.ai.entity.vo.MessageVO;
 import com.itheima.ai.repository.ChatHistoryRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/ai/history")
 public class ChatHistoryController {
 
+    // 下一页游标的响应头，没有更早的消息时不返回
+    public static final String NEXT_BEFORE_HEADER = "X-Next-Before";
+
     private final ChatHistoryRepository chatHistoryRepository;
 
+    private final ChatMessageRepository chatMessageRepository;
+
     private final ChatMemory chatMemory;
 
+    private final ObjectMapper objectMapper;
+
+    /**
+     * 已确认会话记忆里没有早于消息记录的消息的会话，key = type:chatId，之后不再读会话记忆
+     * 此后两边同时追加新消息，会话记忆只从最早的一端淘汰，不会再出现早于消息记录的消息
+     */
+    private final Set<String> logComplete = ConcurrentHashMap.newKeySet();
+
     /**
-     * 查询会话历史列表
+     * 查询会话历史列表，最近活跃的在前
      * @param type 业务类型，如：chat,service,pdf
+     * @param offset 跳过的条数
+     * @param limit 每页条数，不传时返回全部
      * @return chatId列表
      */
     @GetMapping("/{type}")
-    public List<String> getChatIds(@PathVariable("type") String type) {
-        return chatHistoryRepository.getChatIds(type);
+    public List<String> getChatIds(@PathVariable("type") String type,
+                                   @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                   @RequestParam(value = "limit", required = false) Integer limit) {
+        return chatHistoryRepository.getChatIds(type, offset, limit == null ? Integer.MAX_VALUE : limit);
     }
 
     /**
-     * 根据业务类型、chatId查询会话历史
+     * 根据业务类型、chatId查询会话历史，最新的一页在前，页内按时间正序
+     * 下一页（更早的消息）的游标放在响应头 X-Next-Before，作为下次请求的 before 参数
+     * 消息记录功能上线前的对话只在会话记忆里：翻到消息记录开头仍不满一页时，用会话记忆里早于消息记录的部分补齐，
+     * 这些消息的序号为负数（紧挨消息记录第一条的为 -1），会话记忆淘汰旧消息时序号不变
      * @param type 业务类型，如：chat,service,pdf
      * @param chatId 会话id
+     * @param before 只返回序号小于 before 的消息，不传时从最新一条开始
+     * @param limit 每页条数，不传时返回全部
      * @return 指定会话的历史消息
      */
     @GetMapping("/{type}/{chatId}")
-    public List<MessageVO> getChatHistory(@PathVariable("type") String type, @PathVariable("chatId") String chatId) {
-        List<Message> messages = chatMemory.get(chatId, Integer.MAX_VALUE);
-        if(messages == null) {
+    public ResponseEntity<StreamingResponseBody> getChatHistory(@PathVariable("type") String type,
+                                                                @PathVariable("chatId") String chatId,
+                                                                @RequestParam(value = "before", required = false) Integer before,
+                                                                @RequestParam(value = "limit", required = false) Integer limit) {
+        int size = limit == null ? Integer.MAX_VALUE : limit;
+        List<ChatMessage> log = chatMessageRepository.list(type, chatId);
+        ChatMessageRepository.Page page = ChatMessageRepository.Page.of(log, before, size);
+        String key = type + ":" + chatId;
+        if (page.nextBefore() == null && page.messages().size() < size && !logComplete.contains(key)) {
+            // 本页还需要的旧消息：序号 [end - 缺的条数, end)
+            long needed = (long) size - page.messages().size() - (before != null && before < 0 ? before : 0);
+            List<ChatMessage> legacy = legacyMessages(chatId, log, needed);
+            if (legacy.isEmpty()) {
+                logComplete.add(key);
+            }
+            page = withLegacy(page, legacy, before, size);
+        }
+
+        List<ChatMessage> messages = page.messages();
+        StreamingResponseBody body = out -> {
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+                json.writeStartArray();
+                for (ChatMessage message : messages) {
+                    json.writeStartObject();
+                    json.writeStringField("role", message.getRole());
+                    json.writeStringField("content", message.getContent());
+                    json.writeEndObject();
+                }
+                json.writeEndArray();
+            }
+        };
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON);
+        if (page.nextBefore() != null) {
+            response.header(NEXT_BEFORE_HEADER, String.valueOf(page.nextBefore()));
+        }
+        return response.body(body);
+    }
+
+    /**
+     * 会话记忆中早于消息记录的部分：从读到的最早一条开始，到第一条也出现在消息记录里的消息为止
+     * 会话记忆只保留最近的消息，其中已出现在消息记录里的部分之后都已记录；偶然内容相同时少补几条，不会重复
+     * 只读会话记忆最后 log.size() + needed + 1 条：与消息记录重叠的部分不超过 log.size() 条，
+     * 读到的旧消息多于 needed 条即说明还有更早的；读不满时读到的就是全部
+     * 确认没有旧消息的会话之后既不读会话记忆，也不再对消息记录建集合
+     */
+    private List<ChatMessage> legacyMessages(String chatId, List<ChatMessage> log, long needed) {
+        int lastN = (int) Math.min(Integer.MAX_VALUE, log.size() + needed + 1);
+        List<Message> memory = chatMemory.get(chatId, lastN);
+        if (memory == null || memory.isEmpty()) {
             return List.of();
         }
-        return messages.stream().map(MessageVO::new).toList();
+        Set<ChatMessage> logged = new HashSet<>(log);
+        List<ChatMessage> legacy = new ArrayList<>();
+        for (Message message : memory) {
+            MessageVO vo = new MessageVO(message);
+            ChatMessage chatMessage = new ChatMessage(vo.getRole(), vo.getContent());
+            if (logged.contains(chatMessage)) break;
+            legacy.add(chatMessage);
+        }
+        return legacy;
+    }
+
+    /**
+     * 在消息记录的最早一页前面补上会话记忆里的旧消息，补到满一页为止
+     * @param legacy 早于消息记录的消息，按时间正序，序号为 -legacy.size() ~ -1
+     */
+    private static ChatMessageRepository.Page withLegacy(ChatMessageRepository.Page page, List<ChatMessage> legacy,
+                                                         Integer before, int size) {
+        if (legacy.isEmpty()) {
+            return page;
+        }
+        int end = before != null && before < 0 ? Math.max(before, -legacy.size()) : 0;
+        int start = Math.max(-legacy.size(), end - (size - page.messages().size()));
+        List<ChatMessage> messages = new ArrayList<>(end - start + page.messages().size());
+        messages.addAll(legacy.subList(start + legacy.size(), end + legacy.size()));
+        messages.addAll(page.messages());
+        return new ChatMessageRepository.Page(messages, start, start > -legacy.size() ? start : null);
     }
 }
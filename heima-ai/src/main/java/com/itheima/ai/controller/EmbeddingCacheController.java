@@ -0,0 +1,24 @@
+package com.itheima.ai.controller;
+
+import com.itheima.ai.embedding.CachingEmbeddingModel;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RequiredArgsConstructor
+@RestController
+@RequestMapping("/ai/embedding")
+public class EmbeddingCacheController {
+
+    private final CachingEmbeddingModel cachingEmbeddingModel;
+
+    /**
+     * 查询 embedding 缓存命中情况
+     * @return 内存/磁盘命中数、未命中数（即实际远程调用的文本数）、命中率、缓存占用
+     */
+    @GetMapping("/cache/stats")
+    public CachingEmbeddingModel.Stats stats() {
+        return cachingEmbeddingModel.stats();
+    }
+}
@@ -1,29 +1,40 @@
 package com.itheima.ai.controller;
 
+import com.itheima.ai.Assistant.ChatMessage;
+import com.itheima.ai.Assistant.ChatMessageRepository;
+import com.itheima.ai.Assistant.ChatStreamRecorder;
+import com.itheima.ai.config.ExecutionMode;
 import com.itheima.ai.pdf.PdfAsset;
 import com.itheima.ai.pdf.PdfAssetRepository;
+import com.itheima.ai.pdf.PdfIngestionJob;
+import com.itheima.ai.pdf.PdfIngestionService;
 import com.itheima.ai.pdf.PdfRagService;
+import com.itheima.ai.prompt.ContextPacker;
 import com.itheima.ai.repository.ChatHistoryRepository;
+import com.itheima.ai.stream.SseStreamHub;
 import lombok.RequiredArgsConstructor;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Flux;
 
+import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
 @RequiredArgsConstructor
 @RestController
@@ -34,9 +45,21 @@ public class PdfChatController {
     private final ChatHistoryRepository chatHistoryRepository;
     private final PdfAssetRepository pdfAssetRepository;
     private final PdfRagService pdfRagService;
+    private final PdfIngestionService pdfIngestionService;
+    private final ChatMessageRepository chatMessageRepository;
+    private final ChatStreamRecorder streamRecorder;
+    private final SseStreamHub sseStreamHub;
+    private final ExecutionMode executionMode;
+    private final ContextPacker contextPacker;
+
+    // chat 时最多等待索引就绪的时间，超时后用已入库的部分片段回答
+    @Value("${heima.pdf.ingest.chat-wait-ms:10000}")
+    private long chatWaitMs;
+
     /**
      * 前端：POST /ai/pdf/upload/{chatId}  body=FormData(file)
-     * 返回：{ chatId: "...", fileName: "..." }
+     * 返回：{ chatId: "...", fileName: "...", jobId: "...", state: "QUEUED" }
+     * 解析和入库在后台执行，进度查询 GET /ai/pdf/status/{chatId}
      */
 //新聊天界面上传数据
     @PostMapping("/upload/{chatId}")
@@ -50,27 +73,24 @@ public class PdfChatController {
             throw new IllegalArgumentException("only application/pdf allowed");
         }
 
-        byte[] pdfBytes = file.getBytes();
         String fileName = StringUtils.hasText(file.getOriginalFilename())
                 ? file.getOriginalFilename()
                 : "document.pdf";
 
-        // 1) 抽取文本（PDFBox依赖）
-        String pdfText = extractPdfText(pdfBytes);
-
-        // 2) 保存资产  PdfAsset对象保存
+        // 1) 保存资产：PDF 直接流式写入磁盘，不在堆上保留 byte[]（文本由后台任务抽取后写盘）
         PdfAsset asset = new PdfAsset(
                 chatId,
                 fileName,
                 "application/pdf",
-                pdfBytes,
-                pdfText,
+                0,
                 Instant.now().toEpochMilli()
         );
-        pdfAssetRepository.save(asset);
+        try (InputStream in = file.getInputStream()) {
+            pdfAssetRepository.save(asset, in);
+        }
 
-        // ✅ RAG：切分+embedding+入向量库（建议：放 try-catch，避免向量失败影响上传）
-        pdfRagService.indexPdf(chatId, fileName, pdfText, Instant.now().toEpochMilli());
+        // 2) ✅ RAG：抽取文本+切分+embedding+入向量库，异步执行，失败不影响上传
+        PdfIngestionJob job = pdfIngestionService.submit(asset);
 
         // 3) 保存会话ID到历史（type=pdf）
         chatHistoryRepository.save("pdf", chatId);
@@ -79,26 +99,50 @@ public class PdfChatController {
         Map<String, Object> res = new HashMap<>();
         res.put("chatId", chatId);
         res.put("fileName", fileName);
-        res.put("textLength", pdfText == null ? 0 : pdfText.length());
+        res.put("jobId", job.getJobId());
+        res.put("state", job.getState());
         return res;
     }
 
+    /**
+     * 前端：GET /ai/pdf/status/{chatId}
+     * 返回：解析入库进度（已抽取页数、已入库 chunk 数等）
+     */
+    @GetMapping("/status/{chatId}")
+    public PdfIngestionJob.Status status(@PathVariable("chatId") String chatId) {
+        return pdfIngestionService.findJob(chatId)
+                .map(PdfIngestionJob::status)
+                .orElseGet(() -> {
+                    // 没有任务记录：重启前上传的文档已经入库
+                    PdfAsset asset = pdfAssetRepository.findByChatId(chatId)
+                            .orElseThrow(() -> new IllegalArgumentException("PDF not found for chatId=" + chatId));
+                    return new PdfIngestionJob.Status(null, chatId, asset.getFileName(),
+                            PdfIngestionJob.State.READY, 0, 0, 0, 0, null, 0);
+                });
+    }
+
     /**
      * 前端：GET /ai/pdf/file/{chatId}
      * 用于历史会话加载时回显 PDF
+     * 直接从磁盘文件流式返回；带 Range 头时 Spring 自动返回 206 分段内容，便于大文件按需加载
      */
     @GetMapping("/file/{chatId}")
-    public ResponseEntity<ByteArrayResource> getPdfFile(@PathVariable("chatId") String chatId) {
+    public ResponseEntity<Resource> getPdfFile(@PathVariable("chatId") String chatId) {
         PdfAsset asset = pdfAssetRepository.findByChatId(chatId)
                 .orElseThrow(() -> new IllegalArgumentException("PDF not found for chatId=" + chatId));
+        FileSystemResource resource = new FileSystemResource(pdfAssetRepository.getPdfPath(chatId));
+        if (!resource.exists()) {
+            throw new IllegalArgumentException("PDF not found for chatId=" + chatId);
+        }
 
         String encodedName = URLEncoder.encode(asset.getFileName(), StandardCharsets.UTF_8);
 
-        ByteArrayResource resource = new ByteArrayResource(asset.getPdfBytes());
+        // 不手动设置 Content-Length：分段响应时由框架按实际区间计算
         return ResponseEntity.ok()
                 .contentType(MediaType.APPLICATION_PDF)
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + encodedName + "\"")
-                .contentLength(asset.getPdfBytes().length)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .lastModified(asset.getUploadTime())
                 .body(resource);
     }
 
@@ -115,16 +159,48 @@ public class PdfChatController {
 
         // 保存会话ID到历史（防止用户直接调用chat未走upload）
         chatHistoryRepository.save("pdf", chatId);
+        chatMessageRepository.append("pdf", chatId, new ChatMessage("user", prompt));
+
+        // 索引还在构建时先等一会儿；超时则用已入库的部分片段回答，一个都没有时提示稍后再问
+        return pdfIngestionService.awaitIndex(chatId, Duration.ofMillis(chatWaitMs))
+                // 检索含远程 embedding 调用，不能跑在计时线程/解析线程上
+                .publishOn(executionMode.blockingScheduler())
+                .flatMapMany(state -> {
+                    if (state == PdfIngestionJob.State.FAILED) {
+                        String error = pdfIngestionService.findJob(chatId)
+                                .map(job -> job.status().error()).orElse("");
+                        return Flux.just("文档解析失败，请重新上传。" + error);
+                    }
+
+                    // ✅ RAG 自适应检索：片段数按相似度分布决定，并补上相邻片段
+                    List<org.springframework.ai.document.Document> docs =
+                            pdfRagService.retrieveAdaptive(chatId, prompt);
+                    if (state != PdfIngestionJob.State.READY && docs.isEmpty()) {
+                        return Flux.just("文档还在解析中，请稍后再问。");
+                    }
+                    return chatWithDocs(asset, prompt, chatId, docs);
+                });
+    }
 
+    /**
+     * 前端：GET /ai/pdf/chat/sse?prompt=...&chatId=...
+     * 返回：SSE，token 合并成帧发送，支持 Last-Event-ID 断线续传
+     */
+    @GetMapping(value = "/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> chatPdfSse(@RequestParam("prompt") String prompt,
+                                                    @RequestParam("chatId") String chatId,
+                                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return sseStreamHub.stream("pdf", chatId, prompt, lastEventId, () -> chatPdf(prompt, chatId));
+    }
 
-        // ✅ RAG 检索 top2
-        List<org.springframework.ai.document.Document> docs =
-                pdfRagService.retrieveTopK(chatId, prompt, 2);
-
-        // 从全文中抽取“相关片段”给模型（避免塞全文）
-//        String context = buildRelevantContext(asset.getPdfText(), prompt);
+    // ----------------- helpers -----------------
 
-        String context = buildContextFromDocs(docs);
+    private Flux<String> chatWithDocs(PdfAsset asset, String prompt, String chatId,
+                                      List<org.springframework.ai.document.Document> docs) {
+        // 按 token 预算放入片段（得分顺序），去掉与已选片段重叠的内容
+        ContextPacker.Packed<org.springframework.ai.document.Document> packed =
+                contextPacker.pack(docs, org.springframework.ai.document.Document::getText);
+        String context = buildContextFromDocs(packed.pieces());
 
         String system = """
                 你是一个严谨的 PDF 文档问答助手。
@@ -137,100 +213,35 @@ public class PdfChatController {
                 %s
                 """.formatted(asset.getFileName(), context);
 
-        return chatClient.prompt()
+        // 历史只带剩余预算放得下的条数
+        int historyWindow = contextPacker.historyWindow(chatId, system, prompt, packed);
+        Flux<String> stream = chatClient.prompt()
                 .system(system)
                 .user(prompt)
-                .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
+                .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, historyWindow))
                 .stream()
                 .content();
-    }
-
-    // ----------------- helpers -----------------
-
-    //
-    private String extractPdfText(byte[] pdfBytes) throws Exception {
-        try (PDDocument doc = PDDocument.load(pdfBytes)) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(doc);
-            // 简单清洗
-            return text == null ? "" : text.replace("\u0000", "").trim();
-        }
+        return streamRecorder.record(stream, "pdf", chatId);
     }
 
 
     // 从 docs 中构建prompt和知识库的拼接上下文
-    private String buildContextFromDocs(List<org.springframework.ai.document.Document> docs) {
-        if (docs == null || docs.isEmpty()) return "（未检索到相关片段）";
+    private String buildContextFromDocs(List<ContextPacker.Piece<org.springframework.ai.document.Document>> pieces) {
+        if (pieces == null || pieces.isEmpty()) return "（未检索到相关片段）";
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < docs.size(); i++) {
-            var d = docs.get(i);
+        for (int i = 0; i < pieces.size(); i++) {
+            var d = pieces.get(i).item();
             var meta = d.getMetadata() == null ? Map.of() : d.getMetadata();
             sb.append("【片段 ").append(i + 1).append("】")
-                    .append(" chunkIndex=").append(meta.getOrDefault("chunkIndex", "?"))
-                    .append("\n")
-                    .append(d.getText())
+                    .append(" chunkIndex=").append(meta.getOrDefault("chunkIndex", "?"));
+            // 按页切分的片段带页码（之前入库的片段没有）
+            if (meta.get("page") != null) sb.append(" page=").append(meta.get("page"));
+            if (meta.get("heading") != null) sb.append(" 章节=").append(meta.get("heading"));
+            sb.append("\n")
+                    .append(pieces.get(i).text())
                     .append("\n\n---\n\n");
         }
         return sb.toString();
     }
-    /**
-     * 极简“检索”：从全文里截取包含关键词的若干窗口片段
-     * - 不引入向量库即可工作
-     * - 后续你想升级为 VectorStore/RAG，这里直接替换即可
-     */
-    private String buildRelevantContext(String fullText, String prompt) {
-        if (fullText == null || fullText.isBlank()) return "（文档文本为空或解析失败）";
-        if (prompt == null) prompt = "";
-
-        // 关键词：按中文/英文/数字切分，取较长的词，去重
-        Set<String> keywords = Arrays.stream(prompt
-                        .replaceAll("[\\p{Punct}，。！？、；：“”‘’（）()\\[\\]{}<>]", " ")
-                        .split("\\s+"))
-                .filter(s -> s.length() >= 2)
-                .map(String::toLowerCase)
-                .collect(Collectors.toCollection(LinkedHashSet::new));
-
-        // 没关键词：给开头一段
-        if (keywords.isEmpty()) {
-            return clip(fullText, 0, 2500);
-        }
-
-        String lower = fullText.toLowerCase();
-        List<String> snippets = new ArrayList<>();
-
-        int window = 600;      // 命中点前后窗口
-        int maxSnippets = 6;   // 最多取几段
-        int maxTotal = 2800;   // 最终给模型的最大字符（可调）
-
-        for (String kw : keywords) {
-            int idx = lower.indexOf(kw);
-            if (idx < 0) continue;
-
-            int start = Math.max(0, idx - window);
-            int end = Math.min(fullText.length(), idx + window);
-            snippets.add(fullText.substring(start, end).trim());
-
-            if (snippets.size() >= maxSnippets) break;
-        }
-
-        if (snippets.isEmpty()) {
-            // 找不到关键词：给摘要策略（这里用开头+中间+结尾拼一下）
-            String a = clip(fullText, 0, 900);
-            String b = clip(fullText, Math.max(0, fullText.length() / 2 - 450), 900);
-            String c = clip(fullText, Math.max(0, fullText.length() - 900), 900);
-            String merged = a + "\n...\n" + b + "\n...\n" + c;
-            return clip(merged, 0, maxTotal);
-        }
-
-        String merged = String.join("\n\n---\n\n", snippets);
-        return clip(merged, 0, maxTotal);
-    }
-
-    private String clip(String s, int start, int maxLen) {
-        if (s == null) return "";
-        if (start < 0) start = 0;
-        if (start >= s.length()) return "";
-        int end = Math.min(s.length(), start + maxLen);
-        return s.substring(start, end);
-    }
 }
@@ -3,19 +3,32 @@ package com.itheima.ai.controller;
 
 import com.itheima.ai.Assistant.ChatMessage;
 import com.itheima.ai.Assistant.ChatMessageRepository;
+import com.itheima.ai.Assistant.ChatStreamRecorder;
+import com.itheima.ai.prompt.ContextPacker;
 import com.itheima.ai.repository.ChatHistoryRepository;
+import com.itheima.ai.service.SemanticResponseCache;
+import com.itheima.ai.service.ServiceKbItem;
 import com.itheima.ai.service.ServiceRagService;
+import com.itheima.ai.stream.SseStreamHub;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
 @RequiredArgsConstructor
 @RestController
@@ -26,6 +39,11 @@ public class ServiceChatController {
     private final ChatHistoryRepository chatHistoryRepository;
     private final ChatMessageRepository chatMessageRepository;
     private final ServiceRagService serviceRagService;
+    private final SemanticResponseCache responseCache;
+    private final ChatMemory chatMemory;
+    private final ChatStreamRecorder streamRecorder;
+    private final SseStreamHub sseStreamHub;
+    private final ContextPacker contextPacker;
 
     @GetMapping(value = "/service", produces = "text/plain;charset=utf-8")
     public Flux<String> service(@RequestParam("prompt") String prompt,
@@ -62,7 +80,11 @@ public class ServiceChatController {
 
         // 4) RAG：检索知识库片段（简单版）
         var items = serviceRagService.retrieveTopK(prompt, 3);
-        String context = serviceRagService.buildContext(items);
+
+        // 4.1) 按 token 预算选片段：按得分放入，去掉重复内容
+        ContextPacker.Packed<ServiceKbItem> packed = contextPacker.pack(items, ServiceRagService::contextText);
+
+        String context = serviceRagService.buildContext(packed.pieces());
 
         String system = """
                 你是“小Eman”，一名Eman程序员智能客服，负责：课程咨询、预约试听、售后答疑、学习路线建议。
@@ -76,31 +98,53 @@ public class ServiceChatController {
                 %s
                 """.formatted(context);
 
+        // 4.2) 历史只带剩余预算放得下的条数
+        int historyWindow = contextPacker.historyWindow(chatId, system, prompt, packed);
+
+        // 4.3) 语义缓存：同样的知识片段和会话历史下问过几乎相同的问题，直接回放缓存的回答
+        SemanticResponseCache.Key cacheKey = responseCache.key(prompt, packed.items(),
+                historyWindow == 0 ? List.of() : chatMemory.get(chatId, historyWindow));
+        Optional<String> cached = responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            String answer = cached.get();
+            // 没经过模型，手动补上会话记忆和历史
+            chatMemory.add(chatId, List.of(new UserMessage(prompt), new AssistantMessage(answer)));
+            chatMessageRepository.append("service", chatId, new ChatMessage("assistant", answer));
+            return responseCache.replay(answer);
+        }
+
         // 5) 调模型流式输出
+        long startNanos = System.nanoTime();
         Flux<String> stream = chatClient.prompt()
                 .system(system)
                 .user(prompt)
-                .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId))
+                .advisors(a -> a.param(CHAT_MEMORY_CONVERSATION_ID_KEY, chatId)
+                        .param(CHAT_MEMORY_RETRIEVE_SIZE_KEY, historyWindow))
                 .stream()
                 .content();
 
-        // 6) 重要：把流式内容汇总后保存到历史
-        //    这里用 Reactor 的 buffer/join 思路：一边返回给前端，一边聚合用于落库
-        return stream
-                .doOnComplete(() -> {
-                    // doOnComplete拿不到最终全文，所以要用下方 share + reduce 方式更稳
-                })
-                .transform(flux -> {
-                    // share 一个给前端，一个给聚合保存
-                    Flux<String> shared = flux.share();
-
-                    shared.reduce(new StringBuilder(), StringBuilder::append)
-                            .map(StringBuilder::toString)
-                            .doOnNext(full -> chatMessageRepository.append("service", chatId, new ChatMessage("assistant", full)))
-                            .subscribe();
-
-                    return shared;
-                });
+        // 6) 一边返回给前端，一边拼接全文；结束（含前端断开）时保存一次，正常结束的回答写入语义缓存
+        return streamRecorder.record(stream, "service", chatId,
+                full -> responseCache.put(cacheKey, full, (System.nanoTime() - startNanos) / 1_000_000));
+    }
+
+    /**
+     * SSE 版本：token 合并成帧发送，支持 Last-Event-ID 断线续传
+     */
+    @GetMapping(value = "/service/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> serviceSse(@RequestParam("prompt") String prompt,
+                                                    @RequestParam("chatId") String chatId,
+                                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return sseStreamHub.stream("service", chatId, prompt, lastEventId, () -> service(prompt, chatId));
+    }
+
+    /**
+     * 查询语义缓存命中情况
+     * @return 命中/未命中次数、命中率、节省的生成耗时、失效次数、条目数
+     */
+    @GetMapping("/service/cache/stats")
+    public SemanticResponseCache.Stats cacheStats() {
+        return responseCache.stats();
     }
 
     private boolean isBookingIntent(String prompt) {
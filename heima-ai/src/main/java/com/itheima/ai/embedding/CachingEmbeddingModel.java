@@ -0,0 +1,214 @@
+package com.itheima.ai.embedding;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * 带缓存的 EmbeddingModel 装饰器，放在远程 embedding 模型前面
+ * - key = SHA-256(模型名 + 规范化文本)，规范化只做 trim 和空白折叠
+ * - 内存层：按访问顺序的 LRU，按字节预算淘汰
+ * - 磁盘层（可选）：{@link DiskEmbeddingCache}，重启后仍可命中
+ * - 一次请求里只把未命中的文本发给远程模型，结果按原顺序拼回
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel, Closeable {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // 每个内存条目的估算额外开销（key 字符串 + 数组头 + map 节点）
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private final EmbeddingModel delegate;
+
+    private final String modelName;
+
+    private final long maxMemoryBytes;
+
+    private final DiskEmbeddingCache diskCache;
+
+    // accessOrder=true，迭代顺序即 LRU 顺序
+    private final LinkedHashMap<String, float[]> memoryCache = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long memoryBytes = 0;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param delegate       真正的远程 embedding 模型
+     * @param modelName      模型名，参与缓存 key，换模型后旧缓存自然失效
+     * @param maxMemoryBytes 内存层字节上限
+     * @param diskCache      磁盘层，为 null 时只用内存层
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelName, long maxMemoryBytes,
+                                 DiskEmbeddingCache diskCache) {
+        this.delegate = delegate;
+        this.modelName = modelName;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.diskCache = diskCache;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        String model = request.getOptions() != null && request.getOptions().getModel() != null
+                ? request.getOptions().getModel() : modelName;
+        List<String> texts = request.getInstructions();
+        float[][] vectors = new float[texts.size()][];
+        String[] keys = new String[texts.size()];
+
+        // 未命中的文本按 key 去重后一次性发给远程模型：key -> 在 texts 中的位置
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] key = key(model, texts.get(i));
+            keys[i] = HexFormat.of().formatHex(key);
+            vectors[i] = lookup(keys[i], key);
+            if (vectors[i] == null) {
+                missing.computeIfAbsent(keys[i], k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<List<Integer>> groups = new ArrayList<>(missing.values());
+            List<String> missTexts = groups.stream().map(g -> texts.get(g.get(0))).toList();
+            misses.add(missTexts.size());
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missTexts, request.getOptions()));
+            List<Embedding> results = response.getResults();
+            if (results.size() != missTexts.size()) {
+                throw new IllegalStateException("Embedding count mismatch: expected " + missTexts.size()
+                        + ", got " + results.size());
+            }
+            for (int j = 0; j < results.size(); j++) {
+                Embedding embedding = results.get(j);
+                // index 为远程返回的序号，没有时按顺序
+                int n = embedding.getIndex() == null ? j : embedding.getIndex();
+                List<Integer> positions = groups.get(n);
+                float[] vector = embedding.getOutput();
+                store(keys[positions.get(0)], vector);
+                for (int position : positions) {
+                    vectors[position] = vector.clone();
+                }
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings, new EmbeddingResponseMetadata(model, null));
+    }
+
+    /**
+     * 只对正文做 embedding，不带 metadata（chatId、上传时间等），
+     * 同一份 PDF 换个会话重新上传也能命中缓存
+     */
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    /**
+     * 命中率统计
+     */
+    public Stats stats() {
+        long hitsInMemory = memoryHits.sum();
+        long hitsOnDisk = diskHits.sum();
+        long miss = misses.sum();
+        long total = hitsInMemory + hitsOnDisk + miss;
+        int entries;
+        long bytes;
+        synchronized (memoryCache) {
+            entries = memoryCache.size();
+            bytes = memoryBytes;
+        }
+        return new Stats(modelName, hitsInMemory, hitsOnDisk, miss, evictions.sum(),
+                total == 0 ? 0.0 : (double) (hitsInMemory + hitsOnDisk) / total,
+                entries, bytes, maxMemoryBytes, diskCache == null ? 0 : diskCache.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (diskCache != null) {
+            diskCache.close();
+        }
+        log.info("Embedding cache closed: {}", stats());
+    }
+
+    private float[] lookup(String hex, byte[] key) {
+        synchronized (memoryCache) {
+            float[] cached = memoryCache.get(hex);
+            if (cached != null) {
+                memoryHits.increment();
+                return cached.clone();
+            }
+        }
+        if (diskCache != null) {
+            float[] vector = diskCache.get(key);
+            if (vector != null) {
+                diskHits.increment();
+                putMemory(hex, vector.clone());
+                return vector;
+            }
+        }
+        return null;
+    }
+
+    private void store(String hex, float[] vector) {
+        putMemory(hex, vector.clone());
+        if (diskCache != null) {
+            diskCache.put(HexFormat.of().parseHex(hex), vector);
+        }
+    }
+
+    private void putMemory(String hex, float[] vector) {
+        long size = entryBytes(vector);
+        if (size > maxMemoryBytes) return;
+        synchronized (memoryCache) {
+            float[] previous = memoryCache.put(hex, vector);
+            if (previous != null) {
+                memoryBytes -= entryBytes(previous);
+            }
+            memoryBytes += size;
+            Iterator<Map.Entry<String, float[]>> it = memoryCache.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && it.hasNext()) {
+                memoryBytes -= entryBytes(it.next().getValue());
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    private static long entryBytes(float[] vector) {
+        return (long) vector.length * Float.BYTES + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private static byte[] key(String model, String text) {
+        String normalized = WHITESPACE.matcher(text == null ? "" : text.trim()).replaceAll(" ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((model == null ? "" : model).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return digest.digest(normalized.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record Stats(String model, long memoryHits, long diskHits, long misses, long evictions, double hitRate,
+                        int memoryEntries, long memoryBytes, long maxMemoryBytes, int diskEntries) {}
+}
@@ -0,0 +1,192 @@
+package com.itheima.ai.embedding;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * 磁盘层 embedding 缓存：单个追加写文件，重启后仍然有效
+ * - 文件头：[int magic][int 版本]；记录格式：[32 字节 key][int 维度][int CRC32][float * 维度]，CRC 覆盖 key、维度和向量
+ * - 堆上只保留 key -> 文件偏移，向量按需用 FileChannel 定位读取，读取时再校验一次 CRC
+ * - 启动时顺序扫描建立偏移表，在第一条不完整或校验失败的记录处截断（写一半崩溃、断电后文件尾部补零等）
+ * - 每追加 SYNC_RECORDS 条 fsync 一次，关闭时再 fsync；崩溃最多丢失最近未 fsync 的记录，而不会读到坏数据
+ * - 没有文件头的旧格式文件无法校验，直接清空重建（缓存可以重新生成）
+ */
+@Slf4j
+public class DiskEmbeddingCache implements Closeable {
+
+    private static final int FILE_MAGIC = 0x454D4243; // "EMBC"
+    private static final int FILE_VERSION = 2;
+    private static final int FILE_HEADER_BYTES = Integer.BYTES * 2;
+
+    private static final int KEY_BYTES = 32;
+    private static final int CRC_OFFSET = KEY_BYTES + Integer.BYTES;
+    private static final int HEADER_BYTES = CRC_OFFSET + Integer.BYTES;
+
+    private static final int SYNC_RECORDS = 64;
+    // 防止读到损坏数据时分配超大数组
+    private static final int MAX_DIMENSIONS = 16384;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    // hex(key) -> 记录起始偏移
+    private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+
+    // 串行化追加写；不用 synchronized，虚拟线程在锁内做文件 IO 时不会占住载体线程
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private long writePosition;
+    private int unsynced;
+
+    public DiskEmbeddingCache(Path file) throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writePosition = scan();
+        log.info("Opened disk embedding cache {}: {} entries.", file, offsets.size());
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    /**
+     * @return 未命中返回 null
+     */
+    public float[] get(byte[] key) {
+        Long offset = offsets.get(HexFormat.of().formatHex(key));
+        if (offset == null) return null;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(header, offset);
+            int dim = header.getInt(KEY_BYTES);
+            ByteBuffer body = ByteBuffer.allocate(dim * Float.BYTES);
+            readFully(body, offset + HEADER_BYTES);
+            if (crc32(header, body) != header.getInt(CRC_OFFSET)) {
+                log.warn("Checksum mismatch for embedding at offset {} in {}, ignored.", offset, file);
+                return null;
+            }
+            float[] vector = new float[dim];
+            body.flip();
+            body.asFloatBuffer().get(vector);
+            return vector;
+        } catch (IOException e) {
+            log.warn("Failed to read embedding from {}", file, e);
+            return null;
+        }
+    }
+
+    public void put(byte[] key, float[] vector) {
+        String hex = HexFormat.of().formatHex(key);
+        if (offsets.containsKey(hex)) return;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + vector.length * Float.BYTES);
+        record.put(key, 0, KEY_BYTES);
+        record.putInt(vector.length);
+        record.position(HEADER_BYTES);
+        record.asFloatBuffer().put(vector);
+        record.putInt(CRC_OFFSET, crc32(record.slice(0, HEADER_BYTES), record.slice(HEADER_BYTES, vector.length * Float.BYTES)));
+        record.position(0);
+        writeLock.lock();
+        try {
+            if (offsets.containsKey(hex)) return;
+            long offset = writePosition;
+            while (record.hasRemaining()) {
+                writePosition += channel.write(record, writePosition);
+            }
+            offsets.put(hex, offset);
+            if (++unsynced >= SYNC_RECORDS) {
+                channel.force(false);
+                unsynced = 0;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to append embedding to {}", file, e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // 扫描文件建立偏移表，返回有效数据的末尾位置
+    private long scan() throws IOException {
+        long size = channel.size();
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        if (size >= FILE_HEADER_BYTES) {
+            readFully(fileHeader, 0);
+        }
+        if (size < FILE_HEADER_BYTES || fileHeader.getInt(0) != FILE_MAGIC || fileHeader.getInt(4) != FILE_VERSION) {
+            if (size > 0) {
+                log.warn("Discarding {} bytes of unversioned or unknown embedding cache format in {}", size, file);
+            }
+            channel.truncate(0);
+            fileHeader.clear();
+            fileHeader.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+            while (fileHeader.hasRemaining()) {
+                channel.write(fileHeader, fileHeader.position());
+            }
+            channel.force(false);
+            return FILE_HEADER_BYTES;
+        }
+
+        long position = FILE_HEADER_BYTES;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (position + HEADER_BYTES <= size) {
+            header.clear();
+            readFully(header, position);
+            int dim = header.getInt(KEY_BYTES);
+            long end = position + HEADER_BYTES + (long) dim * Float.BYTES;
+            if (dim <= 0 || dim > MAX_DIMENSIONS || end > size) break;
+            ByteBuffer body = ByteBuffer.allocate(dim * Float.BYTES);
+            readFully(body, position + HEADER_BYTES);
+            if (crc32(header, body) != header.getInt(CRC_OFFSET)) break;
+            byte[] key = new byte[KEY_BYTES];
+            header.get(0, key);
+            offsets.put(HexFormat.of().formatHex(key), position);
+            position = end;
+        }
+        if (position < size) {
+            log.warn("Truncating {} trailing bytes of torn or corrupt records in {}", size - position, file);
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    // CRC 覆盖记录头中 CRC 之前的部分（key + 维度）和向量
+    private static int crc32(ByteBuffer header, ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(header.slice(0, CRC_OFFSET));
+        crc.update(body.slice(0, body.capacity()));
+        return (int) crc.getValue();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) throw new IOException("Unexpected end of " + file);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.itheima.ai.embedding;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * embedding 分批策略：每批同时受 token 总数和条数限制
+ * - Spring AI 自带的 TokenCountBatchingStrategy 只限制 token，DashScope text-embedding-v4 一次最多 10 条输入
+ * - token 按 document.getText() 估算，与 {@link CachingEmbeddingModel} 实际发送的内容一致
+ * - 保持文档原有顺序
+ */
+public class TokenAndCountBatchingStrategy implements BatchingStrategy {
+
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    private final int maxBatchSize;
+
+    private final int maxTokensPerBatch;
+
+    public TokenAndCountBatchingStrategy(int maxBatchSize, int maxTokensPerBatch) {
+        if (maxBatchSize <= 0 || maxTokensPerBatch <= 0) {
+            throw new IllegalArgumentException("maxBatchSize and maxTokensPerBatch must be positive");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxTokensPerBatch = maxTokensPerBatch;
+    }
+
+    @Override
+    public List<List<Document>> batch(List<Document> documents) {
+        List<List<Document>> batches = new ArrayList<>();
+        List<Document> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (Document document : documents) {
+            int tokens = tokenCountEstimator.estimate(document.getText() == null ? "" : document.getText());
+            if (tokens > maxTokensPerBatch) {
+                throw new IllegalArgumentException("Tokens in a single document exceeds the maximum number of allowed input tokens");
+            }
+            if (!current.isEmpty() && (current.size() >= maxBatchSize || currentTokens + tokens > maxTokensPerBatch)) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentTokens = 0;
+            }
+            current.add(document);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+}
@@ -5,6 +5,7 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.ai.chat.messages.*;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +24,8 @@ public class Msg {
     }
 
     public Message toMessage() {
+        // 紧凑序列化时空 metadata 会被省略
+        Map<String, Object> metadata = this.metadata == null ? new HashMap<>() : this.metadata;
         return switch (messageType) {
             case SYSTEM -> new SystemMessage(text);
             case USER -> new UserMessage(text, List.of(), metadata);
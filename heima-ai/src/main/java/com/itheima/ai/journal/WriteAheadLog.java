@@ -0,0 +1,402 @@
+package com.itheima.ai.journal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写日志（WAL）+ 定期快照
+ * - 每次状态变更先在内存生效，同时把一条记录放进待写队列；后台每 flushIntervalMs 批量写盘并 fsync 一次（组提交）
+ * - 记录格式：[int 长度][int CRC32][JSON]，重放时遇到写一半的记录即截断
+ * - 累计 checkpointRecords 条记录后做快照：切换到新日志段，把当前状态写成 JSON 快照（沿用原来的 json 文件），再删掉旧日志段
+ * - 启动时：完成上次中断的快照 -> 调用方加载快照 -> {@link #replay} 重放快照之后的日志段 -> {@link #start}
+ *
+ * 快照提交过程（保证崩溃在任意一步都能恢复到一致状态）：
+ * 1. 快照写到 <文件>.<段号>.tmp
+ * 2. checkpoint 文件（记录段号和快照文件列表）原子替换，这一步即提交点
+ * 3. 把 tmp 改名为正式文件，删除已被快照覆盖的日志段；启动时发现未改名的 tmp 会继续完成
+ */
+@Slf4j
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * 在日志锁内调用，返回 快照文件 -> 要序列化的状态拷贝（序列化在锁外进行）
+     */
+    @FunctionalInterface
+    public interface SnapshotSource {
+        Map<Path, Object> capture();
+
+        /**
+         * 后台定期询问，返回 true 时即使记录数未到阈值也做一次快照（例如有状态需要淘汰落盘）
+         */
+        default boolean checkpointDue() {
+            return false;
+        }
+
+        /**
+         * 快照结束后回调；committed=false 表示本次快照失败，capture 中移出内存的状态需要放回
+         */
+        default void checkpointed(boolean committed) {
+        }
+    }
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_BYTES = 8;
+    // 单条记录上限，超过视为损坏
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+    // 询问 SnapshotSource.checkpointDue 的间隔
+    private static final long DUE_CHECK_INTERVAL_MS = 10_000;
+
+    private final Path dir;
+    private final ObjectMapper objectMapper;
+    private final SnapshotSource snapshotSource;
+    private final long flushIntervalMs;
+    private final long checkpointRecords;
+
+    // 状态变更 + 入队在同一把锁内完成，保证日志顺序与内存中的变更顺序一致；快照时持有写锁切段
+    // append 取写锁（全局有序）；appendShared 取读锁，可并发，顺序由调用方按 key 保证
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 保护 segment 的写入和切换
+    private final Object ioLock = new Object();
+
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong recordsSinceCheckpoint = new AtomicLong();
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean();
+
+    // 最近一次已提交快照覆盖到的日志段号（含）
+    private long checkpointSeq;
+    private long segmentSeq;
+    private FileChannel segment;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 打开日志目录，并完成上次中断的快照提交；调用方随后加载快照文件
+     */
+    public WriteAheadLog(Path dir, ObjectMapper objectMapper, SnapshotSource snapshotSource,
+                         long flushIntervalMs, long checkpointRecords) throws IOException {
+        this.dir = dir;
+        this.objectMapper = objectMapper;
+        this.snapshotSource = snapshotSource;
+        this.flushIntervalMs = flushIntervalMs;
+        this.checkpointRecords = checkpointRecords;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    /**
+     * 重放快照之后的全部日志段
+     */
+    public <T> void replay(Class<T> recordType, Consumer<T> handler) throws IOException {
+        long replayed = 0;
+        for (long seq : segmentSeqs()) {
+            Path path = segmentPath(seq);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long size = channel.size();
+                long position = 0;
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                while (position + HEADER_BYTES <= size) {
+                    header.clear();
+                    readFully(channel, header, position);
+                    int length = header.getInt(0);
+                    int crc = header.getInt(4);
+                    if (length < 0 || length > MAX_RECORD_BYTES || position + HEADER_BYTES + length > size) break;
+                    ByteBuffer body = ByteBuffer.allocate(length);
+                    readFully(channel, body, position + HEADER_BYTES);
+                    if (crc32(body.array()) != crc) break;
+                    handler.accept(objectMapper.readValue(body.array(), recordType));
+                    replayed++;
+                    position += HEADER_BYTES + length;
+                }
+                if (position < size) {
+                    log.warn("Truncating {} bytes of torn records at the end of {}", size - position, path);
+                    channel.truncate(position);
+                }
+            }
+        }
+        recordsSinceCheckpoint.set(replayed);
+        log.info("Replayed {} journal records from {}", replayed, dir);
+    }
+
+    /**
+     * 打开新的日志段并启动后台刷盘
+     */
+    public void start() throws IOException {
+        List<Long> seqs = segmentSeqs();
+        long next = Math.max(checkpointSeq, seqs.isEmpty() ? 0 : seqs.get(seqs.size() - 1)) + 1;
+        synchronized (ioLock) {
+            openSegment(next);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wal-" + dir.getFileName());
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (snapshotSource.checkpointDue()) checkpoint();
+        }, DUE_CHECK_INTERVAL_MS, DUE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 在锁内执行状态变更并记录日志；record 在锁外序列化
+     */
+    public void append(Object record, Runnable mutation) {
+        byte[] payload = serialize(record);
+        lock.writeLock().lock();
+        try {
+            mutation.run();
+            pending.add(payload);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        afterAppend();
+    }
+
+    /**
+     * 与 append 相同，但不同调用之间可以并发执行，只与快照互斥
+     * 适用于不同 key 之间的变更可交换的状态：调用方需自行保证同一 key 的变更串行（例如按 key 加锁后再调用），
+     * 这样同一 key 的日志顺序与内存顺序一致；capture 不能再去获取这些 key 锁，否则会与持锁等待读锁的写入方死锁
+     */
+    public void appendShared(Object record, Runnable mutation) {
+        byte[] payload = serialize(record);
+        lock.readLock().lock();
+        try {
+            mutation.run();
+            pending.add(payload);
+        } finally {
+            lock.readLock().unlock();
+        }
+        afterAppend();
+    }
+
+    private byte[] serialize(Object record) {
+        try {
+            return objectMapper.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize journal record", e);
+        }
+    }
+
+    private void afterAppend() {
+        if (recordsSinceCheckpoint.incrementAndGet() >= checkpointRecords) {
+            requestCheckpoint();
+        }
+    }
+
+    /**
+     * 在后台线程尽快做一次快照，已有快照在进行时忽略
+     */
+    public void requestCheckpoint() {
+        if (scheduler != null && !scheduler.isShutdown() && !checkpointRunning.get()) {
+            scheduler.execute(this::checkpoint);
+        }
+    }
+
+    /**
+     * 做一次快照并清理已被覆盖的日志段
+     */
+    public void checkpoint() {
+        if (!checkpointRunning.compareAndSet(false, true)) return;
+        boolean captured = false;
+        boolean committed = false;
+        try {
+            Map<Path, Object> state;
+            long coveredSeq;
+            lock.writeLock().lock();
+            try {
+                synchronized (ioLock) {
+                    flushLocked();
+                    coveredSeq = segmentSeq;
+                    segment.close();
+                    openSegment(coveredSeq + 1);
+                }
+                state = snapshotSource.capture();
+                captured = true;
+                recordsSinceCheckpoint.set(0);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            // 1) 快照写临时文件
+            for (Map.Entry<Path, Object> entry : state.entrySet()) {
+                Path tmp = tmpPath(entry.getKey(), coveredSeq);
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    out.write(ByteBuffer.wrap(objectMapper.writerWithDefaultPrettyPrinter()
+                            .writeValueAsBytes(entry.getValue())));
+                    out.force(true);
+                }
+            }
+
+            // 2) 提交点：checkpoint 文件原子替换
+            StringBuilder content = new StringBuilder().append(coveredSeq).append('\n');
+            state.keySet().forEach(p -> content.append(p.toString()).append('\n'));
+            Path checkpointTmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            try (FileChannel out = FileChannel.open(checkpointTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                out.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+                out.force(true);
+            }
+            Files.move(checkpointTmp, dir.resolve(CHECKPOINT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpointSeq = coveredSeq;
+
+            // 3) 改名 + 清理
+            rollForward(coveredSeq, state.keySet());
+            committed = true;
+            deleteSegmentsUpTo(coveredSeq);
+            log.debug("Journal {} checkpointed at segment {}", dir, coveredSeq);
+        } catch (IOException e) {
+            log.error("Failed to checkpoint journal {}", dir, e);
+        } finally {
+            if (captured) snapshotSource.checkpointed(committed);
+            checkpointRunning.set(false);
+        }
+    }
+
+    /**
+     * 关闭前做一次快照，下次启动只需加载快照
+     */
+    @Override
+    public void close() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (segment != null) {
+            checkpoint();
+            synchronized (ioLock) {
+                flushLocked();
+                segment.close();
+            }
+        }
+    }
+
+    // ----------------- helpers -----------------
+
+    private void recover() throws IOException {
+        Path checkpoint = dir.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpoint)) return;
+        List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) return;
+        checkpointSeq = Long.parseLong(lines.get(0).trim());
+        List<Path> files = lines.subList(1, lines.size()).stream()
+                .filter(s -> !s.isBlank()).map(Path::of).toList();
+        rollForward(checkpointSeq, files);
+        deleteSegmentsUpTo(checkpointSeq);
+    }
+
+    private void rollForward(long seq, Collection<Path> files) throws IOException {
+        for (Path file : files) {
+            Path tmp = tmpPath(file, seq);
+            if (Files.exists(tmp)) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    private void deleteSegmentsUpTo(long seq) throws IOException {
+        for (long s : allSegmentSeqs()) {
+            if (s <= seq) Files.deleteIfExists(segmentPath(s));
+        }
+    }
+
+    // 快照之后的日志段，按段号升序
+    private List<Long> segmentSeqs() throws IOException {
+        return allSegmentSeqs().stream().filter(s -> s > checkpointSeq).toList();
+    }
+
+    private List<Long> allSegmentSeqs() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> Long.parseLong(n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long seq) {
+        return dir.resolve(SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+    }
+
+    private static Path tmpPath(Path file, long seq) {
+        return file.resolveSibling(file.getFileName() + "." + seq + ".tmp");
+    }
+
+    private void openSegment(long seq) throws IOException {
+        segment = FileChannel.open(segmentPath(seq), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentSeq = seq;
+    }
+
+    private void flushQuietly() {
+        try {
+            synchronized (ioLock) {
+                flushLocked();
+            }
+        } catch (IOException e) {
+            log.error("Failed to flush journal {}", dir, e);
+        }
+    }
+
+    // 把队列里的记录一次性写入当前段并 fsync
+    private void flushLocked() throws IOException {
+        if (pending.isEmpty()) return;
+        List<ByteBuffer> buffers = new ArrayList<>();
+        byte[] payload;
+        while ((payload = pending.poll()) != null) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(payload.length).putInt(crc32(payload)).flip();
+            buffers.add(header);
+            buffers.add(ByteBuffer.wrap(payload));
+        }
+        ByteBuffer[] array = buffers.toArray(new ByteBuffer[0]);
+        long remaining = buffers.stream().mapToLong(ByteBuffer::remaining).sum();
+        while (remaining > 0) {
+            remaining -= segment.write(array);
+        }
+        segment.force(false);
+    }
+
+    private static int crc32(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of journal segment");
+            }
+        }
+    }
+}
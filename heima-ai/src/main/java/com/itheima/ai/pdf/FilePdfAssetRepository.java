@@ -0,0 +1,227 @@
+package com.itheima.ai.pdf;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * PDF 资产存磁盘，内存里只有元数据
+ * - 上传时 PDF 直接流式写入 pdf-store/<chatId>.pdf，抽取的文本写 pdf-store/<chatId>.txt，
+ *   入库的片段写 pdf-store/<chatId>.chunks.json，均按需读取
+ * - 元数据（pdf-assets.json）每次变更即落盘（先写临时文件再原子替换），不依赖正常关闭
+ * - 兼容旧格式：启动时把 pdf-assets.json 里内联的 pdfText 迁移成 .txt 文件
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FilePdfAssetRepository implements PdfAssetRepository {
+
+    private final ObjectMapper objectMapper;
+
+    // chatId -> 元数据
+    private final Map<String, PdfAsset> store = new ConcurrentHashMap<>();
+
+    private static final String META_FILE = "pdf-assets.json";
+    private static final String PDF_DIR = "pdf-store";
+
+    // 可以直接作为文件名的 chatId，其余的做 base64url 编码，防止路径穿越
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+    @Override
+    public PdfAsset save(PdfAsset asset, InputStream pdf) throws IOException {
+        Path target = getPdfPath(asset.getChatId());
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long size = Files.copy(pdf, tmp, StandardCopyOption.REPLACE_EXISTING);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // 重新上传：旧文本和片段作废，等新的抽取结果
+        Files.deleteIfExists(textPath(asset.getChatId()));
+        Files.deleteIfExists(chunksPath(asset.getChatId()));
+
+        asset.setSize(size);
+        store.put(asset.getChatId(), asset);
+        persistMeta();
+        return asset;
+    }
+
+    @Override
+    public Optional<PdfAsset> findByChatId(String chatId) {
+        return Optional.ofNullable(store.get(chatId));
+    }
+
+    @Override
+    public List<String> findAllChatIds() {
+        return List.copyOf(store.keySet());
+    }
+
+    @Override
+    public boolean exists(String chatId) {
+        return store.containsKey(chatId);
+    }
+
+    @Override
+    public Path getPdfPath(String chatId) {
+        return Path.of(PDF_DIR, fileBase(chatId) + ".pdf");
+    }
+
+    @Override
+    public void saveText(String chatId, String text) {
+        Path target = textPath(chatId);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.writeString(tmp, text == null ? "" : text, StandardCharsets.UTF_8);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to save pdf text for chatId={}", chatId, e);
+        }
+    }
+
+    @Override
+    public TextWriter openTextWriter(String chatId) throws IOException {
+        Path target = textPath(chatId);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8);
+        return new TextWriter() {
+            private boolean committed;
+
+            @Override
+            public void append(String text) throws IOException {
+                writer.write(text);
+            }
+
+            @Override
+            public void commit() throws IOException {
+                writer.close();
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (committed) return;
+                writer.close();
+                Files.deleteIfExists(tmp);
+            }
+        };
+    }
+
+    @Override
+    public Optional<String> findText(String chatId) {
+        Path path = textPath(chatId);
+        if (!store.containsKey(chatId) || !Files.exists(path)) return Optional.empty();
+        try {
+            return Optional.of(Files.readString(path, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.error("Failed to read pdf text for chatId={}", chatId, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void saveChunks(String chatId, List<PdfChunk> chunks) {
+        Path target = chunksPath(chatId);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), chunks);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to save pdf chunks for chatId={}", chatId, e);
+        }
+    }
+
+    @Override
+    public List<PdfChunk> findChunks(String chatId) {
+        Path path = chunksPath(chatId);
+        if (!store.containsKey(chatId) || !Files.exists(path)) return List.of();
+        try {
+            return objectMapper.readValue(path.toFile(), new TypeReference<>() {});
+        } catch (IOException e) {
+            log.error("Failed to read pdf chunks for chatId={}", chatId, e);
+            return List.of();
+        }
+    }
+
+    //启动时只加载元数据，不读 PDF 内容
+    @PostConstruct
+    private void init() {
+        try {
+            Files.createDirectories(Path.of(PDF_DIR));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create pdf-store dir", e);
+        }
+
+        FileSystemResource meta = new FileSystemResource(META_FILE);
+        if (!meta.exists()) return;
+
+        try {
+            Map<String, Map<String, Object>> metaMap =
+                    objectMapper.readValue(meta.getInputStream(), new TypeReference<>() {});
+
+            for (var entry : metaMap.entrySet()) {
+                String chatId = entry.getKey();
+                Map<String, Object> m = entry.getValue();
+
+                Path pdfPath = getPdfPath(chatId);
+                if (!Files.exists(pdfPath)) continue;
+
+                String fileName = (String) m.getOrDefault("fileName", "document.pdf");
+                String contentType = (String) m.getOrDefault("contentType", "application/pdf");
+                long uploadTime = ((Number) m.getOrDefault("uploadTime", 0)).longValue();
+                store.put(chatId, new PdfAsset(chatId, fileName, contentType, Files.size(pdfPath), uploadTime));
+
+                // 旧格式：文本内联在元数据里
+                Object pdfText = m.get("pdfText");
+                if (pdfText instanceof String text && !Files.exists(textPath(chatId))) {
+                    saveText(chatId, text);
+                }
+            }
+            if (metaMap.values().stream().anyMatch(m -> m.containsKey("pdfText"))) {
+                persistMeta();
+            }
+
+            log.info("Loaded {} pdf assets from disk.", store.size());
+        } catch (Exception e) {
+            log.error("Failed to init pdf assets", e);
+            // 不要影响启动，可按需要改为 throw
+        }
+    }
+
+    private synchronized void persistMeta() {
+        Path target = Path.of(META_FILE);
+        Path tmp = Path.of(META_FILE + ".tmp");
+        try {
+            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(new TreeMap<>(store));
+            Files.writeString(tmp, json, StandardCharsets.UTF_8);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to persist pdf assets", e);
+        }
+    }
+
+    private Path textPath(String chatId) {
+        return Path.of(PDF_DIR, fileBase(chatId) + ".txt");
+    }
+
+    private Path chunksPath(String chatId) {
+        return Path.of(PDF_DIR, fileBase(chatId) + ".chunks.json");
+    }
+
+    private static String fileBase(String chatId) {
+        if (SAFE_ID.matcher(chatId).matches()) return chatId;
+        return "b64-" + Base64.getUrlEncoder().withoutPadding().encodeToString(chatId.getBytes(StandardCharsets.UTF_8));
+    }
+}
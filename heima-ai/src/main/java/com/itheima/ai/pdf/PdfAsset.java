@@ -4,6 +4,9 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+/**
+ * PDF 元数据；原文件和抽取出的文本都在磁盘上，通过 PdfAssetRepository 按需读取
+ */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -11,7 +14,6 @@ public class PdfAsset {
     private String chatId;
     private String fileName;
     private String contentType; // application/pdf
-    private byte[] pdfBytes;    // 原始PDF
-    private String pdfText;     // 抽取出的文本
+    private long size;          // 原始PDF字节数
     private long uploadTime;
 }
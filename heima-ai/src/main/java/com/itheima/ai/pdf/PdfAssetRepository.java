@@ -1,12 +1,65 @@
 package com.itheima.ai.pdf;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Optional;
 
 public interface PdfAssetRepository {
 
-    void save(PdfAsset asset);
+    /**
+     * 保存 PDF：内容直接写入磁盘，只在内存保留元数据
+     * @return 补全了 size 的元数据
+     */
+    PdfAsset save(PdfAsset asset, InputStream pdf) throws IOException;
 
     Optional<PdfAsset> findByChatId(String chatId);
 
+    /**
+     * 全部已上传 PDF 的 chatId
+     */
+    List<String> findAllChatIds();
+
     boolean exists(String chatId);
+
+    /**
+     * PDF 原文件路径（文件可能不存在）
+     */
+    Path getPdfPath(String chatId);
+
+    /**
+     * 保存抽取出的文本
+     */
+    void saveText(String chatId, String text);
+
+    /**
+     * 逐页写入抽取出的文本，不在内存中拼接全文；commit 后替换旧文件，未 commit 就 close 时丢弃
+     */
+    TextWriter openTextWriter(String chatId) throws IOException;
+
+    /**
+     * 按需从磁盘读取抽取出的文本
+     */
+    Optional<String> findText(String chatId);
+
+    /**
+     * 保存入库的全部片段
+     */
+    void saveChunks(String chatId, List<PdfChunk> chunks);
+
+    /**
+     * 读取入库的片段，未保存过时返回空列表
+     */
+    List<PdfChunk> findChunks(String chatId);
+
+    interface TextWriter extends AutoCloseable {
+
+        void append(String text) throws IOException;
+
+        void commit() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
 }
@@ -0,0 +1,19 @@
+package com.itheima.ai.pdf;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * 入库的 PDF 片段（与向量库中的文档 id、文本、metadata 一致），用于重启后重建关键词索引
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PdfChunk {
+    private String id;
+    private String text;
+    private Map<String, Object> metadata;
+}
@@ -0,0 +1,123 @@
+package com.itheima.ai.pdf;
+
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一次 PDF 解析入库任务：抽取文本 -> 切分 -> embedding 入向量库
+ * 各阶段进度由后台线程更新，状态接口和 chat 接口读取
+ */
+public class PdfIngestionJob {
+
+    public enum State { QUEUED, EXTRACTING, INDEXING, READY, FAILED, CANCELLED }
+
+    private final String jobId = UUID.randomUUID().toString();
+    private final String chatId;
+    private final String fileName;
+    private final long createTime = System.currentTimeMillis();
+
+    private volatile State state = State.QUEUED;
+    private volatile String error;
+    private volatile long finishTime;
+
+    private final AtomicInteger pagesTotal = new AtomicInteger();
+    private final AtomicInteger pagesExtracted = new AtomicInteger();
+    private final AtomicInteger chunksTotal = new AtomicInteger();
+    private final AtomicInteger chunksEmbedded = new AtomicInteger();
+
+    // 任务结束（成功/失败/取消）时完成，chat 接口据此等待索引就绪
+    private final CompletableFuture<PdfIngestionJob> done = new CompletableFuture<>();
+
+    // 后台线程真正退出时完成；取消后旧任务可能还在写最后一批，新任务要等它退出再开始
+    private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+
+    public PdfIngestionJob(String chatId, String fileName) {
+        this.chatId = chatId;
+        this.fileName = fileName;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getChatId() {
+        return chatId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return done.isDone();
+    }
+
+    public boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    public CompletableFuture<PdfIngestionJob> done() {
+        return done;
+    }
+
+    CompletableFuture<Void> terminated() {
+        return terminated;
+    }
+
+    void start(State state) {
+        if (!isFinished()) this.state = state;
+    }
+
+    void pagesTotal(int total) {
+        pagesTotal.set(total);
+    }
+
+    void pageExtracted() {
+        pagesExtracted.incrementAndGet();
+    }
+
+    /**
+     * 每切分出一批 chunk 调用一次，累计 chunk 总数（边抽取边切分时总数会持续增长）
+     */
+    public void chunked(int count) {
+        chunksTotal.addAndGet(count);
+    }
+
+    public void embedded(int count) {
+        chunksEmbedded.addAndGet(count);
+    }
+
+    void succeed() {
+        finish(State.READY, null);
+    }
+
+    void fail(Throwable e) {
+        finish(State.FAILED, e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage());
+    }
+
+    void cancel() {
+        finish(State.CANCELLED, "superseded by a newer upload");
+    }
+
+    private synchronized void finish(State state, String error) {
+        if (isFinished()) return;
+        this.state = state;
+        this.error = error;
+        this.finishTime = System.currentTimeMillis();
+        done.complete(this);
+    }
+
+    public Status status() {
+        long end = finishTime == 0 ? System.currentTimeMillis() : finishTime;
+        return new Status(jobId, chatId, fileName, state, pagesTotal.get(), pagesExtracted.get(),
+                chunksTotal.get(), chunksEmbedded.get(), error, end - createTime);
+    }
+
+    /**
+     * 状态快照，GET /ai/pdf/status/{chatId} 直接返回
+     */
+    public record Status(String jobId, String chatId, String fileName, State state,
+                         int pagesTotal, int pagesExtracted, int chunksTotal, int chunksEmbedded,
+                         String error, long elapsedMs) {}
+}
@@ -0,0 +1,132 @@
+package com.itheima.ai.pdf;
+
+import com.itheima.ai.config.ExecutionMode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * PDF 异步解析入库：上传接口只保存原文件并提交任务，抽取/切分/embedding 在专用线程池里执行
+ * - 线程池和等待队列都有上限，队列满时直接拒绝上传（背压），不会无限堆积
+ * - 每个 chatId 只保留最新一个任务，重新上传会取消旧任务
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PdfIngestionService {
+
+    private final PdfAssetRepository pdfAssetRepository;
+    private final PdfRagService pdfRagService;
+    private final PdfTextExtractor pdfTextExtractor;
+    private final ExecutionMode executionMode;
+
+    @Value("${heima.pdf.ingest.workers:2}")
+    private int workers;
+
+    @Value("${heima.pdf.ingest.queue-capacity:16}")
+    private int queueCapacity;
+
+    // chatId -> 最新的任务
+    private final Map<String, PdfIngestionJob> jobs = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    private void init() {
+        // 线程数即同时入库的文档数，虚拟线程模式下同样受限
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                executionMode.threadFactory("pdf-ingest-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 提交解析任务，立即返回
+     * @throws IllegalStateException 队列已满
+     */
+    public PdfIngestionJob submit(PdfAsset asset) {
+        PdfIngestionJob job = new PdfIngestionJob(asset.getChatId(), asset.getFileName());
+        PdfIngestionJob previous = jobs.put(asset.getChatId(), job);
+        if (previous != null) {
+            previous.cancel();
+        }
+        try {
+            executor.execute(() -> run(job, asset, previous));
+        } catch (RejectedExecutionException e) {
+            job.fail(e);
+            job.terminated().complete(null);
+            throw new IllegalStateException("PDF ingestion queue is full, please retry later");
+        }
+        return job;
+    }
+
+    public Optional<PdfIngestionJob> findJob(String chatId) {
+        return Optional.ofNullable(jobs.get(chatId));
+    }
+
+    /**
+     * 等待 chatId 的索引就绪，最多等 timeout；超时返回当时的状态（调用方自行降级）
+     * 没有任务记录（如重启前上传的文档）视为 READY
+     */
+    public Mono<PdfIngestionJob.State> awaitIndex(String chatId, Duration timeout) {
+        PdfIngestionJob job = jobs.get(chatId);
+        if (job == null || job.isFinished()) {
+            return Mono.just(job == null ? PdfIngestionJob.State.READY : job.getState());
+        }
+        return Mono.fromFuture(job.done().copy())
+                .map(PdfIngestionJob::getState)
+                .timeout(timeout, Mono.fromSupplier(job::getState));
+    }
+
+    private void run(PdfIngestionJob job, PdfAsset asset, PdfIngestionJob previous) {
+        try {
+            if (previous != null) {
+                previous.terminated().join();
+            }
+            if (job.isFinished()) return;
+
+            // 1) 多线程按页抽取文本，每页按顺序交给切分 + embedding，两者流水线并行
+            job.start(PdfIngestionJob.State.EXTRACTING);
+            // 无论成功与否，indexer 关闭时都会等在途批次退出，之后新任务才能重建该分区
+            // 文本逐页写盘、逐页切分，不拼接全文；chunk 的字符区间即在该文本文件中的位置
+            try (PdfRagService.Indexer indexer = pdfRagService.openIndexer(asset.getChatId(), asset.getFileName(),
+                    asset.getUploadTime(), job);
+                 PdfAssetRepository.TextWriter textWriter = pdfAssetRepository.openTextWriter(asset.getChatId())) {
+                pdfTextExtractor.extract(pdfAssetRepository.getPdfPath(asset.getChatId()), (page, totalPages, text) -> {
+                    job.pagesTotal(totalPages);
+                    job.pageExtracted();
+                    textWriter.append(text);
+                    indexer.appendPage(page, text);
+                }, job::isCancelled);
+                if (job.isCancelled()) return;
+                textWriter.commit();
+
+                // 2) 切分剩余文本，等待 embedding 全部入库
+                job.start(PdfIngestionJob.State.INDEXING);
+                indexer.finish();
+            }
+            if (job.isCancelled()) return;
+            job.succeed();
+            log.info("Indexed pdf {} for chatId={}: {}", asset.getFileName(), asset.getChatId(), job.status());
+        } catch (Exception e) {
+            log.error("Failed to ingest pdf {} for chatId={}", asset.getFileName(), asset.getChatId(), e);
+            job.fail(e);
+        } finally {
+            job.terminated().complete(null);
+        }
+    }
+}
@@ -1,15 +1,29 @@
 package com.itheima.ai.pdf;
 
+import com.itheima.ai.config.ExecutionMode;
+import com.itheima.ai.search.Bm25Index;
+import com.itheima.ai.search.HybridRetriever;
+import com.itheima.ai.vectorstore.PartitionedVectorStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.SearchRequest;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class PdfRagService {
@@ -17,49 +31,456 @@ public class PdfRagService {
     private final VectorStore vectorStore;
     private final EmbeddingModel embeddingModel;
 
+    // 与向量库共用的分批策略（条数 + token 上限），每批正好对应一次远程 embedding 调用
+    private final BatchingStrategy embeddingBatchingStrategy;
 
+    private final PdfAssetRepository pdfAssetRepository;
+    private final HybridRetriever hybridRetriever;
+    private final ExecutionMode executionMode;
+
+    // 内存中最多保留的关键词索引数（每个 chatId 一个），淘汰后下次检索从 chunks 文件重建
+    private static final int MAX_LEXICAL_INDEXES = 32;
+
+    // chatId -> 该文档片段的关键词索引，按访问顺序淘汰
+    private final Map<String, ChunkIndex> lexicalIndexes = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ChunkIndex> eldest) {
+                    return size() > MAX_LEXICAL_INDEXES;
+                }
+            });
+
+    // 同时在途的 embedding 批次数，按服务商限流调整
+    @Value("${heima.pdf.embed.concurrency:4}")
+    private int concurrency;
+
+    // 单批失败的最大尝试次数（含第一次）和首次退避时间，之后每次翻倍
+    @Value("${heima.pdf.embed.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${heima.pdf.embed.backoff-ms:500}")
+    private long backoffMs;
+
+    // 每个 chunk 的 token 上限；章节不足 min-tokens 时与下一章节合并，避免碎片
+    @Value("${heima.pdf.chunk.max-tokens:800}")
+    private int chunkMaxTokens;
+
+    @Value("${heima.pdf.chunk.min-tokens:400}")
+    private int chunkMinTokens;
+
+    // 自适应 top-K：结果数范围、向量相似度阈值、相邻得分的最大落差、每个结果前后补充的相邻 chunk 数
+    @Value("${heima.pdf.retrieval.min-k:1}")
+    private int minK;
+
+    @Value("${heima.pdf.retrieval.max-k:4}")
+    private int maxK;
+
+    @Value("${heima.pdf.retrieval.similarity-threshold:0.3}")
+    private double similarityThreshold;
+
+    @Value("${heima.pdf.retrieval.max-gap:0.1}")
+    private double maxGap;
+
+    @Value("${heima.pdf.retrieval.neighbors:1}")
+    private int neighbors;
+
+    private ExecutorService embedExecutor;
+
+    @PostConstruct
+    private void init() {
+        embedExecutor = executionMode.newFixedExecutor("pdf-embed-", concurrency);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        embedExecutor.shutdownNow();
+    }
 
     /**
      * 1) 将 pdfText 切分为 chunks
      * 2) chunks 向量化入库（带 metadata: chatId/fileName/chunkIndex/uploadTime）
      */
     public void indexPdf(String chatId, String fileName, String pdfText, long uploadTime) {
+        indexPdf(chatId, fileName, pdfText, uploadTime, null);
+    }
+
+    /**
+     * 同上，按批并发入库并把进度记到 job 上；job 被取消时在批次之间停止
+     * 某一批重试后仍失败时，尚未开始的批次不再执行，抛出该批的异常
+     * @param job 可为 null
+     */
+    public void indexPdf(String chatId, String fileName, String pdfText, long uploadTime, PdfIngestionJob job) {
         if (pdfText == null || pdfText.isBlank()) return;
 
-        // 切分策略：chunkSize / overlap 可按你模型上下文调整
-        TokenTextSplitter splitter = new TokenTextSplitter(800, 200, 20, 2000, true);
-        List<Document> docs = splitter.apply(List.of(new Document(pdfText)));
+        Indexer indexer = openIndexer(chatId, fileName, uploadTime, job);
+        indexer.appendPage(1, pdfText);
+        indexer.finish();
+    }
+
+    /**
+     * 增量入库：文本按页陆续 appendPage，切出完整的 chunk 就提交 embedding，不必等全文抽取完
+     * 会先删除该 chatId 下的旧 chunks
+     * @param job 可为 null
+     */
+    public Indexer openIndexer(String chatId, String fileName, long uploadTime, PdfIngestionJob job) {
+        // 同一 chatId 重新上传：先丢弃旧文档的 chunks（分区向量库下为 O(1)）
+        deleteByChatId(chatId);
+        return new Indexer(chatId, fileName, uploadTime, job);
+    }
+
+    /**
+     * 一次增量入库过程，非线程安全，由单个线程依次 appendPage 后 finish
+     * close() 等待已提交的批次退出（未开始的直接跳过），保证返回后不会再有写入
+     */
+    public class Indexer implements AutoCloseable {
 
-        List<Document> toStore = new ArrayList<>(docs.size());
-        for (int i = 0; i < docs.size(); i++) {
-            Document d = docs.get(i);
+        // 攒够这么多 chunk 提交一次 embedding（再由分批策略按条数和 token 上限拆批）
+        private static final int SUBMIT_CHUNKS = 20;
 
-            Map<String, Object> meta = new HashMap<>();
-            meta.put("chatId", chatId);
-            meta.put("fileName", fileName);
-            meta.put("chunkIndex", i);
-            meta.put("uploadTime", uploadTime);
+        // 按页面、标题、段落边界切分
+        private final StructuredPdfChunker chunker = new StructuredPdfChunker(chunkMaxTokens, chunkMinTokens);
+
+        private final String chatId;
+        private final String fileName;
+        private final long uploadTime;
+        private final PdfIngestionJob job;
+
+        private final List<Document> pending = new ArrayList<>();
+        private int nextChunkIndex = 0;
+
+        // 切分出的片段同时进关键词索引，finish 时落盘供重启后重建
+        private final ChunkIndex lexical = new ChunkIndex();
+        private final List<PdfChunk> chunks = new ArrayList<>();
+
+        // 在途批次上限：embedding 跟不上时阻塞 appendPage，进而阻塞上游抽取
+        private final Semaphore inFlight = new Semaphore(concurrency * 2);
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private volatile boolean closed = false;
+
+        private Indexer(String chatId, String fileName, long uploadTime, PdfIngestionJob job) {
+            this.chatId = chatId;
+            this.fileName = fileName;
+            this.uploadTime = uploadTime;
+            this.job = job;
+            lexicalIndexes.put(chatId, lexical);
+        }
 
-            // 重新构造，确保 metadata 完整
-            toStore.add(new Document(d.getText(), meta));
+        /**
+         * @param page 页号，从 1 开始，按顺序调用
+         */
+        public void appendPage(int page, String text) {
+            if (failure.get() != null) throw failure.get();
+            add(chunker.append(page, text));
+            if (pending.size() >= SUBMIT_CHUNKS) submitPending();
         }
 
-        // 写入向量库（内部会自动调用 embeddingModel 生成向量）
-        vectorStore.add(toStore);
+        /**
+         * 切分剩余文本并等待全部批次写入完成
+         */
+        public void finish() {
+            if (failure.get() != null) throw failure.get();
+            add(chunker.finish());
+            submitPending();
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futures.forEach(f -> f.cancel(true));
+                    throw new IllegalStateException("Interrupted while indexing pdf for chatId=" + chatId, e);
+                } catch (ExecutionException e) {
+                    failure.compareAndSet(null, new IllegalStateException(e.getCause()));
+                }
+            }
+            if (failure.get() != null) {
+                throw failure.get();
+            }
+            pdfAssetRepository.saveChunks(chatId, chunks);
+            lexicalIndexes.put(chatId, lexical);
+            // 不等后台刷盘，入库完成即把该分区写盘
+            if (vectorStore instanceof PartitionedVectorStore store) store.save(chatId);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException ignored) {
+                    // finish() 已处理或调用方正在处理其他异常
+                }
+            }
+        }
+
+        private void add(List<StructuredPdfChunker.Chunk> completed) {
+            for (StructuredPdfChunker.Chunk chunk : completed) {
+                Map<String, Object> meta = new HashMap<>();
+                meta.put("chatId", chatId);
+                meta.put("fileName", fileName);
+                meta.put("chunkIndex", nextChunkIndex++);
+                meta.put("uploadTime", uploadTime);
+                // 起止页和在抽取文本（.txt）中的字符区间，用于回溯原文位置
+                meta.put("page", chunk.pageStart());
+                meta.put("pageEnd", chunk.pageEnd());
+                meta.put("charStart", chunk.charStart());
+                meta.put("charEnd", chunk.charEnd());
+                if (chunk.heading() != null) meta.put("heading", chunk.heading());
+
+                Document doc = new Document(chunk.text(), meta);
+                pending.add(doc);
+                lexical.add(doc);
+                chunks.add(new PdfChunk(doc.getId(), doc.getText(), meta));
+            }
+        }
+
+        private void submitPending() {
+            if (pending.isEmpty()) return;
+            List<Document> toStore = List.copyOf(pending);
+            pending.clear();
+            if (job != null) job.chunked(toStore.size());
+
+            // 写入向量库（内部会自动调用 embeddingModel 生成向量），最多 concurrency 批同时在途
+            for (List<Document> batch : embeddingBatchingStrategy.batch(toStore)) {
+                submit(batch);
+            }
+        }
+
+        private void submit(List<Document> batch) {
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while indexing pdf for chatId=" + chatId, e);
+            }
+            futures.add(embedExecutor.submit(() -> {
+                try {
+                    if (closed || failure.get() != null || (job != null && job.isCancelled())) return;
+                    addWithRetry(batch);
+                    if (job != null) job.embedded(batch.size());
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    inFlight.release();
+                }
+            }));
+        }
+    }
+
+    /**
+     * 启动后补齐向量：分区文件在入库完成和后台定期刷盘时写入，进程被强杀时最近的写入会丢失
+     * 以 chunks 文件为准，把向量库中缺失的片段按原 id 重新入库（embedding 走磁盘缓存，算过的文本不再请求远程）；
+     * 在 embedding 线程池中执行，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverMissingVectors() {
+        if (!(vectorStore instanceof PartitionedVectorStore store)) return;
+        embedExecutor.submit(() -> {
+            for (String chatId : pdfAssetRepository.findAllChatIds()) {
+                try {
+                    Set<String> stored = store.documentIds(chatId);
+                    List<Document> missing = pdfAssetRepository.findChunks(chatId).stream()
+                            .filter(c -> !stored.contains(c.getId()))
+                            .map(c -> Document.builder().id(c.getId()).text(c.getText()).metadata(c.getMetadata()).build())
+                            .toList();
+                    if (missing.isEmpty()) continue;
+                    for (List<Document> batch : embeddingBatchingStrategy.batch(missing)) {
+                        addWithRetry(batch);
+                    }
+                    store.save(chatId);
+                    log.info("Recovered {} missing pdf chunks into the vector store for chatId={}", missing.size(), chatId);
+                } catch (RuntimeException e) {
+                    log.warn("Failed to recover pdf vectors for chatId={}: {}", chatId, e.getMessage());
+                }
+            }
+        });
+    }
+
+    // 文档 id 在构造时已确定，重试时同 id 覆盖写入，不会产生重复 chunk
+    private void addWithRetry(List<Document> batch) {
+        long backoff = backoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                vectorStore.add(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) throw e;
+                // 加随机抖动，避免并发批次同时重试再次触发限流
+                long sleep = backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                log.warn("Embedding batch of {} failed (attempt {}/{}), retry in {} ms: {}",
+                        batch.size(), attempt, maxAttempts, sleep, e.getMessage());
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoff *= 2;
+            }
+        }
+    }
+
+    /**
+     * 删除某个 chatId 下的全部 chunks
+     */
+    public void deleteByChatId(String chatId) {
+        lexicalIndexes.remove(chatId);
+        vectorStore.delete(new FilterExpressionBuilder().eq("chatId", chatId).build());
     }
 
     /**
      * 根据 prompt 检索 topK chunks（限定 chatId）
+     * 关键词（BM25）与向量检索同时进行，按倒数排名融合
      */
     public List<Document> retrieveTopK(String chatId, String prompt, int topK) {
+        return hybridRetriever.retrieve(
+                depth -> lexicalSearch(chatId, prompt, depth),
+                depth -> vectorSearch(chatId, prompt, depth),
+                Document::getId,
+                topK);
+    }
+
+    /**
+     * 自适应检索：结果数由问题决定，而不是固定 topK
+     * 1) 混合检索多取候选（每路 heima.retrieval.candidates 个），同时记下向量一路的相似度
+     * 2) 相似度不低于阈值的候选按相似度降序排列，在第一个落差超过 max-gap 处截断，最多 max-k 个
+     * 3) 入选的候选保持融合排序；不足 min-k 时按融合排序补足（只有关键词命中、没有相似度的片段也能补进来）
+     * 4) 每个结果补上前后 neighbors 个相邻 chunk，排在所有结果之后，预算不足时先被丢弃
+     */
+    public List<Document> retrieveAdaptive(String chatId, String prompt) {
+        Map<String, Double> similarity = new ConcurrentHashMap<>();
+        List<Document> candidates = hybridRetriever.retrieve(
+                depth -> lexicalSearch(chatId, prompt, depth),
+                depth -> {
+                    List<Document> hits = vectorSearch(chatId, prompt, depth);
+                    for (Document d : hits) {
+                        if (d.getScore() != null) similarity.put(d.getId(), d.getScore());
+                    }
+                    return hits;
+                },
+                Document::getId,
+                Math.max(maxK, hybridRetriever.candidates()));
+
+        List<Document> selected = cut(candidates, similarity, minK, maxK, similarityThreshold, maxGap);
+        List<Document> result = withNeighbors(chatId, selected);
+        log.debug("Adaptive retrieval chatId={}: candidates={} scored={} selected={} with neighbors={}",
+                chatId, candidates.size(), similarity.size(), selected.size(), result.size());
+        return result;
+    }
+
+    /**
+     * @param ranked     融合排序后的候选
+     * @param similarity 候选 id -> 向量相似度（只有向量一路命中的才有）
+     */
+    static List<Document> cut(List<Document> ranked, Map<String, Double> similarity,
+                              int minK, int maxK, double threshold, double maxGap) {
+        double[] scores = ranked.stream()
+                .map(d -> similarity.get(d.getId()))
+                .filter(s -> s != null && s >= threshold)
+                .mapToDouble(s -> -s)
+                .sorted()
+                .map(s -> -s)
+                .toArray();
+        int keep = 0;
+        while (keep < scores.length && keep < maxK) {
+            if (keep > 0 && scores[keep - 1] - scores[keep] > maxGap) break;
+            keep++;
+        }
+        double cutoff = keep == 0 ? Double.POSITIVE_INFINITY : scores[keep - 1];
+
+        Set<String> ids = new HashSet<>();
+        for (Document d : ranked) {
+            Double s = similarity.get(d.getId());
+            if (s != null && s >= cutoff && ids.size() < maxK) ids.add(d.getId());
+        }
+        for (Document d : ranked) {
+            if (ids.size() >= Math.min(minK, maxK)) break;
+            ids.add(d.getId());
+        }
+        return ranked.stream().filter(d -> ids.contains(d.getId())).toList();
+    }
+
+    private List<Document> withNeighbors(String chatId, List<Document> anchors) {
+        if (neighbors <= 0 || anchors.isEmpty()) return anchors;
+        ChunkIndex lexical = lexicalIndex(chatId);
+        if (lexical == null) return anchors;
+
+        List<Document> result = new ArrayList<>(anchors);
+        Set<String> seen = new HashSet<>();
+        anchors.forEach(d -> seen.add(d.getId()));
+        for (Document anchor : anchors) {
+            if (!(anchor.getMetadata().get("chunkIndex") instanceof Number n)) continue;
+            int index = n.intValue();
+            for (int offset = 1; offset <= neighbors; offset++) {
+                for (int i : new int[]{index - offset, index + offset}) {
+                    Document neighbor = lexical.byChunkIndex(i);
+                    if (neighbor != null && seen.add(neighbor.getId())) result.add(neighbor);
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Document> vectorSearch(String chatId, String prompt, int topK) {
         // SearchRequest 支持 filter（不同向量库实现 filter 语法略不同）
         // RedisVectorStore/PGVectorStore 通常支持 metadata 过滤
         SearchRequest req = SearchRequest.builder()
                 .query(prompt)
                 .topK(topK)
-                .filterExpression("chatId == '" + chatId + "'") // 仅检索当前 chatId 的 chunks
+                .filterExpression("chatId == '" + chatId + "'") // 仅检索当前 chatId 的 chunks（分区向量库只搜该分区）
                 .build();
 
         return vectorStore.similaritySearch(req);
     }
+
+    private List<Document> lexicalSearch(String chatId, String prompt, int topK) {
+        ChunkIndex lexical = lexicalIndex(chatId);
+        return lexical == null ? List.of() : lexical.search(prompt, topK);
+    }
+
+    // 不在内存时从 chunks 文件重建；文件还不存在（入库未完成）时不缓存
+    private ChunkIndex lexicalIndex(String chatId) {
+        ChunkIndex lexical = lexicalIndexes.get(chatId);
+        if (lexical != null) return lexical;
+        List<PdfChunk> saved = pdfAssetRepository.findChunks(chatId);
+        if (saved.isEmpty()) return null;
+        ChunkIndex rebuilt = new ChunkIndex();
+        for (PdfChunk chunk : saved) {
+            rebuilt.add(new Document(chunk.getId(), chunk.getText(), chunk.getMetadata()));
+        }
+        lexicalIndexes.putIfAbsent(chatId, rebuilt);
+        return lexicalIndexes.get(chatId);
+    }
+
+    /**
+     * 单个文档的片段关键词索引
+     */
+    private static final class ChunkIndex {
+        private final Bm25Index index = new Bm25Index();
+        private final Map<String, Document> docs = new ConcurrentHashMap<>();
+        private final Map<Integer, Document> byChunkIndex = new ConcurrentHashMap<>();
+
+        void add(Document doc) {
+            docs.put(doc.getId(), doc);
+            if (doc.getMetadata().get("chunkIndex") instanceof Number n) byChunkIndex.put(n.intValue(), doc);
+            index.put(doc.getId(), List.of(new Bm25Index.Field(doc.getText(), 1f)));
+        }
+
+        Document byChunkIndex(int chunkIndex) {
+            return byChunkIndex.get(chunkIndex);
+        }
+
+        List<Document> search(String query, int topK) {
+            List<Document> result = new ArrayList<>(topK);
+            for (Bm25Index.Hit hit : index.search(query, topK)) {
+                Document doc = docs.get(hit.id());
+                if (doc != null) result.add(doc);
+            }
+            return result;
+        }
+    }
 }
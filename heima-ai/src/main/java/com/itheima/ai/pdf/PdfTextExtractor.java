@@ -0,0 +1,235 @@
+package com.itheima.ai.pdf;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 按页并行抽取 PDF 文本
+ * - 每个 worker 各自打开一个 PDDocument、各用一个 PDFTextStripper（两者都不是线程安全的）
+ * - worker 按页号递增领取页面，抽完的页按页号顺序逐页回调，调用方不必等最后一页
+ * - 已抽取但还没按序回调的页数有上限，下游（切分、embedding）慢时 worker 会阻塞等待
+ * - 文件超过阈值时 PDFBox 的解析缓存走临时文件（MemoryUsageSetting），限制堆占用
+ */
+@Slf4j
+@Component
+public class PdfTextExtractor {
+
+    /**
+     * 按页号顺序接收页面文本，同一时刻只有一个线程在调用
+     */
+    @FunctionalInterface
+    public interface PageSink {
+        void accept(int pageNumber, int totalPages, String text) throws Exception;
+    }
+
+    // 页数少于该值时单线程抽取，避免每个 worker 重复解析文档的开销盖过收益
+    private static final int MIN_PAGES_PER_WORKER = 8;
+
+    @Value("${heima.pdf.extract.workers:4}")
+    private int workers;
+
+    // 超过该大小的文件，PDFBox 解析缓存超出 max-main-memory-mb 的部分写入临时文件
+    @Value("${heima.pdf.extract.scratch-threshold-mb:16}")
+    private long scratchThresholdMb;
+
+    @Value("${heima.pdf.extract.max-main-memory-mb:8}")
+    private long maxMainMemoryMb;
+
+    // 每个 worker 各建一个 stripper（测试里替换成在指定页抛异常的实现）
+    private StripperFactory stripperFactory = PDFTextStripper::new;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "pdf-extract-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 抽取磁盘上的 PDF，worker 各自按需读文件，不需要把整个文件读进内存
+     */
+    public void extract(Path pdfPath, PageSink sink, BooleanSupplier cancelled) throws Exception {
+        MemoryUsageSetting setting = memoryUsageSetting(pdfPath.toFile().length());
+        extract(() -> PDDocument.load(pdfPath.toFile(), setting), sink, cancelled);
+    }
+
+    private void extract(DocumentOpener opener, PageSink sink, BooleanSupplier cancelled) throws Exception {
+        int totalPages;
+        try (PDDocument doc = opener.open()) {
+            totalPages = doc.getNumberOfPages();
+            if (totalPages < MIN_PAGES_PER_WORKER * 2 || workers <= 1) {
+                // 小文件直接用已打开的文档单线程抽取
+                PDFTextStripper stripper = stripperFactory.create();
+                for (int page = 1; page <= totalPages && !cancelled.getAsBoolean(); page++) {
+                    sink.accept(page, totalPages, extractPageOrEmpty(stripper, doc, page));
+                }
+                return;
+            }
+        }
+
+        int workerCount = Math.min(workers, totalPages / MIN_PAGES_PER_WORKER);
+        // 领先于按序回调的页数上限，超出时 worker 阻塞（背压）
+        int windowSize = workerCount * 4;
+        Semaphore window = new Semaphore(windowSize);
+        OrderedEmitter emitter = new OrderedEmitter(totalPages, sink);
+        AtomicInteger nextPage = new AtomicInteger(1);
+
+        ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; w++) {
+            futures.add(completion.submit(() -> {
+                try (PDDocument doc = opener.open()) {
+                    PDFTextStripper stripper = stripperFactory.create();
+                    while (!cancelled.getAsBoolean() && !emitter.failed()) {
+                        // 先拿许可再领页：最小的未回调页一定已被持有许可的 worker 领走，不会死锁
+                        window.acquire();
+                        if (emitter.failed()) break;
+                        int page = nextPage.getAndIncrement();
+                        if (page > totalPages) {
+                            window.release();
+                            break;
+                        }
+                        window.release(emitter.complete(page, extractPageOrEmpty(stripper, doc, page)));
+                    }
+                } catch (Throwable e) {
+                    // worker 异常退出时它领走的页永远不会回调，其余 worker 会卡在 window.acquire()：
+                    // 标记失败并放出足够的许可唤醒它们
+                    emitter.fail(e);
+                    window.release(windowSize);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+
+        try {
+            // 按完成顺序等待，任一 worker 失败立即取消其余 worker
+            for (int i = 0; i < futures.size(); i++) {
+                completion.take().get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+        emitter.rethrow();
+    }
+
+    /**
+     * 单页解析失败（PDFBox 对损坏的页面既会抛 IOException 也会抛各种 RuntimeException）按空页处理，不影响其他页
+     */
+    private static String extractPageOrEmpty(PDFTextStripper stripper, PDDocument doc, int page) {
+        try {
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            String text = stripper.getText(doc);
+            // 简单清洗
+            return text == null ? "" : text.replace("\u0000", "");
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to extract page {}: {}", page, e.toString());
+            return "";
+        }
+    }
+
+    private MemoryUsageSetting memoryUsageSetting(long fileBytes) {
+        if (fileBytes <= scratchThresholdMb * 1024 * 1024) {
+            return MemoryUsageSetting.setupMainMemoryOnly();
+        }
+        return MemoryUsageSetting.setupMixed(maxMainMemoryMb * 1024 * 1024);
+    }
+
+    @FunctionalInterface
+    private interface DocumentOpener {
+        PDDocument open() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface StripperFactory {
+        PDFTextStripper create() throws IOException;
+    }
+
+    /**
+     * 乱序完成的页按页号顺序回调给 sink
+     */
+    private static final class OrderedEmitter {
+
+        private final String[] pending;
+        private final PageSink sink;
+        private final int totalPages;
+
+        private int nextToEmit = 1;
+        private volatile Exception failure;
+
+        OrderedEmitter(int totalPages, PageSink sink) {
+            this.pending = new String[totalPages + 1];
+            this.sink = sink;
+            this.totalPages = totalPages;
+        }
+
+        /**
+         * @return 本次按序回调出去的页数（即可以归还的窗口许可数）
+         */
+        synchronized int complete(int page, String text) {
+            pending[page] = text;
+            int emitted = 0;
+            while (nextToEmit <= totalPages && pending[nextToEmit] != null) {
+                String ready = pending[nextToEmit];
+                pending[nextToEmit] = null;
+                if (failure == null) {
+                    try {
+                        sink.accept(nextToEmit, totalPages, ready);
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }
+                nextToEmit++;
+                emitted++;
+            }
+            return emitted;
+        }
+
+        boolean failed() {
+            return failure != null;
+        }
+
+        /**
+         * 记录 worker 自身的失败（保留最先发生的那个）
+         */
+        synchronized void fail(Throwable e) {
+            if (failure == null) {
+                failure = e instanceof Exception ex ? ex : new ExecutionException(e);
+            }
+        }
+
+        void rethrow() throws Exception {
+            if (failure != null) throw failure;
+        }
+    }
+}
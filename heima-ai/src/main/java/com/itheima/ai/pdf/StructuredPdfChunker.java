@@ -0,0 +1,249 @@
+package com.itheima.ai.pdf;
+
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * 按页面结构切分 PDF 文本
+ * - 输入为按页号顺序逐页的抽取结果，单次遍历：内存里只有当前页和正在拼的 chunk，不拼接全文
+ * - 每页先切成段落：空行，或以句末标点结尾且明显短于本页最长行的行，视为段落结束；章节编号行、短且不以标点结尾的独立行视为标题
+ * - 段落整段放入 chunk，放不下时在段落边界另起 chunk；遇到标题且当前 chunk 已有 minChunkTokens 时另起 chunk，标题与其后的正文放在一起；
+ *   单个段落超过 chunkTokens 时按句末标点切，单句仍超过时按长度切
+ * - 单独的页码行（页眉页脚）丢弃
+ * - chunk 记录起止页、在抽取文本（各页文本依次拼接，与保存的 .txt 一致）中的字符区间和所在章节标题
+ * token 用 JTokkit CL100K_BASE 计数，与之前的 TokenTextSplitter 一致
+ * 非线程安全，由单个线程依次 append 后 finish
+ */
+final class StructuredPdfChunker {
+
+    /**
+     * @param charStart 第一个字符在抽取文本中的位置
+     * @param charEnd   最后一个字符之后的位置
+     * @param heading   所在章节标题，没有识别到标题时为 null
+     */
+    record Chunk(String text, int pageStart, int pageEnd, int charStart, int charEnd, String heading) {}
+
+    // 段落内的行，短于本页最长行的该比例且以句末标点结尾时视为段落最后一行
+    private static final double SHORT_LINE_RATIO = 0.9;
+
+    // 不以标点结尾的独立短行按标题处理的最大长度
+    private static final int MAX_HEADING_CHARS = 40;
+
+    private static final Pattern NUMBERED_HEADING = Pattern.compile(
+            "^(第[一二三四五六七八九十百零〇\\d]+[章节部分篇]|(chapter|section|part)\\s+[\\divxlc]+\\b|\\d{1,2}(\\.\\d{1,2})*[.、]?\\s+\\S).*",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern PAGE_NUMBER = Pattern.compile("^[-–—]?\\s*\\d{1,4}\\s*[-–—]?$|^第\\s*\\d+\\s*页.*$");
+
+    private static final String SENTENCE_END = "。！？!?；;…\"”」』)）";
+
+    private static final String CLAUSE_END = SENTENCE_END + "，,、：:";
+
+    private final TokenCountEstimator tokenizer = new JTokkitTokenCountEstimator();
+
+    private final int chunkTokens;
+    private final int minChunkTokens;
+
+    // 已处理页面的文本总长度，即当前页在抽取文本中的起始位置
+    private int pageOffset = 0;
+
+    private String section;
+
+    // 还没遇到正文的标题，和下一段正文一起放入 chunk
+    private Block pendingHeading;
+
+    // 正在拼的 chunk
+    private final List<Block> blocks = new ArrayList<>();
+    private int tokens = 0;
+    private String chunkSection;
+
+    StructuredPdfChunker(int chunkTokens, int minChunkTokens) {
+        this.chunkTokens = chunkTokens;
+        this.minChunkTokens = minChunkTokens;
+    }
+
+    /**
+     * @return 本页处理后已经完整的 chunk
+     */
+    List<Chunk> append(int page, String text) {
+        List<Chunk> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+
+        int maxLine = 0;
+        for (int start = 0; start < text.length(); ) {
+            int end = lineEnd(text, start);
+            maxLine = Math.max(maxLine, text.substring(start, end).strip().length());
+            start = end + 1;
+        }
+
+        // 当前段落在本页中的区间
+        int paraStart = -1, paraEnd = -1;
+        for (int start = 0; start < text.length(); ) {
+            int end = lineEnd(text, start);
+            String line = text.substring(start, end).strip();
+            int lineStart = start + leading(text, start, end);
+            int lineEnd = lineStart + line.length();
+            start = end + 1;
+
+            if (line.isEmpty() || PAGE_NUMBER.matcher(line).matches()) {
+                paragraph(out, page, text, paraStart, paraEnd);
+                paraStart = -1;
+                continue;
+            }
+            if (isHeading(line, maxLine, paraStart < 0)) {
+                paragraph(out, page, text, paraStart, paraEnd);
+                paraStart = -1;
+                heading(out, new Block(line, page, page, pageOffset + lineStart, pageOffset + lineEnd));
+                continue;
+            }
+            if (paraStart < 0) paraStart = lineStart;
+            paraEnd = lineEnd;
+            if (endsWith(line, SENTENCE_END) && line.length() < maxLine * SHORT_LINE_RATIO) {
+                paragraph(out, page, text, paraStart, paraEnd);
+                paraStart = -1;
+            }
+        }
+        paragraph(out, page, text, paraStart, paraEnd);
+        pageOffset += text.length();
+        return out;
+    }
+
+    /**
+     * @return 剩余的 chunk
+     */
+    List<Chunk> finish() {
+        List<Chunk> out = new ArrayList<>();
+        if (pendingHeading != null) {
+            place(out, pendingHeading);
+            pendingHeading = null;
+        }
+        flush(out);
+        return out;
+    }
+
+    private void heading(List<Chunk> out, Block block) {
+        if (pendingHeading == null) {
+            // 新章节：当前 chunk 够大就在这里结束
+            if (tokens >= minChunkTokens) flush(out);
+            pendingHeading = block;
+        } else {
+            pendingHeading = pendingHeading.join(block);
+        }
+        section = block.text;
+    }
+
+    private void paragraph(List<Chunk> out, int page, String text, int start, int end) {
+        if (start < 0) return;
+        Block block = new Block(text.substring(start, end), page, page, pageOffset + start, pageOffset + end);
+        List<Block> pieces = count(block.text) <= chunkTokens ? List.of(block) : splitLong(block);
+        for (Block piece : pieces) {
+            if (pendingHeading != null) {
+                piece = pendingHeading.join(piece);
+                pendingHeading = null;
+            }
+            place(out, piece);
+        }
+    }
+
+    private void place(List<Chunk> out, Block block) {
+        int t = count(block.text);
+        if (!blocks.isEmpty() && tokens + t > chunkTokens) flush(out);
+        if (blocks.isEmpty()) chunkSection = section;
+        blocks.add(block);
+        tokens += t + 1;
+    }
+
+    private void flush(List<Chunk> out) {
+        if (blocks.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        for (Block block : blocks) {
+            if (!sb.isEmpty()) sb.append('\n');
+            sb.append(block.text);
+        }
+        Block first = blocks.get(0), last = blocks.get(blocks.size() - 1);
+        out.add(new Chunk(sb.toString(), first.pageStart, last.pageEnd, first.charStart, last.charEnd, chunkSection));
+        blocks.clear();
+        tokens = 0;
+    }
+
+    /**
+     * 超长段落：在句末标点后切开，凑到不超过 chunkTokens 为一段；单句超长时按长度切
+     */
+    private List<Block> splitLong(Block block) {
+        String text = block.text;
+        List<Block> pieces = new ArrayList<>();
+        int pieceStart = 0, pieceTokens = 0;
+        int sentenceStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            boolean end = i == text.length() - 1 || SENTENCE_END.indexOf(text.charAt(i)) >= 0
+                    || (text.charAt(i) == '.' && Character.isWhitespace(text.charAt(i + 1)));
+            if (!end) continue;
+            int sentenceEnd = i + 1;
+            int t = count(text.substring(sentenceStart, sentenceEnd));
+            if (pieceTokens > 0 && pieceTokens + t > chunkTokens) {
+                pieces.add(block.slice(pieceStart, sentenceStart));
+                pieceStart = sentenceStart;
+                pieceTokens = 0;
+            }
+            if (t > chunkTokens) {
+                // 单句超长：按字符数估算切分位置
+                int step = Math.max(1, (int) ((long) (sentenceEnd - sentenceStart) * chunkTokens / t));
+                for (int s = sentenceStart; s < sentenceEnd; s += step) {
+                    pieces.add(block.slice(s, Math.min(s + step, sentenceEnd)));
+                }
+                pieceStart = sentenceEnd;
+            } else {
+                pieceTokens += t;
+            }
+            sentenceStart = sentenceEnd;
+        }
+        if (pieceStart < text.length()) pieces.add(block.slice(pieceStart, text.length()));
+        pieces.removeIf(p -> p.text.isBlank());
+        return pieces;
+    }
+
+    private boolean isHeading(String line, int maxLine, boolean paragraphStart) {
+        if (line.length() > MAX_HEADING_CHARS) return false;
+        if (NUMBERED_HEADING.matcher(line).matches() && !endsWith(line, SENTENCE_END)) return true;
+        // 段落开头的独立短行，不以任何标点结尾
+        return paragraphStart && line.length() < maxLine * 0.6 && !endsWith(line, CLAUSE_END);
+    }
+
+    private int count(String text) {
+        return text.isEmpty() ? 0 : tokenizer.estimate(text);
+    }
+
+    private static boolean endsWith(String line, String chars) {
+        return !line.isEmpty() && chars.indexOf(line.charAt(line.length() - 1)) >= 0;
+    }
+
+    private static int lineEnd(String text, int start) {
+        int end = text.indexOf('\n', start);
+        return end < 0 ? text.length() : end;
+    }
+
+    private static int leading(String text, int start, int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(text.charAt(i))) i++;
+        return i - start;
+    }
+
+    private record Block(String text, int pageStart, int pageEnd, int charStart, int charEnd) {
+
+        Block join(Block next) {
+            return new Block(text + "\n" + next.text, pageStart, next.pageEnd, charStart, next.charEnd);
+        }
+
+        // 只用于单页内未与标题合并的段落，区间在原文中连续
+        Block slice(int from, int to) {
+            String s = text.substring(from, to);
+            int lead = s.length() - s.stripLeading().length();
+            String stripped = s.strip();
+            return new Block(stripped, pageStart, pageEnd, charStart + from + lead, charStart + from + lead + stripped.length());
+        }
+    }
+}
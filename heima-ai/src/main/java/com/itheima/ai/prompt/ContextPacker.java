@@ -0,0 +1,158 @@
+package com.itheima.ai.prompt;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按 token 预算组装 prompt
+ * - token 用 JTokkit CL100K_BASE 计数，与 PDF 切分时的编码一致
+ * - 检索片段按得分从高到低放入 context-tokens 预算，放不下的跳过（后面更短的片段仍可能放得下）；
+ *   被已选片段包含的片段丢弃，与已选片段首尾重叠的部分裁掉
+ * - 会话历史从最新一条往前数，只保留 max-tokens 减去 system/片段/问题 后剩余预算能容纳的条数，
+ *   通过 CHAT_MEMORY_RETRIEVE_SIZE_KEY 交给 MessageChatMemoryAdvisor
+ * - 每次请求打印各部分估算的 token 数；模型返回的实际用量由 PromptUsageAdvisor 打印
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ContextPacker {
+
+    // 每条消息的角色和分隔符开销（OpenAI 消息格式约 3~4 个 token）
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    // 每个片段的标题行和分隔线开销
+    private static final int PIECE_OVERHEAD_TOKENS = 12;
+
+    // 首尾重叠至少这么多字符才裁掉，避免把偶然相同的短语当成重叠
+    private static final int MIN_OVERLAP_CHARS = 32;
+
+    private final ChatMemory chatMemory;
+
+    private final TokenCountEstimator tokenizer = new JTokkitTokenCountEstimator();
+
+    @Value("${heima.prompt.max-tokens:6000}")
+    private int maxTokens;
+
+    @Value("${heima.prompt.context-tokens:3000}")
+    private int contextTokens;
+
+    @Value("${heima.prompt.history-messages:100}")
+    private int historyMessages;
+
+    public int count(String text) {
+        return text == null || text.isEmpty() ? 0 : tokenizer.estimate(text);
+    }
+
+    /**
+     * 按得分顺序把片段放进 context-tokens 预算
+     * @param ranked 检索结果，得分从高到低
+     * @param textOf 片段正文（去重和计数都基于它）
+     * @return 选中的片段（保持得分顺序，正文可能已裁掉重叠部分）
+     */
+    public <T> Packed<T> pack(List<T> ranked, Function<T, String> textOf) {
+        List<Piece<T>> pieces = new ArrayList<>();
+        int tokens = 0, dropped = 0, deduped = 0;
+        for (T item : ranked) {
+            String text = textOf.apply(item);
+            text = text == null ? "" : text.strip();
+            text = trimOverlap(text, pieces);
+            if (text.isEmpty()) {
+                deduped++;
+                continue;
+            }
+            int cost = count(text) + PIECE_OVERHEAD_TOKENS;
+            int remaining = contextTokens - tokens;
+            if (cost > remaining) {
+                if (!pieces.isEmpty() || remaining <= PIECE_OVERHEAD_TOKENS) {
+                    dropped++;
+                    continue;
+                }
+                // 得分最高的片段单独就超出预算：按比例截断，不能一个片段都不给
+                text = text.substring(0, (int) ((long) text.length() * (remaining - PIECE_OVERHEAD_TOKENS) / cost));
+                cost = count(text) + PIECE_OVERHEAD_TOKENS;
+            }
+            pieces.add(new Piece<>(item, text));
+            tokens += cost;
+        }
+        return new Packed<>(pieces, tokens, dropped, deduped);
+    }
+
+    /**
+     * 计算本次请求能带的历史条数，并打印 prompt 各部分的 token 估算
+     * @param system 完整的 system 提示词（已包含片段）
+     * @return 传给 CHAT_MEMORY_RETRIEVE_SIZE_KEY 的条数
+     */
+    public int historyWindow(String chatId, String system, String user, Packed<?> packed) {
+        int systemTokens = count(system) + MESSAGE_OVERHEAD_TOKENS;
+        int userTokens = count(user) + MESSAGE_OVERHEAD_TOKENS;
+        int remaining = maxTokens - systemTokens - userTokens;
+
+        List<Message> history = chatMemory.get(chatId, historyMessages);
+        int window = 0, historyTokens = 0;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            int t = count(history.get(i).getText()) + MESSAGE_OVERHEAD_TOKENS;
+            if (historyTokens + t > remaining) break;
+            historyTokens += t;
+            window++;
+        }
+
+        log.info("Prompt budget chatId={}: system={} (context={} in {} chunks, deduped={}, dropped={}), "
+                        + "history={} ({}/{} msgs), user={}, total={}/{} tokens",
+                chatId, systemTokens, packed.tokens(), packed.pieces().size(), packed.deduped(), packed.dropped(),
+                historyTokens, window, history.size(), userTokens,
+                systemTokens + historyTokens + userTokens, maxTokens);
+        return window;
+    }
+
+    /**
+     * 去掉与已选片段重复的部分：被包含则整段丢弃；开头与某个已选片段的结尾重叠、或结尾与某个已选片段的开头重叠时裁掉重叠部分
+     */
+    private static String trimOverlap(String text, List<? extends Piece<?>> selected) {
+        for (Piece<?> piece : selected) {
+            String s = piece.text();
+            if (text.isEmpty() || s.contains(text)) return "";
+            int head = overlap(s, text);
+            if (head > 0) text = text.substring(head).strip();
+            int tail = overlap(text, s);
+            if (tail > 0) text = text.substring(0, text.length() - tail).strip();
+        }
+        return text;
+    }
+
+    /**
+     * a 的结尾与 b 的开头最长的重叠长度；不足 MIN_OVERLAP_CHARS 时返回 0
+     */
+    static int overlap(String a, String b) {
+        if (a.length() < MIN_OVERLAP_CHARS || b.length() < MIN_OVERLAP_CHARS) return 0;
+        String probe = b.substring(0, MIN_OVERLAP_CHARS);
+        int from = Math.max(0, a.length() - b.length());
+        for (int p = a.indexOf(probe, from); p >= 0; p = a.indexOf(probe, p + 1)) {
+            if (a.regionMatches(p, b, 0, a.length() - p)) return a.length() - p;
+        }
+        return 0;
+    }
+
+    public record Piece<T>(T item, String text) {}
+
+    /**
+     * @param tokens  选中片段的 token 数（含标题行开销）
+     * @param dropped 预算不足跳过的片段数
+     * @param deduped 与已选片段重复而丢弃的片段数
+     */
+    public record Packed<T>(List<Piece<T>> pieces, int tokens, int dropped, int deduped) {
+
+        public List<T> items() {
+            return pieces.stream().map(Piece::item).toList();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.itheima.ai.prompt;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.advisor.api.*;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
+
+/**
+ * 打印模型返回的实际 token 用量
+ * 流式调用只有开启 stream-usage（stream_options.include_usage）时，模型才会在最后一个分片带上用量；
+ * 这里记下最后一次非空的用量，流正常结束时打印一次，不聚合正文
+ */
+@Slf4j
+public class PromptUsageAdvisor implements CallAroundAdvisor, StreamAroundAdvisor {
+
+    @Override
+    public String getName() {
+        return getClass().getSimpleName();
+    }
+
+    @Override
+    public int getOrder() {
+        return 0;
+    }
+
+    @Override
+    public AdvisedResponse aroundCall(AdvisedRequest advisedRequest, CallAroundAdvisorChain chain) {
+        long startNanos = System.nanoTime();
+        AdvisedResponse response = chain.nextAroundCall(advisedRequest);
+        log(advisedRequest, usageOf(response.response()), startNanos);
+        return response;
+    }
+
+    @Override
+    public Flux<AdvisedResponse> aroundStream(AdvisedRequest advisedRequest, StreamAroundAdvisorChain chain) {
+        long startNanos = System.nanoTime();
+        AtomicReference<Usage> usage = new AtomicReference<>();
+        return chain.nextAroundStream(advisedRequest)
+                .doOnNext(r -> {
+                    Usage u = usageOf(r.response());
+                    if (u != null) usage.set(u);
+                })
+                .doOnComplete(() -> log(advisedRequest, usage.get(), startNanos));
+    }
+
+    private static Usage usageOf(ChatResponse response) {
+        if (response == null || response.getMetadata() == null) return null;
+        Usage usage = response.getMetadata().getUsage();
+        return usage == null || usage.getPromptTokens() == null || usage.getPromptTokens() <= 0 ? null : usage;
+    }
+
+    private static void log(AdvisedRequest request, Usage usage, long startNanos) {
+        Object chatId = request.adviseContext().get(CHAT_MEMORY_CONVERSATION_ID_KEY);
+        long ms = (System.nanoTime() - startNanos) / 1_000_000;
+        if (usage == null) {
+            log.info("Prompt usage chatId={}: not reported by model, {} ms", chatId, ms);
+            return;
+        }
+        log.info("Prompt usage chatId={}: prompt={} completion={} total={} tokens, {} ms",
+                chatId, usage.getPromptTokens(), usage.getCompletionTokens(), usage.getTotalTokens(), ms);
+    }
+}
@@ -5,16 +5,27 @@ import java.util.List;
 public interface ChatHistoryRepository {
 
     /**
-     * 保存会话记录
+     * 保存会话记录，已存在时更新其最近活跃时间
      * @param type 业务类型，如：chat、service、pdf
      * @param chatId 会话ID
      */
     void save(String type, String chatId);
 
     /**
-     * 获取会话ID列表
+     * 获取会话ID列表，最近活跃的在前
      * @param type 业务类型，如：chat、service、pdf
      * @return 会话ID列表
      */
-    List<String> getChatIds(String type);
+    default List<String> getChatIds(String type) {
+        return getChatIds(type, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 分页获取会话ID列表，最近活跃的在前
+     * @param type 业务类型，如：chat、service、pdf
+     * @param offset 跳过的条数
+     * @param limit 最多返回的条数
+     * @return 会话ID列表
+     */
+    List<String> getChatIds(String type, int offset, int limit);
 }
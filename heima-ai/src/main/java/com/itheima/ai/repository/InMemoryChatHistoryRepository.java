@@ -1,140 +1,156 @@
 package com.itheima.ai.repository;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
-import com.itheima.ai.entity.po.Msg;
+import com.itheima.ai.journal.WriteAheadLog;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.InMemoryChatMemory;
-import org.springframework.ai.chat.messages.Message;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.lang.reflect.Field;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 会话历史：内存存储 + WAL 持久化
+ * - 每个业务类型一个 chatId -> 最近活跃时间 的索引，加一个按活跃时间倒序的跳表，save 为 O(log n)，分页只遍历到所需的页
+ * - 快照沿用 chat-history.json 格式（每个类型一个按最近活跃排序的 chatId 列表），加载时按顺序还原先后关系
+ * 会话记忆由 {@link JournaledChatMemory} 自行持久化，这里只管会话ID列表
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class InMemoryChatHistoryRepository implements ChatHistoryRepository {
 
-    private Map<String, List<String>> chatHistory;
+    private static final Path HISTORY_FILE = Path.of("chat-history.json");
+
+    // type -> 会话历史
+    private final Map<String, History> chatHistory = new ConcurrentHashMap<>();
+
+    // 最近一次分配的活跃时间戳（毫秒，保证严格递增）
+    private final AtomicLong lastStamp = new AtomicLong();
 
     private final ObjectMapper objectMapper;
 
-    private final ChatMemory chatMemory;
+    @Value("${heima.journal.dir:journal}")
+    private String journalDir;
+
+    @Value("${heima.journal.flush-interval-ms:20}")
+    private long flushIntervalMs;
+
+    @Value("${heima.journal.checkpoint-records:5000}")
+    private long checkpointRecords;
+
+    private WriteAheadLog journal;
 
     @Override
     public void save(String type, String chatId) {
-        /*if (!chatHistory.containsKey(type)) {
-            chatHistory.put(type, new ArrayList<>());
-        }
-        List<String> chatIds = chatHistory.get(type);*/
-        List<String> chatIds = chatHistory.computeIfAbsent(type, k -> new ArrayList<>());
-        if (chatIds.contains(chatId)) {
+        // 连续对同一个会话提问时它已经在最前面，不必写日志
+        History history = chatHistory.get(type);
+        if (history != null && history.isLatest(chatId)) {
             return;
         }
-        // 保存会话ID
-        chatIds.add(0, chatId);
+        long stamp = lastStamp.updateAndGet(prev -> Math.max(prev + 1, System.currentTimeMillis()));
+        journal.append(new Entry(type, chatId, stamp), () -> doSave(type, chatId, stamp));
     }
 
     @Override
-    public List<String> getChatIds(String type) {
-        /*List<String> chatIds = chatHistory.get(type);
-        return chatIds == null ? List.of() : chatIds;*/
-        return chatHistory.getOrDefault(type, List.of());
+    public List<String> getChatIds(String type, int offset, int limit) {
+        History history = chatHistory.get(type);
+        if (history == null || limit <= 0) {
+            return List.of();
+        }
+        return history.order.stream()
+                .skip(Math.max(0, offset))
+                .limit(limit)
+                .map(Activity::chatId)
+                .toList();
     }
 
+    private void doSave(String type, String chatId, long stamp) {
+        chatHistory.computeIfAbsent(type, k -> new History()).touch(chatId, stamp);
+        lastStamp.accumulateAndGet(stamp, Math::max);
+    }
 
-
-    // 初始化会话历史记录和会话记忆  本地存储   每次重启即可直接加载
+    // 启动时加载快照并重放日志
     @PostConstruct
-    private void init() {
-        // 1.初始化会话历史记录
-        this.chatHistory = new HashMap<>();
-        // 2.读取本地会话历史和会话记忆
-        FileSystemResource historyResource = new FileSystemResource("chat-history.json");
-        FileSystemResource memoryResource = new FileSystemResource("chat-memory.json");
-        if (!historyResource.exists()) {
-            return;
-        }
-        try {
-            // 会话历史
-            Map<String, List<String>> chatIds = this.objectMapper.readValue(historyResource.getInputStream(), new TypeReference<>() {
+    private void init() throws IOException {
+        journal = new WriteAheadLog(Path.of(journalDir, "history"), objectMapper, this::capture,
+                flushIntervalMs, checkpointRecords);
+        if (Files.exists(HISTORY_FILE)) {
+            Map<String, List<String>> chatIds = objectMapper.readValue(HISTORY_FILE.toFile(), new TypeReference<>() {
             });
             if (chatIds != null) {
-                this.chatHistory = chatIds;
+                // 快照里只有先后顺序：用递减的负时间戳还原，之后的真实时间戳都排在它们前面
+                chatIds.forEach((type, ids) -> {
+                    History history = chatHistory.computeIfAbsent(type, k -> new History());
+                    for (int i = 0; i < ids.size(); i++) {
+                        history.touch(ids.get(i), -i);
+                    }
+                });
             }
-            // 会话记忆
-            Map<String, List<Msg>> memory = this.objectMapper.readValue(memoryResource.getInputStream(), new TypeReference<>() {
-            });
-            if (memory != null) {
-                memory.forEach(this::convertMsgToMessage);
-            }
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
         }
+        journal.replay(Entry.class, e -> doSave(e.type(), e.chatId(), e.stamp()));
+        journal.start();
     }
 
-    private void convertMsgToMessage(String chatId, List<Msg> messages) {
-        this.chatMemory.add(chatId, messages.stream().map(Msg::toMessage).toList());
+    @PreDestroy
+    private void close() throws IOException {
+        journal.close();
     }
 
-    // 持久化会话历史记录和会话记忆
-    @PreDestroy
-    private void persistent() {
-        String history = toJsonString(this.chatHistory);
-        String memory = getMemoryJsonString();
-        FileSystemResource historyResource = new FileSystemResource("chat-history.json");
-        FileSystemResource memoryResource = new FileSystemResource("chat-memory.json");
-        try (
-                PrintWriter historyWriter = new PrintWriter(historyResource.getOutputStream(), true, StandardCharsets.UTF_8);
-                PrintWriter memoryWriter = new PrintWriter(memoryResource.getOutputStream(), true, StandardCharsets.UTF_8)
-        ) {
-            historyWriter.write(history);
-            memoryWriter.write(memory);
-        } catch (IOException ex) {
-            log.error("IOException occurred while saving vector store file.", ex);
-            throw new RuntimeException(ex);
-        } catch (SecurityException ex) {
-            log.error("SecurityException occurred while saving vector store file.", ex);
-            throw new RuntimeException(ex);
-        } catch (NullPointerException ex) {
-            log.error("NullPointerException occurred while saving vector store file.", ex);
-            throw new RuntimeException(ex);
-        }
+    // 在日志锁内调用
+    private Map<Path, Object> capture() {
+        Map<String, List<String>> snapshot = new HashMap<>();
+        chatHistory.forEach((type, history) ->
+                snapshot.put(type, history.order.stream().map(Activity::chatId).toList()));
+        return Map.of(HISTORY_FILE, snapshot);
     }
 
-    // 获取会话记忆
-    private String getMemoryJsonString() {
-        Class<InMemoryChatMemory> clazz = InMemoryChatMemory.class;
-        try {
-            Field field = clazz.getDeclaredField("conversationHistory");
-            field.setAccessible(true);
-            Map<String, List<Message>> memory = (Map<String, List<Message>>) field.get(chatMemory);
-            Map<String, List<Msg>> memoryToSave = new HashMap<>();
-            memory.forEach((chatId, messages) -> memoryToSave.put(chatId, messages.stream().map(Msg::new).toList()));
-            return toJsonString(memoryToSave);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new RuntimeException(e);
+    /**
+     * 单个业务类型的会话历史
+     */
+    private static final class History {
+
+        // chatId -> 最近活跃时间戳
+        private final ConcurrentHashMap<String, Long> stamps = new ConcurrentHashMap<>();
+        // 按最近活跃倒序
+        private final ConcurrentSkipListSet<Activity> order = new ConcurrentSkipListSet<>();
+
+        void touch(String chatId, long stamp) {
+            stamps.compute(chatId, (k, old) -> {
+                if (old != null && old >= stamp) {
+                    return old;
+                }
+                // 先加新位置再删旧位置，并发分页时该会话不会短暂消失
+                order.add(new Activity(stamp, chatId));
+                if (old != null) {
+                    order.remove(new Activity(old, chatId));
+                }
+                return stamp;
+            });
+        }
+
+        boolean isLatest(String chatId) {
+            Activity first = order.isEmpty() ? null : order.first();
+            return first != null && first.chatId().equals(chatId);
         }
     }
 
-    // 将对象转换为JSON字符串
-    private String toJsonString(Object object) {
-        ObjectWriter objectWriter = this.objectMapper.writerWithDefaultPrettyPrinter();
-        try {
-            return objectWriter.writeValueAsString(object);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException("Error serializing documentMap to JSON.", e);
+    private record Activity(long stamp, String chatId) implements Comparable<Activity> {
+        @Override
+        public int compareTo(Activity o) {
+            int c = Long.compare(o.stamp, stamp);
+            return c != 0 ? c : chatId.compareTo(o.chatId);
         }
     }
+
+    record Entry(String type, String chatId, long stamp) {}
 }
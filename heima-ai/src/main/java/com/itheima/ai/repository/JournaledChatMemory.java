@@ -0,0 +1,350 @@
+package com.itheima.ai.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.entity.po.Msg;
+import com.itheima.ai.journal.WriteAheadLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 有界会话记忆：内存存储 + WAL 持久化
+ * - 每个会话只保留最近 maxMessages 条消息（环形缓冲，超出丢弃最早的）
+ * - 空闲超过 TTL 的会话、或总内存超出预算时最久未访问的会话，在快照时淘汰出内存，写到 spill 目录（每个会话一个 json）
+ * - 被淘汰的会话再次访问时从 spill 文件按需加载
+ * - 每次 add/clear 立即写日志（批量 fsync），进程崩溃最多丢失一个刷盘间隔内的消息
+ *
+ * 淘汰只在快照里发生：spill 文件和 chat-memory.json 在同一次快照中一起提交，
+ * 所以任何时刻 “chat-memory.json（内存中的会话）+ spill 文件（被淘汰的会话）” 都是同一时刻的完整状态，重放日志即可恢复
+ * 被淘汰的会话加载回内存后 spill 文件先保留（它仍是上一次快照的一部分），等该会话写进已提交的 chat-memory.json 后再删除；
+ * 启动时 chat-memory.json 中已有的会话不读 spill 文件，残留的 spill 文件（删除前崩溃）直接删掉
+ */
+@Slf4j
+public class JournaledChatMemory implements ChatMemory, Closeable {
+
+    private static final Path DEFAULT_MEMORY_FILE = Path.of("chat-memory.json");
+
+    // 可以直接作为文件名的 chatId，其余的做 base64url 编码，防止路径穿越
+    private static final Pattern SAFE_ID = Pattern.compile("[A-Za-z0-9_-]{1,128}");
+
+    // 单条消息的固定开销估算（对象头、metadata 等）
+    private static final long MESSAGE_OVERHEAD_BYTES = 64;
+
+    private final ObjectMapper objectMapper;
+    private final Path memoryFile;
+    private final Path spillDir;
+    private final int maxMessages;
+    private final long ttlMs;
+    private final long maxBytes;
+
+    // chatId -> 内存中的会话
+    private final Map<String, Conversation> conversations = new ConcurrentHashMap<>();
+    // 本次快照淘汰、spill 文件尚未提交的会话，期间被访问时从这里取回
+    private final Map<String, Conversation> spilling = new ConcurrentHashMap<>();
+    // 从 spill 文件加载回内存、spill 文件还没删除的会话
+    private final Set<String> reloaded = ConcurrentHashMap.newKeySet();
+    private final AtomicLong memoryBytes = new AtomicLong();
+
+    private final WriteAheadLog journal;
+
+    /**
+     * @param maxMessages 每个会话保留的消息数
+     * @param ttlMs       会话空闲超过该时间后淘汰出内存
+     * @param maxBytes    内存中全部会话的估算大小上限，超出时按 LRU 淘汰
+     */
+    public JournaledChatMemory(ObjectMapper objectMapper, Path journalDir, long flushIntervalMs,
+                               long checkpointRecords, Path spillDir, int maxMessages, long ttlMs,
+                               long maxBytes) throws IOException {
+        this(objectMapper, DEFAULT_MEMORY_FILE, journalDir, flushIntervalMs, checkpointRecords, spillDir, maxMessages,
+                ttlMs, maxBytes);
+    }
+
+    JournaledChatMemory(ObjectMapper objectMapper, Path memoryFile, Path journalDir, long flushIntervalMs,
+                        long checkpointRecords, Path spillDir, int maxMessages, long ttlMs,
+                        long maxBytes) throws IOException {
+        this.objectMapper = objectMapper;
+        this.memoryFile = memoryFile;
+        this.spillDir = spillDir;
+        this.maxMessages = maxMessages;
+        this.ttlMs = ttlMs;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(spillDir);
+        this.journal = new WriteAheadLog(journalDir, objectMapper, new Snapshots(), flushIntervalMs, checkpointRecords);
+        load();
+        journal.replay(Entry.class, this::apply);
+        journal.start();
+        log.info("Loaded chat memory: {} conversations, ~{} KB in memory.", conversations.size(), memoryBytes.get() / 1024);
+    }
+
+    @Override
+    public void add(String conversationId, List<Message> messages) {
+        if (messages == null || messages.isEmpty()) return;
+        // 被淘汰的会话先在锁外加载回内存，日志锁内只做追加
+        find(conversationId, true);
+        Entry entry = new Entry(Op.ADD, conversationId, messages.stream().map(Msg::new).toList());
+        journal.append(entry, () -> doAdd(conversationId, messages));
+        if (memoryBytes.get() > maxBytes) {
+            journal.requestCheckpoint();
+        }
+    }
+
+    @Override
+    public List<Message> get(String conversationId, int lastN) {
+        Conversation conversation = find(conversationId, false);
+        return conversation == null ? List.of() : conversation.last(lastN);
+    }
+
+    @Override
+    public void clear(String conversationId) {
+        journal.append(new Entry(Op.CLEAR, conversationId, null), () -> doClear(conversationId));
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+
+    private void doAdd(String conversationId, List<Message> messages) {
+        Conversation conversation = conversations.computeIfAbsent(conversationId, this::loadSpilled);
+        memoryBytes.addAndGet(conversation.append(messages));
+    }
+
+    private void doClear(String conversationId) {
+        Conversation conversation = conversations.remove(conversationId);
+        if (conversation != null) {
+            memoryBytes.addAndGet(-conversation.bytes());
+        }
+        spilling.remove(conversationId);
+        reloaded.remove(conversationId);
+        deleteSpillFile(conversationId);
+    }
+
+    private void apply(Entry entry) {
+        switch (entry.op()) {
+            case ADD -> doAdd(entry.chatId(), entry.messages().stream().map(Msg::toMessage).toList());
+            case CLEAR -> doClear(entry.chatId());
+        }
+    }
+
+    /**
+     * 取内存中的会话，不在内存时从 spill 文件加载
+     * @param create 会话不存在时是否创建空会话
+     */
+    private Conversation find(String conversationId, boolean create) {
+        Conversation conversation = conversations.get(conversationId);
+        if (conversation == null) {
+            if (!create && !spilling.containsKey(conversationId) && !Files.exists(spillPath(conversationId))) {
+                return null;
+            }
+            conversation = conversations.computeIfAbsent(conversationId, this::loadSpilled);
+        }
+        conversation.touch();
+        return conversation;
+    }
+
+    private Conversation loadSpilled(String conversationId) {
+        Conversation conversation = spilling.get(conversationId);
+        if (conversation != null) {
+            // 正在提交的 spill 文件同样要在下一次快照后删除
+            reloaded.add(conversationId);
+        } else {
+            conversation = new Conversation(maxMessages);
+            Path path = spillPath(conversationId);
+            if (Files.exists(path)) {
+                try {
+                    List<Msg> messages = objectMapper.readValue(path.toFile(), new TypeReference<>() {});
+                    conversation.append(messages.stream().map(Msg::toMessage).toList());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to load spilled chat memory for chatId=" + conversationId, e);
+                }
+                reloaded.add(conversationId);
+            }
+        }
+        conversation.touch();
+        memoryBytes.addAndGet(conversation.bytes());
+        return conversation;
+    }
+
+    // 快照中的会话直接建在内存里，不经过 loadSpilled：同名 spill 文件是更早的快照留下的，内容已包含在快照中
+    private void load() throws IOException {
+        if (!Files.exists(memoryFile)) return;
+        Map<String, List<Msg>> memory = objectMapper.readValue(memoryFile.toFile(), new TypeReference<>() {});
+        if (memory == null) return;
+        memory.forEach((chatId, messages) -> {
+            Conversation conversation = new Conversation(maxMessages);
+            memoryBytes.addAndGet(conversation.append(messages.stream().map(Msg::toMessage).toList()));
+            conversations.put(chatId, conversation);
+            if (Files.exists(spillPath(chatId))) {
+                deleteSpillFile(chatId);
+            }
+        });
+    }
+
+    private Path spillPath(String conversationId) {
+        return spillDir.resolve(fileBase(conversationId) + ".json");
+    }
+
+    private void deleteSpillFile(String conversationId) {
+        try {
+            Files.deleteIfExists(spillPath(conversationId));
+        } catch (IOException e) {
+            log.error("Failed to delete spilled chat memory for chatId={}", conversationId, e);
+        }
+    }
+
+    private static String fileBase(String chatId) {
+        if (SAFE_ID.matcher(chatId).matches()) return chatId;
+        return "b64-" + Base64.getUrlEncoder().withoutPadding().encodeToString(chatId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 快照时决定淘汰哪些会话：按最近访问时间从旧到新，空闲超过 TTL 的全部淘汰，超出预算时淘汰到预算的 90% 以下
+     */
+    private final class Snapshots implements WriteAheadLog.SnapshotSource {
+
+        // 本次快照淘汰的会话
+        private final Set<String> evicted = new HashSet<>();
+        // 本次快照写进 chat-memory.json、提交后可以删除 spill 文件的会话
+        private final Set<String> superseded = new HashSet<>();
+
+        // 在日志锁内调用
+        @Override
+        public Map<Path, Object> capture() {
+            long now = System.currentTimeMillis();
+            long target = maxBytes / 10 * 9;
+            long bytes = memoryBytes.get();
+
+            List<Map.Entry<String, Conversation>> entries = new ArrayList<>(conversations.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+            Map<Path, Object> files = new HashMap<>();
+            Map<String, List<Msg>> snapshot = new HashMap<>();
+            for (Map.Entry<String, Conversation> e : entries) {
+                String chatId = e.getKey();
+                Conversation conversation = e.getValue();
+                List<Msg> messages = conversation.toMsgs();
+                boolean evict = now - conversation.lastAccess > ttlMs || bytes > target;
+                if (evict && conversations.remove(chatId, conversation)) {
+                    spilling.put(chatId, conversation);
+                    evicted.add(chatId);
+                    memoryBytes.addAndGet(-conversation.bytes());
+                    bytes -= conversation.bytes();
+                    files.put(spillPath(chatId), messages);
+                } else {
+                    snapshot.put(chatId, messages);
+                    if (reloaded.remove(chatId)) superseded.add(chatId);
+                }
+            }
+            files.put(memoryFile, snapshot);
+            if (!evicted.isEmpty()) {
+                log.debug("Evicting {} conversations from chat memory, {} remain", evicted.size(), snapshot.size());
+            }
+            return files;
+        }
+
+        @Override
+        public boolean checkpointDue() {
+            if (memoryBytes.get() > maxBytes) return true;
+            long idleSince = System.currentTimeMillis() - ttlMs;
+            return conversations.values().stream().anyMatch(c -> c.lastAccess < idleSince);
+        }
+
+        @Override
+        public void checkpointed(boolean committed) {
+            for (String chatId : evicted) {
+                Conversation conversation = spilling.remove(chatId);
+                if (conversation == null) {
+                    // 快照期间被 clear，已提交的 spill 文件作废
+                    deleteSpillFile(chatId);
+                } else if (!committed && conversations.putIfAbsent(chatId, conversation) == null) {
+                    // 快照失败，放回内存等下次快照
+                    memoryBytes.addAndGet(conversation.bytes());
+                }
+            }
+            for (String chatId : superseded) {
+                if (committed) {
+                    deleteSpillFile(chatId);
+                } else {
+                    reloaded.add(chatId);
+                }
+            }
+            evicted.clear();
+            superseded.clear();
+        }
+    }
+
+    /**
+     * 单个会话的消息环形缓冲
+     */
+    private static final class Conversation {
+
+        private final int capacity;
+        private final ArrayDeque<Message> messages;
+        private long bytes;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        Conversation(int capacity) {
+            this.capacity = capacity;
+            this.messages = new ArrayDeque<>(Math.min(capacity, 16));
+        }
+
+        /**
+         * @return 估算大小的变化量
+         */
+        synchronized long append(List<Message> added) {
+            long before = bytes;
+            for (Message message : added) {
+                messages.addLast(message);
+                bytes += estimate(message);
+                if (messages.size() > capacity) {
+                    bytes -= estimate(messages.removeFirst());
+                }
+            }
+            touch();
+            return bytes - before;
+        }
+
+        synchronized List<Message> last(int n) {
+            int skip = Math.max(0, messages.size() - n);
+            List<Message> result = new ArrayList<>(messages.size() - skip);
+            Iterator<Message> it = messages.iterator();
+            for (int i = 0; it.hasNext(); i++) {
+                Message message = it.next();
+                if (i >= skip) result.add(message);
+            }
+            return result;
+        }
+
+        synchronized List<Msg> toMsgs() {
+            return messages.stream().map(Msg::new).toList();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        private static long estimate(Message message) {
+            String text = message.getText();
+            return MESSAGE_OVERHEAD_BYTES + (text == null ? 0 : 2L * text.length());
+        }
+    }
+
+    enum Op { ADD, CLEAR }
+
+    record Entry(Op op, String chatId, List<Msg> messages) {}
+}
@@ -2,31 +2,74 @@ package com.itheima.ai.repository;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * 会话历史存 ZSET，score 为最近活跃时间，ZADD 即更新活跃时间，分页用 ZREVRANGE 只取所需的一页
+ * 旧版本用 SET 存在 chat:history:<type> 下：每个 type 第一次读写前把旧 SET 的成员以 score 0 并入 ZSET
+ * （没有活跃时间，排在最后；ZADD NX 不覆盖已有的时间）并删除旧 key
+ */
 @RequiredArgsConstructor
 //@Component
 public class RedisChatHistory implements ChatHistoryRepository{
 
     private final StringRedisTemplate redisTemplate;
 
-    private final static String CHAT_HISTORY_KEY_PREFIX = "chat:history:";
+    // 旧版本用 SET 存在 chat:history:<type> 下，类型不同，换一个前缀
+    private final static String CHAT_HISTORY_KEY_PREFIX = "chat:history:recent:";
+
+    private final static String LEGACY_KEY_PREFIX = "chat:history:";
+
+    // KEYS[1]=ZSET，KEYS[2]=旧 SET；旧 key 不是 SET（不存在或已迁移）时什么都不做
+    static final RedisScript<Long> MIGRATE_SCRIPT = new DefaultRedisScript<>("""
+            if redis.call('TYPE', KEYS[2]).ok ~= 'set' then
+                return 0
+            end
+            local ids = redis.call('SMEMBERS', KEYS[2])
+            for _, id in ipairs(ids) do
+                redis.call('ZADD', KEYS[1], 'NX', 0, id)
+            end
+            redis.call('DEL', KEYS[2])
+            return #ids
+            """, Long.class);
+
+    // 本进程已迁移过的 type，之后不再执行迁移脚本
+    private final Set<String> migrated = ConcurrentHashMap.newKeySet();
 
     @Override
     public void save(String type, String chatId) {
-        redisTemplate.opsForSet().add(CHAT_HISTORY_KEY_PREFIX + type, chatId);
+        migrate(type);
+        redisTemplate.opsForZSet().add(CHAT_HISTORY_KEY_PREFIX + type, chatId, System.currentTimeMillis());
     }
 
     @Override
-    public List<String> getChatIds(String type) {
-        Set<String> chatIds = redisTemplate.opsForSet().members(CHAT_HISTORY_KEY_PREFIX + type);
+    public List<String> getChatIds(String type, int offset, int limit) {
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        migrate(type);
+        long start = Math.max(0, offset);
+        // limit 为 Integer.MAX_VALUE 时取到末尾
+        long end = limit == Integer.MAX_VALUE ? -1 : start + limit - 1;
+        Set<String> chatIds = redisTemplate.opsForZSet().reverseRange(CHAT_HISTORY_KEY_PREFIX + type, start, end);
         if(chatIds == null || chatIds.isEmpty()) {
             return Collections.emptyList();
         }
-        return chatIds.stream().sorted(String::compareTo).toList();
+        return List.copyOf(chatIds);
+    }
+
+    private void migrate(String type) {
+        if (migrated.contains(type)) {
+            return;
+        }
+        redisTemplate.execute(MIGRATE_SCRIPT, List.of(CHAT_HISTORY_KEY_PREFIX + type, LEGACY_KEY_PREFIX + type));
+        migrated.add(type);
     }
 }
@@ -1,57 +1,147 @@
 package com.itheima.ai.repository;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.itheima.ai.entity.po.Msg;
-import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 
-@RequiredArgsConstructor
+/**
+ * 基于 Redis List 的会话记忆
+ * - 消息按时间顺序 RPUSH，读最近 N 条用 LRANGE key -N -1，只读尾部
+ * - 追加、LTRIM 截断到 maxMessages、刷新过期时间在一个 Lua 脚本里完成，一次往返且原子
+ * - ttl > 0 时会话空闲超过 ttl 后整个 key 过期
+ * 旧版本用 LPUSH 写在 chat:{id} 下（最新在前），与现在的顺序相反，所以换用新前缀 chat:list:{id}；
+ * 新 key 不存在而旧 key 存在时，在脚本里把旧 key 反转写入新 key 并删除旧 key（读写都会触发，每个会话只迁移一次）
+ */
 //@Component
 public class RedisChatMemory implements ChatMemory {
 
+    private final static String PREFIX = "chat:list:";
+
+    // 旧版本 LPUSH 写入的 key，只用于迁移
+    private final static String LEGACY_PREFIX = "chat:";
+
+    // 旧 key 最新在前：倒序 RPUSH 到新 key 后删除；新 key 已存在说明已迁移过，不再动旧 key
+    private static final String MIGRATE = """
+            if redis.call('EXISTS', KEYS[1]) == 0 and redis.call('EXISTS', KEYS[2]) == 1 then
+                local old = redis.call('LRANGE', KEYS[2], 0, -1)
+                for i = #old, 1, -1 do
+                    redis.call('RPUSH', KEYS[1], old[i])
+                end
+                redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+                if tonumber(ARGV[2]) > 0 then
+                    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+                end
+                redis.call('DEL', KEYS[2])
+            end
+            """;
+
+    // KEYS[1]=会话 key，KEYS[2]=旧 key，ARGV[1]=保留条数，ARGV[2]=过期毫秒（<=0 不过期）
+    static final RedisScript<Long> MIGRATE_SCRIPT = new DefaultRedisScript<>(MIGRATE + """
+            return redis.call('LLEN', KEYS[1])
+            """, Long.class);
+
+    // KEYS 同上，ARGV[1]=保留条数，ARGV[2]=过期毫秒（<=0 不过期），ARGV[3..]=消息；先迁移旧 key 再追加
+    static final RedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(MIGRATE + """
+            local len = redis.call('RPUSH', KEYS[1], unpack(ARGV, 3))
+            redis.call('LTRIM', KEYS[1], -tonumber(ARGV[1]), -1)
+            if tonumber(ARGV[2]) > 0 then
+                redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            end
+            return len
+            """, Long.class);
+
     private final StringRedisTemplate redisTemplate;
 
-    private final ObjectMapper objectMapper;
+    // 复用的序列化器：省略 null / 空 metadata，减小每条消息的体积
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
 
-    private final static String PREFIX = "chat:";
+    private final int maxMessages;
+    private final Duration ttl;
+
+    public RedisChatMemory(StringRedisTemplate redisTemplate, ObjectMapper objectMapper) {
+        this(redisTemplate, objectMapper, 200, Duration.ZERO);
+    }
+
+    /**
+     * @param maxMessages 每个会话保留的消息数
+     * @param ttl         会话空闲过期时间，Duration.ZERO 表示不过期
+     */
+    public RedisChatMemory(StringRedisTemplate redisTemplate, ObjectMapper objectMapper, int maxMessages, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.writer = objectMapper.copy()
+                .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
+                .writerFor(Msg.class);
+        this.reader = objectMapper.readerFor(Msg.class);
+        this.maxMessages = maxMessages;
+        this.ttl = ttl;
+    }
 
     @Override
     public void add(String conversationId, List<Message> messages) {
         if (messages == null || messages.isEmpty()) {
             return;
         }
-        List<String> list = messages.stream().map(Msg::new).map(msg -> {
+        List<String> args = new ArrayList<>(messages.size() + 2);
+        args.add(String.valueOf(maxMessages));
+        args.add(String.valueOf(ttl.toMillis()));
+        for (Message message : messages) {
             try {
-                return objectMapper.writeValueAsString(msg);
+                args.add(writer.writeValueAsString(new Msg(message)));
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
-        }).toList();
-        redisTemplate.opsForList().leftPushAll(PREFIX + conversationId, list);
+        }
+        redisTemplate.execute(APPEND_SCRIPT, keys(conversationId), args.toArray());
     }
 
     @Override
     public List<Message> get(String conversationId, int lastN) {
-        List<String> list = redisTemplate.opsForList().range(PREFIX + conversationId, 0, lastN);
-        if (list == null || list.isEmpty()) {
+        if (lastN <= 0) {
             return List.of();
         }
-        return list.stream().map(s -> {
+        List<String> list = redisTemplate.opsForList().range(PREFIX + conversationId, -lastN, -1);
+        if (list == null || list.isEmpty()) {
+            // 新 key 为空：可能是还没迁移的旧会话，迁移后重读
+            Long len = redisTemplate.execute(MIGRATE_SCRIPT, keys(conversationId),
+                    String.valueOf(maxMessages), String.valueOf(ttl.toMillis()));
+            if (len == null || len == 0) {
+                return List.of();
+            }
+            list = redisTemplate.opsForList().range(PREFIX + conversationId, -lastN, -1);
+            if (list == null) {
+                return List.of();
+            }
+        }
+        List<Message> messages = new ArrayList<>(list.size());
+        for (String s : list) {
             try {
-                return objectMapper.readValue(s, Msg.class);
+                messages.add(reader.<Msg>readValue(s).toMessage());
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
-        }).map(Msg::toMessage).toList();
+        }
+        return messages;
     }
 
     @Override
     public void clear(String conversationId) {
-        redisTemplate.delete(PREFIX + conversationId);
+        redisTemplate.delete(keys(conversationId));
+    }
+
+    private static List<String> keys(String conversationId) {
+        return List.of(PREFIX + conversationId, LEGACY_PREFIX + conversationId);
     }
 }
@@ -0,0 +1,272 @@
+package com.itheima.ai.search;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 内存倒排索引 + BM25 打分
+ * - 文档由若干带权重的字段组成（如标题、标签、正文），词频按字段权重加权累加，实现标题/标签加权
+ * - put 覆盖同 id 的旧文档、remove 删除，均为增量更新；删除只打标记，标记过多时整体重建一次
+ * - 检索只遍历查询词的倒排链，得分累加到复用的累加器里（用完只清零命中过的位置，不再每次分配 float[文档数]），
+ *   topK 用大小为 K 的小顶堆，只遍历命中过的文档
+ * - 读写锁：检索并发执行，更新互斥
+ */
+public class Bm25Index {
+
+    public record Field(String text, float weight) {
+    }
+
+    public record Hit(String id, float score) {
+    }
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // 删除标记超过该数量且多于存活文档时重建
+    private static final int COMPACT_MIN_DEAD = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // id -> 文档序号
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    // 文档序号 -> 文档，已删除的为 null
+    private final List<Prepared> docs = new ArrayList<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    // 空闲的累加器，检索时取一个、用完放回；数量不超过并发检索数
+    private final Queue<ScoreAccumulator> accumulators = new ConcurrentLinkedQueue<>();
+
+    private int liveDocs;
+    private int deadDocs;
+    private double totalLength;
+
+    /**
+     * 新增或覆盖一个文档
+     */
+    public void put(String id, List<Field> fields) {
+        put(prepare(id, fields));
+    }
+
+    /**
+     * 分词并统计词频，结果可以重复用于多个索引（重建索引时内容没变的文档不必重新分词）
+     */
+    public static Prepared prepare(String id, List<Field> fields) {
+        Map<String, Float> termFreqs = new HashMap<>();
+        float length = 0;
+        for (Field field : fields) {
+            if (field.text() == null) continue;
+            for (String token : CjkTokenizer.tokenize(field.text())) {
+                termFreqs.merge(token, field.weight(), Float::sum);
+                length += field.weight();
+            }
+        }
+        String[] terms = termFreqs.keySet().toArray(new String[0]);
+        float[] tfs = new float[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            tfs[i] = termFreqs.get(terms[i]);
+        }
+        return new Prepared(id, terms, tfs, length);
+    }
+
+    /**
+     * 新增或覆盖一个已分词的文档
+     */
+    public void put(Prepared doc) {
+        String id = doc.id;
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+            addLocked(doc);
+            if (deadDocs >= COMPACT_MIN_DEAD && deadDocs > liveDocs) {
+                compactLocked();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocs;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索，按得分降序返回最多 topK 个命中
+     */
+    public List<Hit> search(String query, int topK) {
+        if (query == null || topK <= 0) return List.of();
+        Set<String> terms = new LinkedHashSet<>(CjkTokenizer.tokenize(query));
+        if (terms.isEmpty()) return List.of();
+
+        lock.readLock().lock();
+        try {
+            if (liveDocs == 0) return List.of();
+            float avgLength = (float) (totalLength / liveDocs);
+            ScoreAccumulator acc = accumulators.poll();
+            if (acc == null) acc = new ScoreAccumulator();
+            acc.ensureCapacity(docs.size());
+            try {
+                float[] scores = acc.scores;
+                for (String term : terms) {
+                    Postings p = postings.get(term);
+                    if (p == null) continue;
+                    float idf = (float) Math.log(1 + (liveDocs - p.df + 0.5) / (p.df + 0.5));
+                    for (int i = 0; i < p.size; i++) {
+                        int ord = p.docs[i];
+                        Prepared doc = docs.get(ord);
+                        if (doc == null) continue;
+                        float tf = p.tfs[i];
+                        float norm = K1 * (1 - B + B * doc.length / avgLength);
+                        // idf、tf 均为正，得分为 0 即本次尚未命中
+                        if (scores[ord] == 0) acc.touch(ord);
+                        scores[ord] += idf * tf * (K1 + 1) / (tf + norm);
+                    }
+                }
+
+                // 小顶堆保留得分最高的 topK 个
+                PriorityQueue<Hit> heap = new PriorityQueue<>(Math.min(topK, acc.touchedCount) + 1,
+                        Comparator.comparingDouble(Hit::score));
+                for (int i = 0; i < acc.touchedCount; i++) {
+                    int ord = acc.touched[i];
+                    float score = scores[ord];
+                    if (heap.size() < topK) {
+                        heap.add(new Hit(docs.get(ord).id, score));
+                    } else if (score > heap.peek().score()) {
+                        heap.poll();
+                        heap.add(new Hit(docs.get(ord).id, score));
+                    }
+                }
+                List<Hit> hits = new ArrayList<>(heap);
+                hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+                return hits;
+            } finally {
+                acc.reset();
+                accumulators.offer(acc);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addLocked(Prepared doc) {
+        int ord = docs.size();
+        docs.add(doc);
+        ordinals.put(doc.id, ord);
+        for (int i = 0; i < doc.terms.length; i++) {
+            postings.computeIfAbsent(doc.terms[i], k -> new Postings()).add(ord, doc.tfs[i]);
+        }
+        liveDocs++;
+        totalLength += doc.length;
+    }
+
+    private void removeLocked(String id) {
+        Integer ord = ordinals.remove(id);
+        if (ord == null) return;
+        Prepared doc = docs.set(ord, null);
+        for (String term : doc.terms) {
+            Postings p = postings.get(term);
+            if (p != null && --p.df == 0) {
+                postings.remove(term);
+            }
+        }
+        liveDocs--;
+        deadDocs++;
+        totalLength -= doc.length;
+    }
+
+    // 丢弃删除标记，按存活文档重建倒排链
+    private void compactLocked() {
+        List<Prepared> live = docs.stream().filter(Objects::nonNull).toList();
+        docs.clear();
+        ordinals.clear();
+        postings.clear();
+        liveDocs = 0;
+        deadDocs = 0;
+        totalLength = 0;
+        live.forEach(this::addLocked);
+    }
+
+    /**
+     * 分好词的文档：去重后的词、对应的加权词频、加权长度；不可变
+     */
+    public static final class Prepared {
+        private final String id;
+        private final String[] terms;
+        private final float[] tfs;
+        private final float length;
+
+        private Prepared(String id, String[] terms, float[] tfs, float length) {
+            this.id = id;
+            this.terms = terms;
+            this.tfs = tfs;
+            this.length = length;
+        }
+
+        public String id() {
+            return id;
+        }
+    }
+
+    /**
+     * 一个词的倒排链：文档序号 + 加权词频；df 只计存活文档
+     */
+    private static final class Postings {
+        int[] docs = new int[4];
+        float[] tfs = new float[4];
+        int size;
+        int df;
+
+        void add(int doc, float tf) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                tfs = Arrays.copyOf(tfs, size * 2);
+            }
+            docs[size] = doc;
+            tfs[size] = tf;
+            size++;
+            df++;
+        }
+    }
+
+    /**
+     * 检索用的得分累加器：scores 按文档序号下标，touched 记录本次命中过的序号；
+     * reset 只把命中过的位置清零，代价与命中数成正比，数组在多次检索间复用
+     */
+    private static final class ScoreAccumulator {
+        float[] scores = new float[0];
+        int[] touched = new int[16];
+        int touchedCount;
+
+        void ensureCapacity(int docs) {
+            if (scores.length < docs) {
+                scores = new float[Math.max(docs, scores.length * 2)];
+            }
+        }
+
+        void touch(int ord) {
+            if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+            touched[touchedCount++] = ord;
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                scores[touched[i]] = 0;
+            }
+            touchedCount = 0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.itheima.ai.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 中英文混合分词
+ * - 连续的字母/数字为一个词，统一转小写
+ * - 连续的中日韩文字切成相邻二元组（“课程咨询” -> 课程、程咨、咨询），单个汉字保留为一元
+ * - 其余字符（空白、标点、符号）作为分隔
+ */
+public final class CjkTokenizer {
+
+    private CjkTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) return tokens;
+
+        StringBuilder word = new StringBuilder();
+        int[] cjk = new int[text.length()];
+        int cjkLen = 0;
+
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjk[cjkLen++] = cp;
+            } else if (Character.isLetterOrDigit(cp)) {
+                cjkLen = flushCjk(cjk, cjkLen, tokens);
+                word.appendCodePoint(cp);
+            } else {
+                flushWord(word, tokens);
+                cjkLen = flushCjk(cjk, cjkLen, tokens);
+            }
+        }
+        flushWord(word, tokens);
+        flushCjk(cjk, cjkLen, tokens);
+        return tokens;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.isEmpty()) return;
+        tokens.add(word.toString().toLowerCase(Locale.ROOT));
+        word.setLength(0);
+    }
+
+    private static int flushCjk(int[] cjk, int len, List<String> tokens) {
+        if (len == 1) {
+            tokens.add(new String(cjk, 0, 1));
+        }
+        for (int i = 0; i + 1 < len; i++) {
+            tokens.add(new String(cjk, i, 2));
+        }
+        return 0;
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
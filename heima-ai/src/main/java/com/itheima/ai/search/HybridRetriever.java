@@ -0,0 +1,117 @@
+package com.itheima.ai.search;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import com.itheima.ai.config.ExecutionMode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * 关键词 + 向量混合检索，按倒数排名融合（RRF）合并
+ * - 同一个 query 的两路检索同时发出：向量检索（需要远程 embedding）提交到线程池，关键词检索在调用线程执行，总耗时取两者较大值
+ * - 融合得分 = Σ 1 / (k + 排名)，只看排名不看原始分数，两路分数量纲不同也能直接合并
+ * - 某一路失败时只用另一路的结果
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HybridRetriever {
+
+    private final ExecutionMode executionMode;
+
+    // RRF 平滑常数，越大排名靠后的结果权重衰减越慢
+    @Value("${heima.retrieval.rrf-k:60}")
+    private int rrfK;
+
+    // 每一路检索的候选数，不少于 topK
+    @Value("${heima.retrieval.candidates:20}")
+    private int candidates;
+
+    @Value("${heima.retrieval.workers:4}")
+    private int workers;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void init() {
+        // 向量一路只是等远程 embedding，虚拟线程模式下不设线程数上限
+        executor = executionMode.newIoExecutor("hybrid-retrieval-", workers);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 每一路检索的候选数
+     */
+    public int candidates() {
+        return candidates;
+    }
+
+    /**
+     * @param lexical 关键词检索，参数为候选数，返回按相关度降序的结果
+     * @param vector  向量检索，参数为候选数，返回按相似度降序的结果
+     * @param idOf    结果去重/融合用的 id
+     */
+    public <T> List<T> retrieve(IntFunction<List<T>> lexical, IntFunction<List<T>> vector,
+                                Function<T, String> idOf, int topK) {
+        if (topK <= 0) return List.of();
+        int depth = Math.max(topK, candidates);
+
+        Future<List<T>> vectorFuture = executor.submit(() -> vector.apply(depth));
+        List<T> lexicalHits;
+        try {
+            lexicalHits = lexical.apply(depth);
+        } catch (RuntimeException e) {
+            log.warn("Lexical retrieval failed, using vector results only: {}", e.getMessage());
+            lexicalHits = List.of();
+        }
+
+        List<T> vectorHits;
+        try {
+            vectorHits = vectorFuture.get();
+        } catch (InterruptedException e) {
+            vectorFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            vectorHits = List.of();
+        } catch (ExecutionException e) {
+            log.warn("Vector retrieval failed, using lexical results only: {}", e.getCause().getMessage());
+            vectorHits = List.of();
+        }
+
+        return fuse(List.of(lexicalHits, vectorHits), idOf, topK);
+    }
+
+    /**
+     * 倒数排名融合：同一 id 在多路中出现时得分累加，按融合得分降序取 topK
+     */
+    public <T> List<T> fuse(List<List<T>> rankings, Function<T, String> idOf, int topK) {
+        Map<String, T> items = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<T> ranking : rankings) {
+            if (ranking == null) continue;
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                T item = ranking.get(rank);
+                String id = idOf.apply(item);
+                items.putIfAbsent(id, item);
+                scores.merge(id, 1.0 / (rrfK + rank + 1), Double::sum);
+            }
+        }
+        return items.entrySet().stream()
+                .sorted((a, b) -> Double.compare(scores.get(b.getKey()), scores.get(a.getKey())))
+                .limit(topK)
+                .map(Map.Entry::getValue)
+                .toList();
+    }
+}
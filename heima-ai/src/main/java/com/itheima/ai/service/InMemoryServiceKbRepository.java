@@ -2,63 +2,284 @@ package com.itheima.ai.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.search.Bm25Index;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 知识库：不可变快照 + 写时复制
+ * - 当前快照（知识列表、id 索引、倒排索引）通过 volatile 引用发布，读方法不加锁、不拷贝
+ * - save/delete 与文件重载都是：在旧快照基础上构建新快照，再一次性替换引用；写操作之间串行
+ * - 后台线程用 WatchService 监听 service-kb.json，文件变化后解析、建索引都在该线程完成，不影响检索
+ * - 重建索引时内容没变的知识复用已分词的结果，只对变化的知识重新分词
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
 public class InMemoryServiceKbRepository implements ServiceKbRepository {
 
 
-    //实现加载知识库资料的功能
+    //实现加载知识库资料的功能，加载时建立倒排索引
 
     private final ObjectMapper objectMapper;
 
-    private final List<ServiceKbItem> items = new ArrayList<>();
     private static final String FILE = "service-kb.json";
 
+    // 文件连续写入时合并成一次重载
+    private static final long RELOAD_DEBOUNCE_MS = 200;
+
+    // 字段权重：标签 > 标题 > 正文
+    private static final float TAG_WEIGHT = 4f;
+    private static final float TITLE_WEIGHT = 3f;
+    private static final float CONTENT_WEIGHT = 1f;
+
+    @Value("${heima.service-kb.watch:true}")
+    private boolean watch;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private WatchService watchService;
+    private Thread watcher;
+
     @Override
     public List<ServiceKbItem> listAll() {
-        return List.copyOf(items);
+        return snapshot.items();
+    }
+
+    @Override
+    public Optional<ServiceKbItem> findById(String id) {
+        return Optional.ofNullable(snapshot.byId().get(id)).map(Indexed::item);
+    }
+
+    @Override
+    public List<ServiceKbItem> search(String query, int topK) {
+        Snapshot current = snapshot;
+        List<ServiceKbItem> result = new ArrayList<>(topK);
+        for (Bm25Index.Hit hit : current.index().search(query, topK)) {
+            Indexed indexed = current.byId().get(hit.id());
+            if (indexed != null) result.add(indexed.item());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void save(ServiceKbItem item) {
+        List<ServiceKbItem> items = new ArrayList<>(snapshot.items());
+        items.removeIf(it -> it.getId().equals(item.getId()));
+        items.add(item);
+        publish(items);
+        persist();
+    }
+
+    @Override
+    public synchronized void delete(String id) {
+        if (!snapshot.byId().containsKey(id)) return;
+        List<ServiceKbItem> items = new ArrayList<>(snapshot.items());
+        items.removeIf(it -> it.getId().equals(id));
+        publish(items);
+        persist();
+    }
+
+    @Override
+    public long version() {
+        return snapshot.version();
+    }
+
+    @Override
+    public void addChangeListener(ChangeListener listener) {
+        listeners.add(listener);
     }
 
     @PostConstruct
     private void init() {
-        FileSystemResource res = new FileSystemResource(FILE);
+        Path file = Path.of(FILE);
         try {
-            if (res.exists()) {
-                List<ServiceKbItem> data = objectMapper.readValue(res.getInputStream(), new TypeReference<>() {});
-                items.clear();
-                items.addAll(data);
-                log.info("Loaded service KB: {} items.", items.size());
-                return;
+            if (Files.exists(file)) {
+                publish(read(file));
+                log.info("Loaded service KB: {} items.", snapshot.items().size());
+            } else {
+                publish(defaults());
+                log.info("Initialized service KB with default {} items. You can create {} to override.",
+                        snapshot.items().size(), FILE);
             }
         } catch (Exception e) {
             log.warn("Failed to load {}, fallback to defaults.", FILE, e);
+            publish(defaults());
+        }
+        if (watch) startWatcher();
+    }
+
+    @PreDestroy
+    private void shutdown() throws IOException {
+        if (watcher != null) watcher.interrupt();
+        if (watchService != null) watchService.close();
+    }
+
+    // 默认内置几条（你可以自行扩展/改成从 DB 读）
+    private static List<ServiceKbItem> defaults() {
+        return List.of(
+                new ServiceKbItem("kb-001", "课程咨询：Java", """
+                        Java就业班包含：JavaSE、Spring、SpringBoot、MyBatis、微服务、项目实战、面试辅导等。
+                        适合零基础/转行/提升。可提供试听与学习计划建议。
+                        """, new String[]{"java","课程","就业","学习路线"}),
+                new ServiceKbItem("kb-002", "预约试听", """
+                        你可以告诉我：意向课程、城市/线上、方便的时间段、联系方式（可选），我会为你生成预约编号。
+                        """, new String[]{"预约","试听","报名","咨询"}),
+                new ServiceKbItem("kb-003", "售后/退款", """
+                        售后问题请提供：订单号/手机号/购买渠道，我们将协助处理。
+                        """, new String[]{"售后","退款","订单"}));
+    }
+
+    private List<ServiceKbItem> read(Path file) throws IOException {
+        List<ServiceKbItem> data = objectMapper.readValue(file.toFile(), new TypeReference<>() {});
+        return data == null ? List.of() : data;
+    }
+
+    /**
+     * 以新的知识列表构建快照并替换，随后通知变更（调用方保证串行）
+     */
+    private void publish(List<ServiceKbItem> newItems) {
+        Snapshot old = snapshot;
+
+        // 同 id 以后出现的为准，保持首次出现的顺序
+        Map<String, ServiceKbItem> latest = new LinkedHashMap<>();
+        for (ServiceKbItem item : newItems) {
+            if (item == null || item.getId() == null) continue;
+            latest.put(item.getId(), item);
         }
 
-        // 默认内置几条（你可以自行扩展/改成从 DB 读）
-        items.add(new ServiceKbItem("kb-001", "课程咨询：Java", """
-                Java就业班包含：JavaSE、Spring、SpringBoot、MyBatis、微服务、项目实战、面试辅导等。
-                适合零基础/转行/提升。可提供试听与学习计划建议。
-                """, new String[]{"java","课程","就业","学习路线"}));
+        Bm25Index index = new Bm25Index();
+        Map<String, Indexed> byId = new HashMap<>(latest.size() * 2);
+        List<ServiceKbItem> saved = new ArrayList<>();
+        for (ServiceKbItem item : latest.values()) {
+            Indexed previous = old.byId().get(item.getId());
+            Indexed indexed;
+            if (previous != null && previous.item().equals(item)) {
+                indexed = previous;
+            } else {
+                indexed = new Indexed(item, prepare(item));
+                saved.add(item);
+            }
+            index.put(indexed.prepared());
+            byId.put(item.getId(), indexed);
+        }
+        List<String> deleted = old.byId().keySet().stream().filter(id -> !byId.containsKey(id)).toList();
+        if (old != Snapshot.EMPTY && saved.isEmpty() && deleted.isEmpty()) return;
 
-        items.add(new ServiceKbItem("kb-002", "预约试听", """
-                你可以告诉我：意向课程、城市/线上、方便的时间段、联系方式（可选），我会为你生成预约编号。
-                """, new String[]{"预约","试听","报名","咨询"}));
+        snapshot = new Snapshot(old.version() + 1, List.copyOf(latest.values()), Map.copyOf(byId), index);
+        if (old != Snapshot.EMPTY) {
+            log.info("Service KB updated to version {}: {} items, {} changed, {} removed.",
+                    snapshot.version(), latest.size(), saved.size(), deleted.size());
+        }
+        notifyListeners(saved, deleted);
+    }
 
-        items.add(new ServiceKbItem("kb-003", "售后/退款", """
-                售后问题请提供：订单号/手机号/购买渠道，我们将协助处理。
-                """, new String[]{"售后","退款","订单"}));
+    private static Bm25Index.Prepared prepare(ServiceKbItem item) {
+        List<Bm25Index.Field> fields = new ArrayList<>();
+        fields.add(new Bm25Index.Field(item.getTitle(), TITLE_WEIGHT));
+        fields.add(new Bm25Index.Field(item.getContent(), CONTENT_WEIGHT));
+        if (item.getTags() != null) {
+            for (String tag : item.getTags()) {
+                fields.add(new Bm25Index.Field(tag, TAG_WEIGHT));
+            }
+        }
+        return Bm25Index.prepare(item.getId(), fields);
+    }
+
+    private void notifyListeners(List<ServiceKbItem> saved, List<String> deletedIds) {
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.onChange(saved, deletedIds);
+            } catch (RuntimeException e) {
+                log.error("Service KB change listener failed", e);
+            }
+        }
+    }
+
+    private void startWatcher() {
+        Path file = Path.of(FILE).toAbsolutePath();
+        try {
+            watchService = file.getFileSystem().newWatchService();
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("Failed to watch {}, hot reload disabled.", file, e);
+            return;
+        }
+        watcher = new Thread(() -> watchLoop(file), "service-kb-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watchLoop(Path file) {
+        Path name = file.getFileName();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                // 收集一个去抖窗口内的全部事件
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (name.equals(event.context())) changed = true;
+                    }
+                    key.reset();
+                    key = watchService.poll(RELOAD_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) reload(file);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 关闭
+        }
+    }
+
+    // 在 watcher 线程解析文件；解析失败（如写了一半）保留当前快照
+    private void reload(Path file) {
+        List<ServiceKbItem> items;
+        try {
+            if (!Files.exists(file)) return;
+            items = read(file);
+        } catch (IOException e) {
+            log.warn("Failed to reload {}, keeping version {}: {}", FILE, snapshot.version(), e.getMessage());
+            return;
+        }
+        synchronized (this) {
+            publish(items);
+        }
+    }
+
+    // 先写临时文件再原子替换
+    private void persist() {
+        Path target = Path.of(FILE);
+        Path tmp = Path.of(FILE + ".tmp");
+        try {
+            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(listAll());
+            Files.writeString(tmp, json, StandardCharsets.UTF_8);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to persist {}", FILE, e);
+        }
+    }
+
+    private record Indexed(ServiceKbItem item, Bm25Index.Prepared prepared) {
+    }
 
-        log.info("Initialized service KB with default {} items. You can create {} to override.", items.size(), FILE);
+    /**
+     * 发布后不再修改
+     */
+    private record Snapshot(long version, List<ServiceKbItem> items, Map<String, Indexed> byId, Bm25Index index) {
+        static final Snapshot EMPTY = new Snapshot(0, List.of(), Map.of(), new Bm25Index());
     }
 }
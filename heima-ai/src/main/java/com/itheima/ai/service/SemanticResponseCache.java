@@ -0,0 +1,220 @@
+package com.itheima.ai.service;
+
+import com.itheima.ai.utils.VectorDistanceUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 客服问答的语义缓存
+ * - key = 问题的 embedding + 检索到的知识 id 集合 + 本次带给模型的会话历史摘要（SHA-256）：
+ *   知识 id 集合和历史都相同、且问题向量余弦相似度达到阈值才视为同一个问题；
+ *   同一句“那价格呢？”在不同上下文里答案不同，所以有历史的追问只会命中完全相同的对话，实际上主要是首问命中
+ * - 命中时把缓存的回答切成小段，按流式返回，前端表现与模型输出一致
+ * - 知识库有任何变更时整体失效（回答依赖检索到的知识内容）；另按 TTL 过期、按条数 LRU 淘汰
+ * - embedding 不可用时直接跳过缓存
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SemanticResponseCache {
+
+    // 回放时每段的字符数
+    private static final int REPLAY_CHUNK_CHARS = 8;
+
+    private final EmbeddingModel embeddingModel;
+    private final ServiceKbRepository kbRepository;
+
+    @Value("${heima.response-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${heima.response-cache.similarity-threshold:0.95}")
+    private double similarityThreshold;
+
+    @Value("${heima.response-cache.max-entries:1000}")
+    private int maxEntries;
+
+    @Value("${heima.response-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    // 按访问顺序的 LRU；知识 id 集合与历史相同的条目另外按组索引，查找只扫该组
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<Entry>> byKb = new HashMap<>();
+    private long nextId = 0;
+
+    // 知识库版本，变更时递增；写入时版本不一致说明回答基于旧知识，丢弃
+    private final AtomicLong kbVersion = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong savedMs = new AtomicLong();
+
+    @PostConstruct
+    private void init() {
+        kbRepository.addChangeListener((saved, deletedIds) -> invalidateAll());
+    }
+
+    /**
+     * 生成缓存 key（需要一次 embedding 调用，通常命中 embedding 缓存）
+     * @param history 本次实际带给模型的会话历史（即 historyWindow 条），回答依赖它
+     * @return 缓存关闭或 embedding 失败时返回 null
+     */
+    public Key key(String prompt, List<ServiceKbItem> items, List<Message> history) {
+        if (!enabled || prompt == null || prompt.isBlank()) return null;
+        long version = kbVersion.get();
+        try {
+            float[] embedding = VectorDistanceUtils.normalize(embeddingModel.embed(prompt.strip()));
+            String kbKey = items.stream().map(ServiceKbItem::getId).sorted().reduce((a, b) -> a + "," + b).orElse("")
+                    + "|" + historyDigest(history);
+            return new Key(embedding, kbKey, version, System.nanoTime());
+        } catch (RuntimeException e) {
+            log.debug("Skip response cache, embedding failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public Optional<String> get(Key key) {
+        if (key == null) return Optional.empty();
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        float bestScore = 0;
+        synchronized (this) {
+            List<Entry> group = byKb.getOrDefault(key.kbKey(), List.of());
+            for (Entry entry : group) {
+                if (entry.version() != kbVersion.get() || now - entry.createdAt() > ttlMillis()) continue;
+                float score = VectorDistanceUtils.dotProduct(key.embedding(), entry.embedding());
+                if (score >= similarityThreshold && score > bestScore) {
+                    best = entry;
+                    bestScore = score;
+                }
+            }
+            if (best != null) entries.get(best.id()); // 刷新 LRU 顺序
+        }
+        if (best == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        long lookupMs = (System.nanoTime() - key.startNanos()) / 1_000_000;
+        savedMs.addAndGet(Math.max(0, best.generationMs() - lookupMs));
+        return Optional.of(best.answer());
+    }
+
+    /**
+     * 写入完整回答
+     * @param generationMs 模型生成该回答的耗时，用于统计命中节省的时间
+     */
+    public void put(Key key, String answer, long generationMs) {
+        if (key == null || answer == null || answer.isBlank()) return;
+        synchronized (this) {
+            if (key.version() != kbVersion.get()) return;
+            Entry entry = new Entry(nextId++, key.embedding(), key.kbKey(), key.version(), answer,
+                    System.currentTimeMillis(), generationMs);
+            entries.put(entry.id(), entry);
+            byKb.computeIfAbsent(entry.kbKey(), k -> new ArrayList<>()).add(entry);
+            evictLocked();
+        }
+    }
+
+    /**
+     * 把缓存的回答按小段流式返回
+     */
+    public Flux<String> replay(String answer) {
+        List<String> chunks = new ArrayList<>(answer.length() / REPLAY_CHUNK_CHARS + 1);
+        for (int i = 0; i < answer.length(); ) {
+            int end = Math.min(answer.length(), i + REPLAY_CHUNK_CHARS);
+            // 不拆开代理对
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) end++;
+            chunks.add(answer.substring(i, end));
+            i = end;
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    public synchronized void invalidateAll() {
+        kbVersion.incrementAndGet();
+        entries.clear();
+        byKb.clear();
+        invalidations.incrementAndGet();
+    }
+
+    public Stats stats() {
+        long h = hits.get();
+        long m = misses.get();
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(h, m, h + m == 0 ? 0 : (double) h / (h + m), savedMs.get(), invalidations.get(),
+                size, maxEntries, kbVersion.get());
+    }
+
+    // 先清过期条目，再按 LRU 淘汰到上限以内
+    private void evictLocked() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            boolean expired = now - eldest.createdAt() > ttlMillis();
+            if (!expired && entries.size() <= maxEntries) break;
+            it.remove();
+            List<Entry> group = byKb.get(eldest.kbKey());
+            if (group != null) {
+                group.remove(eldest);
+                if (group.isEmpty()) byKb.remove(eldest.kbKey());
+            }
+        }
+    }
+
+    // 没有历史时为空串，与首问的 key 一致
+    private static String historyDigest(List<Message> history) {
+        if (history == null || history.isEmpty()) return "";
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Message message : history) {
+                digest.update(message.getMessageType().name().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                String text = message.getText();
+                digest.update((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private long ttlMillis() {
+        return ttlMinutes * 60_000;
+    }
+
+    /**
+     * @param kbKey 知识 id 集合 + 历史摘要，相同的条目才互相比较问题向量
+     */
+    public record Key(float[] embedding, String kbKey, long version, long startNanos) {
+    }
+
+    private record Entry(long id, float[] embedding, String kbKey, long version, String answer,
+                         long createdAt, long generationMs) {
+    }
+
+    /**
+     * @param hitRate 命中次数 / 查询次数
+     * @param savedMs 命中时省下的模型生成耗时合计（生成耗时 - 查缓存耗时）
+     */
+    public record Stats(long hits, long misses, double hitRate, long savedMs, long invalidations,
+                        int entries, int maxEntries, long kbVersion) {
+    }
+}
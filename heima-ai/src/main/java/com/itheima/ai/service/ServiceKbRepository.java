@@ -1,7 +1,37 @@
 package com.itheima.ai.service;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface ServiceKbRepository {
     List<ServiceKbItem> listAll();
-}
\ No newline at end of file
+
+    Optional<ServiceKbItem> findById(String id);
+
+    /**
+     * 按相关度检索知识库（BM25，标题、标签加权）
+     * @return 最相关的在前，最多 topK 条
+     */
+    List<ServiceKbItem> search(String query, int topK);
+
+    /**
+     * 新增或覆盖一条知识，索引同步增量更新
+     */
+    void save(ServiceKbItem item);
+
+    void delete(String id);
+
+    /**
+     * 知识库版本，每次变更生效（含文件重载）后递增
+     */
+    long version();
+
+    /**
+     * 注册知识变更回调，变更生效后调用
+     */
+    void addChangeListener(ChangeListener listener);
+
+    interface ChangeListener {
+        void onChange(List<ServiceKbItem> saved, List<String> deletedIds);
+    }
+}
@@ -1,56 +1,126 @@
 package com.itheima.ai.service;
 
+import com.itheima.ai.config.ExecutionMode;
+import com.itheima.ai.prompt.ContextPacker;
+import com.itheima.ai.search.HybridRetriever;
+import com.itheima.ai.vectorstore.HnswVectorStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ServiceRagService {
 
     private final ServiceKbRepository kbRepository;
 
+    // 知识库的向量索引（文档 id = 知识 id）
+    private final HnswVectorStore serviceKbVectorStore;
+
+    private final HybridRetriever hybridRetriever;
+
+    // 知识库向量化在后台进行，不阻塞启动；embedding 不可用时检索退化为纯关键词
+    private final ExecutionMode executionMode;
+
+    // 单线程保证变更按顺序同步
+    private ExecutorService syncExecutor;
+
+    @PostConstruct
+    private void init() {
+        syncExecutor = Executors.newSingleThreadExecutor(executionMode.threadFactory("service-kb-embed-"));
+        kbRepository.addChangeListener((saved, deletedIds) -> syncExecutor.execute(() -> syncVectors(saved, deletedIds)));
+        syncExecutor.execute(() -> syncVectors(kbRepository.listAll(), List.of()));
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        syncExecutor.shutdownNow();
+    }
+
+    /**
+     * 混合检索：BM25（标题、标签加权）与向量检索同时进行，按倒数排名融合
+     */
     public List<ServiceKbItem> retrieveTopK(String prompt, int topK) {
         if (prompt == null || prompt.isBlank()) return List.of();
 
-        String q = prompt.toLowerCase(Locale.ROOT);
-
-        // 简单评分：title/tags/content 命中加分
-        record Scored(ServiceKbItem item, int score) {}
-        List<Scored> scored = new ArrayList<>();
+        return hybridRetriever.retrieve(
+                depth -> kbRepository.search(prompt, depth),
+                depth -> vectorSearch(prompt, depth),
+                ServiceKbItem::getId,
+                topK);
+    }
 
-        for (ServiceKbItem item : kbRepository.listAll()) {
-            int s = 0;
-            if (item.getTitle() != null && item.getTitle().toLowerCase(Locale.ROOT).contains(q)) s += 3;
-            if (item.getContent() != null && item.getContent().toLowerCase(Locale.ROOT).contains(q)) s += 1;
+    private List<ServiceKbItem> vectorSearch(String prompt, int topK) {
+        if (serviceKbVectorStore.size() == 0) return List.of();
+        List<Document> docs = serviceKbVectorStore.similaritySearch(SearchRequest.builder()
+                .query(prompt)
+                .topK(topK)
+                .build());
+        List<ServiceKbItem> items = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            kbRepository.findById(doc.getId()).ifPresent(items::add);
+        }
+        return items;
+    }
 
-            if (item.getTags() != null) {
-                for (String tag : item.getTags()) {
-                    if (tag == null) continue;
-                    if (q.contains(tag.toLowerCase(Locale.ROOT))) s += 4;
+    // 只对新增或内容有变化的知识调用 embedding
+    private void syncVectors(List<ServiceKbItem> saved, List<String> deletedIds) {
+        try {
+            if (!deletedIds.isEmpty()) {
+                serviceKbVectorStore.delete(deletedIds);
+            }
+            List<Document> changed = new ArrayList<>();
+            for (ServiceKbItem item : saved) {
+                String text = embeddingText(item);
+                if (!serviceKbVectorStore.findText(item.getId()).map(text::equals).orElse(false)) {
+                    changed.add(new Document(item.getId(), text, Map.of("kbId", item.getId())));
                 }
             }
-            if (s > 0) scored.add(new Scored(item, s));
+            if (!changed.isEmpty()) {
+                serviceKbVectorStore.add(changed);
+                log.info("Embedded {} service KB items.", changed.size());
+            }
+            if (!changed.isEmpty() || !deletedIds.isEmpty()) {
+                serviceKbVectorStore.save();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to sync service KB vectors, retrieval falls back to keywords: {}", e.getMessage());
         }
+    }
+
+    private static String embeddingText(ServiceKbItem item) {
+        StringBuilder sb = new StringBuilder();
+        if (item.getTitle() != null) sb.append(item.getTitle()).append('\n');
+        if (item.getTags() != null) sb.append(String.join(" ", item.getTags())).append('\n');
+        if (item.getContent() != null) sb.append(item.getContent());
+        return sb.toString();
+    }
 
-        return scored.stream()
-                .sorted((a, b) -> Integer.compare(b.score(), a.score()))
-                .limit(topK)
-                .map(Scored::item)
-                .collect(Collectors.toList());
+    /**
+     * 片段正文：标题 + 内容，用于按 token 预算打包和拼接上下文
+     */
+    public static String contextText(ServiceKbItem item) {
+        return (item.getTitle() == null ? "" : item.getTitle()) + "\n" + (item.getContent() == null ? "" : item.getContent());
     }
 
-    public String buildContext(List<ServiceKbItem> items) {
-        if (items == null || items.isEmpty()) return "（未检索到相关知识库片段）";
+    /**
+     * @param pieces ContextPacker 按预算选出的片段，正文来自 contextText
+     */
+    public String buildContext(List<ContextPacker.Piece<ServiceKbItem>> pieces) {
+        if (pieces == null || pieces.isEmpty()) return "（未检索到相关知识库片段）";
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < items.size(); i++) {
-            ServiceKbItem it = items.get(i);
+        for (int i = 0; i < pieces.size(); i++) {
             sb.append("【知识片段 ").append(i + 1).append("】")
-                    .append(it.getTitle() == null ? "" : it.getTitle())
-                    .append("\n")
-                    .append(it.getContent() == null ? "" : it.getContent())
+                    .append(pieces.get(i).text())
                     .append("\n\n---\n\n");
         }
         return sb.toString();
@@ -0,0 +1,246 @@
+package com.itheima.ai.stream;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * SSE 流式输出
+ * - 模型的 token 先攒在服务端，满 coalesce-bytes 字节或距第一个未发送 token 满 coalesce-ms 时合并成一帧发送，减少小包和 flush
+ * - 每帧带 id = 回答id:帧序号；断线重连时浏览器带上 Last-Event-ID，从服务端缓存的帧续传，不重新调用模型；
+ *   只续传同一接口、同一 chatId、同一问题的回答，其余一律按 expired 处理，不能凭 id 接上别的会话的回答
+ * - 模型调用由服务端持有，与单个连接解耦：连接全部断开后等待 resume-grace-seconds，仍无人重连才取消；回答结束后缓存保留 retain-seconds
+ * - 空闲时定期发送注释行作为心跳，防止代理断开长连接
+ * 事件：默认 message 事件为正文帧；done 表示结束；failed 表示模型出错；expired 表示要续传的回答已不在缓存中
+ */
+@Slf4j
+@Component
+public class SseStreamHub {
+
+    @Value("${heima.sse.coalesce-ms:20}")
+    private long coalesceMs;
+
+    @Value("${heima.sse.coalesce-bytes:256}")
+    private int coalesceBytes;
+
+    @Value("${heima.sse.heartbeat-seconds:15}")
+    private long heartbeatSeconds;
+
+    @Value("${heima.sse.resume-grace-seconds:30}")
+    private long resumeGraceSeconds;
+
+    @Value("${heima.sse.retain-seconds:60}")
+    private long retainSeconds;
+
+    private final Scheduler timer = Schedulers.newSingle("sse-timer", true);
+
+    // 进行中和刚结束的回答，按回答 id
+    private final Map<String, Answer> answers = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    private void shutdown() {
+        answers.values().forEach(Answer::cancel);
+        timer.dispose();
+    }
+
+    /**
+     * @param endpoint    接口类型（chat / pdf / service），续传时必须一致
+     * @param chatId      会话 id，续传时必须一致
+     * @param prompt      用户问题，续传时必须一致
+     * @param lastEventId 请求头 Last-Event-ID；为空时新建回答
+     * @param tokens      新建回答时调用，返回模型的 token 流
+     */
+    public Flux<ServerSentEvent<String>> stream(String endpoint, String chatId, String prompt, String lastEventId,
+                                                Supplier<Flux<String>> tokens) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return start(new Owner(endpoint, chatId, prompt), tokens.get());
+        }
+        int sep = lastEventId.lastIndexOf(':');
+        Answer answer = sep > 0 ? answers.get(lastEventId.substring(0, sep)) : null;
+        if (answer != null && !answer.owner.equals(new Owner(endpoint, chatId, prompt))) {
+            log.debug("Refuse to resume answer {} from a different endpoint, chat or prompt", answer.id);
+            answer = null;
+        }
+        if (answer == null) {
+            // 重连带着 prompt，但不能当作新问题再问一遍
+            return Flux.just(ServerSentEvent.<String>builder().event("expired").data(lastEventId).build());
+        }
+        int afterSeq;
+        try {
+            afterSeq = Integer.parseInt(lastEventId.substring(sep + 1));
+        } catch (NumberFormatException e) {
+            afterSeq = 0;
+        }
+        log.debug("Resume answer {} after frame {}", answer.id, afterSeq);
+        return answer.attach(afterSeq);
+    }
+
+    private Flux<ServerSentEvent<String>> start(Owner owner, Flux<String> tokens) {
+        Answer answer = new Answer(UUID.randomUUID().toString().replace("-", "").substring(0, 16), owner);
+        answers.put(answer.id, answer);
+        Flux<ServerSentEvent<String>> events = answer.attach(0);
+        answer.subscribe(tokens);
+        return events;
+    }
+
+    private static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) bytes++;
+            else if (c < 0x800) bytes += 2;
+            else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else bytes += 3;
+        }
+        return bytes;
+    }
+
+    // 回答所属的接口、会话和问题
+    private record Owner(String endpoint, String chatId, String prompt) {
+    }
+
+    /**
+     * 一次回答：已发送的帧、待合并的 token、当前连接
+     */
+    private final class Answer {
+        private final String id;
+        private final Owner owner;
+        private final List<String> frames = new ArrayList<>();
+        private final StringBuilder pending = new StringBuilder();
+        private final List<FluxSink<ServerSentEvent<String>>> viewers = new ArrayList<>();
+        private int pendingBytes;
+        private boolean done;
+        private String error;
+        private Disposable upstream;
+        private Disposable flushTask;
+        private Disposable graceTask;
+
+        Answer(String id, Owner owner) {
+            this.id = id;
+            this.owner = owner;
+        }
+
+        void subscribe(Flux<String> tokens) {
+            Disposable d = tokens.subscribe(this::onToken, e -> onDone(e.getMessage() == null ? e.toString() : e.getMessage()),
+                    () -> onDone(null));
+            synchronized (this) {
+                if (!done) upstream = d;
+            }
+        }
+
+        synchronized void cancel() {
+            if (upstream != null) upstream.dispose();
+        }
+
+        private synchronized void onToken(String token) {
+            if (done) return;
+            pending.append(token);
+            pendingBytes += utf8Length(token);
+            if (pendingBytes >= coalesceBytes) {
+                flushLocked();
+            } else if (flushTask == null) {
+                flushTask = timer.schedule(this::flush, coalesceMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized void flush() {
+            flushTask = null;
+            flushLocked();
+        }
+
+        private void flushLocked() {
+            if (flushTask != null) {
+                flushTask.dispose();
+                flushTask = null;
+            }
+            if (pending.isEmpty()) return;
+            String text = pending.toString();
+            pending.setLength(0);
+            pendingBytes = 0;
+            frames.add(text);
+            ServerSentEvent<String> event = frame(frames.size(), text);
+            viewers.forEach(sink -> sink.next(event));
+        }
+
+        private synchronized void onDone(String error) {
+            if (done) return;
+            flushLocked();
+            done = true;
+            this.error = error;
+            upstream = null;
+            if (graceTask != null) graceTask.dispose();
+            // complete 会同步回调 detach 把 sink 从 viewers 里移除，先取出再逐个结束
+            List<FluxSink<ServerSentEvent<String>>> ended = new ArrayList<>(viewers);
+            viewers.clear();
+            for (FluxSink<ServerSentEvent<String>> sink : ended) {
+                sink.next(end());
+                sink.complete();
+            }
+            timer.schedule(() -> answers.remove(id), retainSeconds, TimeUnit.SECONDS);
+        }
+
+        Flux<ServerSentEvent<String>> attach(int afterSeq) {
+            return Flux.create(sink -> {
+                synchronized (this) {
+                    for (int seq = Math.max(afterSeq, 0) + 1; seq <= frames.size(); seq++) {
+                        sink.next(frame(seq, frames.get(seq - 1)));
+                    }
+                    if (done) {
+                        sink.next(end());
+                        sink.complete();
+                        return;
+                    }
+                    viewers.add(sink);
+                    if (graceTask != null) {
+                        graceTask.dispose();
+                        graceTask = null;
+                    }
+                }
+                Disposable heartbeat = timer.schedulePeriodically(
+                        () -> sink.next(ServerSentEvent.<String>builder().comment("heartbeat").build()),
+                        heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+                sink.onDispose(() -> {
+                    heartbeat.dispose();
+                    detach(sink);
+                });
+            });
+        }
+
+        private synchronized void detach(FluxSink<ServerSentEvent<String>> sink) {
+            if (!viewers.remove(sink) || done || !viewers.isEmpty()) return;
+            graceTask = timer.schedule(this::abandon, resumeGraceSeconds, TimeUnit.SECONDS);
+        }
+
+        // 断开后一直没人重连，取消模型调用
+        private synchronized void abandon() {
+            graceTask = null;
+            if (done || !viewers.isEmpty()) return;
+            log.debug("No client resumed answer {} within {}s, cancel generation", id, resumeGraceSeconds);
+            cancel();
+            onDone("cancelled");
+        }
+
+        private ServerSentEvent<String> frame(int seq, String text) {
+            return ServerSentEvent.builder(text).id(id + ":" + seq).build();
+        }
+
+        private ServerSentEvent<String> end() {
+            ServerSentEvent.Builder<String> builder = ServerSentEvent.<String>builder().id(id + ":" + frames.size());
+            return error == null ? builder.event("done").data(id).build() : builder.event("failed").data(error).build();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.itheima.ai.utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * 基于 JDK Vector API（jdk.incubator.vector）的 SIMD 实现
+ * 只在启动参数带 --add-modules jdk.incubator.vector 时由 VectorDistanceUtils 反射加载，否则不会触碰这个类
+ * 只用 fromArray 读堆内数组：fromByteBuffer 在 JDK 20 起被移除（改为 fromMemorySegment），而 17 上又没有 MemorySegment 版本，
+ * 两者都用的话总有一个版本在运行时 NoSuchMethodError
+ */
+final class SimdVectorKernels implements VectorKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    // int8：int 向量取本机首选宽度，每次读与其 lane 数相同的字节扩宽后乘加；
+    // 字节向量最窄 64 位，128 位的机器上一次读 8 个字节、分两段扩宽
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, INT_SPECIES.length() * Byte.SIZE)));
+    private static final int PARTS = BYTE_SPECIES.length() / INT_SPECIES.length();
+
+    @Override
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        int i = 0;
+        // 两路累加器，减少 fma 之间的数据依赖
+        FloatVector acc1 = FloatVector.zero(SPECIES);
+        FloatVector acc2 = FloatVector.zero(SPECIES);
+        int bound2 = length - length % (step * 2);
+        for (; i < bound2; i += step * 2) {
+            acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc1);
+            acc2 = FloatVector.fromArray(SPECIES, a, aOffset + i + step)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i + step), acc2);
+        }
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += step) {
+            acc1 = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .fma(FloatVector.fromArray(SPECIES, b, bOffset + i), acc1);
+        }
+        float sum = acc1.add(acc2).reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public float squareDistance(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        int i = 0;
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += step) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, a, aOffset + i)
+                    .sub(FloatVector.fromArray(SPECIES, b, bOffset + i));
+            acc = diff.fma(diff, acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public float cosine(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        int step = SPECIES.length();
+        int i = 0;
+        FloatVector dotAcc = FloatVector.zero(SPECIES);
+        FloatVector normAAcc = FloatVector.zero(SPECIES);
+        FloatVector normBAcc = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += step) {
+            FloatVector va = FloatVector.fromArray(SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(SPECIES, b, bOffset + i);
+            dotAcc = va.fma(vb, dotAcc);
+            normAAcc = va.fma(va, normAAcc);
+            normBAcc = vb.fma(vb, normBAcc);
+        }
+        float dot = dotAcc.reduceLanes(VectorOperators.ADD);
+        float normA = normAAcc.reduceLanes(VectorOperators.ADD);
+        float normB = normBAcc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            float x = a[aOffset + i];
+            float y = b[bOffset + i];
+            dot += x * y;
+            normA += x * x;
+            normB += y * y;
+        }
+        return (float) (dot / Math.sqrt((double) normA * normB));
+    }
+
+    @Override
+    public int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int step = BYTE_SPECIES.length();
+        int i = 0;
+        IntVector acc = IntVector.zero(INT_SPECIES);
+        int bound = BYTE_SPECIES.loopBound(length);
+        for (; i < bound; i += step) {
+            ByteVector va = ByteVector.fromArray(BYTE_SPECIES, a, aOffset + i);
+            ByteVector vb = ByteVector.fromArray(BYTE_SPECIES, b, bOffset + i);
+            for (int part = 0; part < PARTS; part++) {
+                IntVector ia = (IntVector) va.castShape(INT_SPECIES, part);
+                IntVector ib = (IntVector) vb.castShape(INT_SPECIES, part);
+                acc = acc.add(ia.mul(ib));
+            }
+        }
+        int sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String name() {
+        return "simd-" + SPECIES.vectorBitSize() + "bit";
+    }
+}
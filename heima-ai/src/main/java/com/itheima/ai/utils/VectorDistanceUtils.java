@@ -1,13 +1,29 @@
 package com.itheima.ai.utils;
 
+import lombok.extern.slf4j.Slf4j;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+@Slf4j
 public class VectorDistanceUtils {
-    
+
     // 防止实例化
     private VectorDistanceUtils() {}
 
     // 浮点数计算精度阈值
     private static final double EPSILON = 1e-12;
 
+    // 启动参数带 --add-modules jdk.incubator.vector 时使用 SIMD 内核，否则标量兜底；-Dheima.vector.simd=false 可强制关闭
+    private static final VectorKernels KERNELS = selectKernels();
+
+    /**
+     * 当前生效的计算内核名称（scalar / simd-256bit 等），便于排查是否走了 SIMD
+     */
+    public static String kernelName() {
+        return KERNELS.name();
+    }
+
     /**
      * 计算欧氏距离
      * @param vectorA 向量A（非空且与B等长）
@@ -17,48 +33,237 @@ public class VectorDistanceUtils {
      */
     public static double euclideanDistance(float[] vectorA, float[] vectorB) {
         validateVectors(vectorA, vectorB);
-        
-        double sum = 0.0;
-        for (int i = 0; i < vectorA.length; i++) {
-            double diff = vectorA[i] - vectorB[i];
-            sum += diff * diff;
+        return Math.sqrt(KERNELS.squareDistance(vectorA, 0, vectorB, 0, vectorA.length));
+    }
+
+    /**
+     * 计算余弦相似度（单次遍历同时累加点积和两个范数）
+     * @param vectorA 向量A（非空且与B等长）
+     * @param vectorB 向量B（非空且与A等长）
+     * @return 余弦相似度，范围[-1, 1]
+     * @throws IllegalArgumentException 参数不合法或零向量时抛出
+     */
+    public static double cosineSimilarity(float[] vectorA, float[] vectorB) {
+        validateVectors(vectorA, vectorB);
+
+        float similarity = KERNELS.cosine(vectorA, 0, vectorB, 0, vectorA.length);
+        // 处理零向量情况（范数为 0 时内核返回 NaN）
+        if (Float.isNaN(similarity) || Float.isInfinite(similarity)) {
+            throw new IllegalArgumentException("Vectors cannot be zero vectors");
         }
-        return Math.sqrt(sum);
+        // 处理浮点误差，确保结果在[-1,1]范围内
+        return Math.max(Math.min(similarity, 1.0), -1.0);
     }
 
     /**
-     * 计算余弦距离
+     * 计算余弦距离（1 - 余弦相似度）
      * @param vectorA 向量A（非空且与B等长）
      * @param vectorB 向量B（非空且与A等长）
      * @return 余弦距离，范围[0, 2]
      * @throws IllegalArgumentException 参数不合法或零向量时抛出
      */
     public static double cosineDistance(float[] vectorA, float[] vectorB) {
+        return 1.0 - cosineSimilarity(vectorA, vectorB);
+    }
+
+    /**
+     * 计算点积（向量已归一化时即为余弦相似度）
+     * @param vectorA 向量A（非空且与B等长）
+     * @param vectorB 向量B（非空且与A等长）
+     * @return 点积
+     * @throws IllegalArgumentException 参数不合法时抛出
+     */
+    public static float dotProduct(float[] vectorA, float[] vectorB) {
         validateVectors(vectorA, vectorB);
-        
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-        
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += vectorA[i] * vectorA[i];
-            normB += vectorB[i] * vectorB[i];
-        }
-        
-        normA = Math.sqrt(normA);
-        normB = Math.sqrt(normB);
-        
-        // 处理零向量情况
-        if (normA < EPSILON || normB < EPSILON) {
+        return KERNELS.dot(vectorA, 0, vectorB, 0, vectorA.length);
+    }
+
+    /**
+     * 查询向量与平铺数组（N 个向量 row-major）中一个向量的点积
+     * @param query   查询向量
+     * @param vectors N 个向量平铺成的数组
+     * @param offset  目标向量在 vectors 中的起始下标
+     * @return 点积
+     */
+    public static float dotProduct(float[] query, float[] vectors, int offset) {
+        if (query == null || vectors == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (offset < 0 || offset + (long) query.length > vectors.length) {
+            throw new IllegalArgumentException(outOfBounds(offset, query.length, vectors.length));
+        }
+        return KERNELS.dot(query, 0, vectors, offset, query.length);
+    }
+
+    /**
+     * 查询向量与堆外存储中一个向量的点积
+     * 内核只读堆内数组，这里先把目标向量整段拷到堆内再算；只用于少量候选的重排，不适合在遍历中调用
+     * @param query      查询向量
+     * @param vectors    堆外 float32 存储（字节序以 buffer 自身设置为准）
+     * @param byteOffset 目标向量在 buffer 中的起始字节偏移
+     * @return 点积
+     */
+    public static float dotProduct(float[] query, ByteBuffer vectors, int byteOffset) {
+        if (query == null || vectors == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (byteOffset < 0 || byteOffset + (long) query.length * Float.BYTES > vectors.limit()) {
+            throw new IllegalArgumentException(outOfBounds(byteOffset, query.length * Float.BYTES, vectors.limit()));
+        }
+        float[] target = new float[query.length];
+        vectors.slice(byteOffset, query.length * Float.BYTES).order(vectors.order()).asFloatBuffer().get(target);
+        return KERNELS.dot(query, 0, target, 0, query.length);
+    }
+
+    /**
+     * 把（已归一化的）向量量化为 int8：code = round(v / scale)，scale = max|v| / 127
+     * @param vector 原始向量
+     * @param out    量化结果，长度与 vector 相同
+     * @return 反量化系数 scale（零向量返回 0）
+     */
+    public static float quantizeInt8(float[] vector, byte[] out) {
+        validateVectors(vector, vector);
+        if (out == null || out.length < vector.length) {
+            throw new IllegalArgumentException("Output array too small");
+        }
+        float maxAbs = 0f;
+        for (float v : vector) {
+            maxAbs = Math.max(maxAbs, Math.abs(v));
+        }
+        if (maxAbs == 0f) {
+            Arrays.fill(out, 0, vector.length, (byte) 0);
+            return 0f;
+        }
+        float scale = maxAbs / 127f;
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = (byte) Math.round(vector[i] / scale);
+        }
+        return scale;
+    }
+
+    /**
+     * int8 量化向量的近似点积：sum(qa * qb) * scaleA * scaleB
+     * @param query      量化后的查询向量
+     * @param queryScale 查询向量的 scale
+     * @param codes      N 个 int8 编码平铺成的数组
+     * @param offset     目标向量在 codes 中的起始下标
+     * @param codeScale  目标向量的 scale
+     * @return 近似点积
+     */
+    public static float dotProductInt8(byte[] query, float queryScale, byte[] codes, int offset, float codeScale) {
+        if (query == null || codes == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (offset < 0 || offset + (long) query.length > codes.length) {
+            throw new IllegalArgumentException(outOfBounds(offset, query.length, codes.length));
+        }
+        return KERNELS.dotInt8(query, 0, codes, offset, query.length) * queryScale * codeScale;
+    }
+
+    /**
+     * 批量点积：一个查询向量对 N 个平铺存放的向量（row-major，每行 query.length 个 float）
+     * @param query   查询向量（已归一化时结果即余弦相似度）
+     * @param vectors N 个向量平铺成的数组，长度至少 count * query.length
+     * @param count   向量个数 N
+     * @param out     结果数组，长度至少 count
+     * @throws IllegalArgumentException 参数不合法时抛出
+     */
+    public static void dotProductBatch(float[] query, float[] vectors, int count, float[] out) {
+        validateBatch(query, vectors, count);
+        if (out == null || out.length < count) {
+            throw new IllegalArgumentException("Output array too small");
+        }
+        int dim = query.length;
+        for (int i = 0, offset = 0; i < count; i++, offset += dim) {
+            out[i] = KERNELS.dot(query, 0, vectors, offset, dim);
+        }
+    }
+
+    /**
+     * 批量余弦相似度（向量未归一化时使用）
+     * @see #dotProductBatch(float[], float[], int, float[])
+     */
+    public static void cosineSimilarityBatch(float[] query, float[] vectors, int count, float[] out) {
+        validateBatch(query, vectors, count);
+        if (out == null || out.length < count) {
+            throw new IllegalArgumentException("Output array too small");
+        }
+        int dim = query.length;
+        for (int i = 0, offset = 0; i < count; i++, offset += dim) {
+            out[i] = KERNELS.cosine(query, 0, vectors, offset, dim);
+        }
+    }
+
+    /**
+     * 批量点积 + topK：用大小为 k 的小顶堆，不为全部 N 个分数排序
+     * @param query   查询向量（应已归一化）
+     * @param vectors N 个向量平铺成的数组
+     * @param count   向量个数 N
+     * @param k       返回个数
+     * @return 按分数降序的下标和分数
+     */
+    public static TopK topKDotProduct(float[] query, float[] vectors, int count, int k) {
+        validateBatch(query, vectors, count);
+        int dim = query.length;
+        int size = Math.min(k, count);
+        int[] heapIdx = new int[Math.max(size, 0)];
+        float[] heapScore = new float[Math.max(size, 0)];
+        int heapSize = 0;
+
+        for (int i = 0, offset = 0; i < count && size > 0; i++, offset += dim) {
+            float score = KERNELS.dot(query, 0, vectors, offset, dim);
+            if (heapSize < size) {
+                heapIdx[heapSize] = i;
+                heapScore[heapSize] = score;
+                siftUp(heapIdx, heapScore, heapSize++);
+            } else if (score > heapScore[0]) {
+                heapIdx[0] = i;
+                heapScore[0] = score;
+                siftDown(heapIdx, heapScore, heapSize);
+            }
+        }
+
+        // 依次弹出堆顶（最小值）从尾部往前填，得到降序结果
+        int[] indices = new int[heapSize];
+        float[] scores = new float[heapSize];
+        for (int n = heapSize - 1; n >= 0; n--) {
+            indices[n] = heapIdx[0];
+            scores[n] = heapScore[0];
+            heapIdx[0] = heapIdx[n];
+            heapScore[0] = heapScore[n];
+            siftDown(heapIdx, heapScore, n);
+        }
+        return new TopK(indices, scores);
+    }
+
+    /**
+     * 归一化为单位向量（返回新数组，不修改入参）
+     * @param vector 原始向量
+     * @return L2 范数为 1 的新向量
+     * @throws IllegalArgumentException 参数不合法或零向量时抛出
+     */
+    public static float[] normalize(float[] vector) {
+        validateVectors(vector, vector);
+
+        double norm = Math.sqrt(KERNELS.dot(vector, 0, vector, 0, vector.length));
+        if (norm < EPSILON) {
             throw new IllegalArgumentException("Vectors cannot be zero vectors");
         }
-        
-        // 处理浮点误差，确保结果在[-1,1]范围内
-        double similarity =  dotProduct / (normA * normB);
-        similarity = Math.max(Math.min(similarity, 1.0), -1.0);
-        
-        return similarity;
+
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) (vector[i] / norm);
+        }
+        return result;
+    }
+
+    /**
+     * topK 结果：indices[i] 为向量下标，scores[i] 为对应分数，按分数降序
+     */
+    public record TopK(int[] indices, float[] scores) {}
+
+    private static String outOfBounds(int offset, int length, int capacity) {
+        return "offset/length out of bounds: offset=" + offset + ", length=" + length + ", capacity=" + capacity;
     }
 
     // 参数校验统一方法
@@ -73,4 +278,67 @@ public class VectorDistanceUtils {
             throw new IllegalArgumentException("Vectors cannot be empty");
         }
     }
-}
\ No newline at end of file
+
+    private static void validateBatch(float[] query, float[] vectors, int count) {
+        if (query == null || vectors == null) {
+            throw new IllegalArgumentException("Vectors cannot be null");
+        }
+        if (query.length == 0) {
+            throw new IllegalArgumentException("Vectors cannot be empty");
+        }
+        if (count < 0 || (long) count * query.length > vectors.length) {
+            throw new IllegalArgumentException(
+                    "count/dimension out of bounds: count=" + count + ", dimension=" + query.length + ", length=" + vectors.length);
+        }
+    }
+
+    // 小顶堆上浮
+    private static void siftUp(int[] idx, float[] score, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (score[parent] <= score[i]) break;
+            swap(idx, score, i, parent);
+            i = parent;
+        }
+    }
+
+    // 小顶堆下沉
+    private static void siftDown(int[] idx, float[] score, int size) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && score[child + 1] < score[child]) child++;
+            if (score[i] <= score[child]) break;
+            swap(idx, score, i, child);
+            i = child;
+        }
+    }
+
+    private static void swap(int[] idx, float[] score, int i, int j) {
+        int ti = idx[i];
+        idx[i] = idx[j];
+        idx[j] = ti;
+        float ts = score[i];
+        score[i] = score[j];
+        score[j] = ts;
+    }
+
+    private static VectorKernels selectKernels() {
+        boolean enabled = !"false".equalsIgnoreCase(System.getProperty("heima.vector.simd"));
+        if (enabled && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                VectorKernels simd = (VectorKernels) Class.forName("com.itheima.ai.utils.SimdVectorKernels")
+                        .getDeclaredConstructor().newInstance();
+                log.info("VectorDistanceUtils using {} kernels.", simd.name());
+                return simd;
+            } catch (Throwable e) {
+                log.warn("Failed to load SIMD vector kernels, fallback to scalar.", e);
+            }
+        } else if (enabled) {
+            log.info("VectorDistanceUtils using scalar kernels. Start with "
+                    + "'java --add-modules jdk.incubator.vector -jar ...' to enable SIMD.");
+        }
+        return new ScalarVectorKernels();
+    }
+}
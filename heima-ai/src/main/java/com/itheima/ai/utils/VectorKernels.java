@@ -0,0 +1,25 @@
+package com.itheima.ai.utils;
+
+/**
+ * 距离计算内核：一段连续 float 区间上的点积 / 平方欧氏距离 / 余弦相似度
+ * 带 offset 参数，便于直接在“N 个向量平铺的 float[]”上计算，无需拷贝
+ */
+interface VectorKernels {
+
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    float squareDistance(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * 一次遍历同时累加 a·b、|a|²、|b|²
+     * @return 余弦相似度（任一为零向量时返回 NaN）
+     */
+    float cosine(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * int8 量化向量的整数点积（同样带 offset，b 通常是 N 个编码平铺的 byte[]）
+     */
+    int dotInt8(byte[] a, int aOffset, byte[] b, int bOffset, int length);
+
+    String name();
+}
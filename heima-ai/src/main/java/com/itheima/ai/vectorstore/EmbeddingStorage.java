@@ -0,0 +1,185 @@
+package com.itheima.ai.vectorstore;
+
+import com.itheima.ai.utils.VectorDistanceUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * 连续的向量存储
+ * - 插入时归一化一次，之后相似度 = 点积，不再重复计算范数
+ * - 不量化：float32 向量平铺在一个堆内 float[] 中（N 个小数组变成一个大数组，GC 只需跟踪一个对象），图遍历直接在上面算点积
+ * - 量化：堆内只保留 int8 编码（float32 的 1/4）和每条的 scale，图遍历和粗排都用 int8；
+ *   float32 原向量放在堆外 direct ByteBuffer，只在最后对少量候选重排时读取
+ * - SIMD 内核只读堆内数组（见 SimdVectorKernels），所以遍历用的数据必须在堆内
+ * - 本类不做并发控制，由调用方（HnswSegment）加读写锁
+ */
+public class EmbeddingStorage {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final boolean quantized;
+
+    private int dimensions = -1;
+    private int size = 0;
+    private int capacity = 0;
+
+    // 不量化时：slot i 的 float32 向量位于 [i * dim, (i + 1) * dim)
+    private float[] floats;
+
+    // 量化时：slot i 的 int8 编码位于 codes[i * dim, (i + 1) * dim)，scale 为反量化系数；
+    // float32 原向量位于堆外 vectors 的 [i * dim * 4, (i + 1) * dim * 4)
+    private byte[] codes;
+    private float[] scales;
+    private ByteBuffer vectors;
+
+    public EmbeddingStorage(boolean quantized) {
+        this.quantized = quantized;
+    }
+
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 归一化后追加，返回 slot 编号
+     */
+    public int add(float[] vector) {
+        if (dimensions < 0) {
+            dimensions = vector.length;
+        } else if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Vector dimension mismatch: expected " + dimensions + ", got " + vector.length);
+        }
+        float[] normalized = VectorDistanceUtils.normalize(vector);
+        ensureCapacity(size + 1);
+
+        int slot = size;
+        if (quantized) {
+            byte[] code = new byte[dimensions];
+            scales[slot] = VectorDistanceUtils.quantizeInt8(normalized, code);
+            System.arraycopy(code, 0, codes, slot * dimensions, dimensions);
+            vectors.slice(slot * dimensions * Float.BYTES, dimensions * Float.BYTES)
+                    .order(vectors.order()).asFloatBuffer().put(normalized);
+        } else {
+            System.arraycopy(normalized, 0, floats, slot * dimensions, dimensions);
+        }
+        size++;
+        return slot;
+    }
+
+    /**
+     * 准备查询：量化模式下顺带把查询向量量化成 int8
+     * @param normalizedQuery 已归一化的查询向量
+     */
+    public Query query(float[] normalizedQuery) {
+        if (!quantized) {
+            return new Query(normalizedQuery, null, 0f);
+        }
+        byte[] code = new byte[normalizedQuery.length];
+        float scale = VectorDistanceUtils.quantizeInt8(normalizedQuery, code);
+        return new Query(normalizedQuery, code, scale);
+    }
+
+    /**
+     * 以已存的 slot 为查询（建图时挑邻居用），只拷贝遍历需要的那份数据，量化模式下不读堆外 float32
+     */
+    public Query query(int slot) {
+        if (!quantized) {
+            return new Query(Arrays.copyOfRange(floats, slot * dimensions, (slot + 1) * dimensions), null, 0f);
+        }
+        return new Query(null, Arrays.copyOfRange(codes, slot * dimensions, (slot + 1) * dimensions), scales[slot]);
+    }
+
+    /**
+     * 遍历用的相似度：量化模式下为 int8 近似点积，否则为 float 点积
+     */
+    public float score(Query query, int slot) {
+        if (quantized) {
+            return VectorDistanceUtils.dotProductInt8(query.code(), query.scale(), codes, slot * dimensions, scales[slot]);
+        }
+        return VectorDistanceUtils.dotProduct(query.vector(), floats, slot * dimensions);
+    }
+
+    /**
+     * float32 精确相似度，用于最终重排；量化模式下需要拷贝堆外向量，只应对少量候选调用
+     * @param query 必须由 {@link #query(float[])} 创建
+     */
+    public float exactScore(Query query, int slot) {
+        if (quantized) {
+            return VectorDistanceUtils.dotProduct(query.vector(), vectors, slot * dimensions * Float.BYTES);
+        }
+        return score(query, slot);
+    }
+
+    /**
+     * 拷贝出 slot 的 float32 向量（已归一化）
+     */
+    public float[] get(int slot) {
+        if (!quantized) {
+            return Arrays.copyOfRange(floats, slot * dimensions, (slot + 1) * dimensions);
+        }
+        float[] out = new float[dimensions];
+        vectors.slice(slot * dimensions * Float.BYTES, dimensions * Float.BYTES)
+                .order(vectors.order()).asFloatBuffer().get(out);
+        return out;
+    }
+
+    /**
+     * 堆内占用字节数（float32 或 int8 编码 + scale）
+     */
+    public long heapBytes() {
+        if (quantized) {
+            return codes == null ? 0 : codes.length + (long) scales.length * Float.BYTES;
+        }
+        return floats == null ? 0 : (long) floats.length * Float.BYTES;
+    }
+
+    /**
+     * 堆外占用字节数（仅量化模式下的 float32 原向量）
+     */
+    public long offHeapBytes() {
+        return vectors == null ? 0 : vectors.capacity();
+    }
+
+    // 容量按 2 倍扩展，旧数据整体拷贝
+    private void ensureCapacity(int required) {
+        if (required <= capacity) return;
+        int newCapacity = Math.max(INITIAL_CAPACITY, capacity);
+        while (newCapacity < required) {
+            newCapacity *= 2;
+        }
+        long floatBytes = (long) newCapacity * dimensions * Float.BYTES;
+        if (floatBytes > Integer.MAX_VALUE) {
+            // 单个 direct buffer 上限 2GB（float[] 上限相同量级）：1536 维约 34 万条/段，按 chatId 分区后远达不到
+            throw new IllegalStateException("Embedding storage exceeds 2GB in one segment");
+        }
+
+        if (quantized) {
+            ByteBuffer newVectors = ByteBuffer.allocateDirect((int) floatBytes).order(ByteOrder.nativeOrder());
+            if (vectors != null) {
+                newVectors.put(0, vectors, 0, size * dimensions * Float.BYTES);
+            }
+            vectors = newVectors;
+            codes = codes == null ? new byte[newCapacity * dimensions] : Arrays.copyOf(codes, newCapacity * dimensions);
+            scales = scales == null ? new float[newCapacity] : Arrays.copyOf(scales, newCapacity);
+        } else {
+            floats = floats == null ? new float[newCapacity * dimensions] : Arrays.copyOf(floats, newCapacity * dimensions);
+        }
+        capacity = newCapacity;
+    }
+
+    /**
+     * @param vector 归一化后的 float32 查询向量（以 slot 为查询且量化时为 null）
+     * @param code   int8 编码（不量化时为 null）
+     */
+    public record Query(float[] vector, byte[] code, float scale) {}
+}
@@ -0,0 +1,516 @@
+package com.itheima.ai.vectorstore;
+
+import com.itheima.ai.utils.VectorDistanceUtils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）近似最近邻图索引
+ * - 节点用连续 int 编号，向量插入时归一化并存入 EmbeddingStorage，相似度 = 点积（即余弦相似度）
+ * - 量化模式下建图和遍历都用 int8 近似点积，结果再用 float32 重排
+ * - 删除为软删除：节点仍参与导航，但不会出现在结果中
+ * - 本类不做并发控制，由调用方（HnswVectorStore）加读写锁
+ */
+public class HnswIndex {
+
+    // 每层最大邻居数（第0层为 2*M）
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private int efSearch;
+
+    // 层数分布参数 1/ln(M)
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    // 量化模式下 int8 遍历/粗排保留 topK * rerankFactor 个候选，再用 float 重排
+    private final int rerankFactor;
+
+    // nodeId == slot，归一化后的向量
+    private final EmbeddingStorage storage;
+
+    // nodeId -> level -> [count, n1, n2, ...]
+    private final List<int[][]> links = new ArrayList<>();
+
+    private final BitSet deleted = new BitSet();
+    private int deletedCount = 0;
+
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int m, int efConstruction, int efSearch) {
+        this(m, efConstruction, efSearch, false, 4);
+    }
+
+    /**
+     * @param quantized    是否以 int8 编码遍历（float32 移到堆外，只用于重排）
+     * @param rerankFactor 粗排候选数 = topK * rerankFactor
+     */
+    public HnswIndex(int m, int efConstruction, int efSearch, boolean quantized, int rerankFactor) {
+        if (m < 2) {
+            throw new IllegalArgumentException("M must be >= 2");
+        }
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(efSearch, 1);
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.rerankFactor = Math.max(rerankFactor, 1);
+        this.storage = new EmbeddingStorage(quantized);
+    }
+
+    public int size() {
+        return storage.size();
+    }
+
+    public int liveSize() {
+        return storage.size() - deletedCount;
+    }
+
+    public int dimensions() {
+        return storage.dimensions();
+    }
+
+    public int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * 同参数的空索引，压缩时用来重建
+     */
+    public HnswIndex emptyCopy() {
+        return new HnswIndex(m, efConstruction, efSearch, storage.isQuantized(), rerankFactor);
+    }
+
+    /**
+     * 拷贝出节点的向量（已归一化）
+     */
+    public float[] vector(int node) {
+        return storage.get(node);
+    }
+
+    public long heapBytes() {
+        return storage.heapBytes();
+    }
+
+    public long offHeapBytes() {
+        return storage.offHeapBytes();
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(efSearch, 1);
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    public void markDeleted(int node) {
+        if (!deleted.get(node)) {
+            deleted.set(node);
+            deletedCount++;
+        }
+    }
+
+    /**
+     * 插入向量，返回分配的 nodeId
+     */
+    public int add(float[] vector) {
+        int node = storage.add(vector);
+        EmbeddingStorage.Query normalized = storage.query(node);
+        int level = randomLevel();
+
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[maxNeighbors(l) + 1];
+        }
+        links.add(nodeLinks);
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        // 1) 从顶层贪心下降到 level+1 层
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(normalized, ep, l);
+        }
+
+        // 2) 从 min(level, maxLevel) 层开始，每层用 efConstruction 搜索并建立双向连接
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(normalized, ep, efConstruction, l, null);
+            int[] selected = selectNeighbors(candidates, m);
+            setLinks(node, l, selected, selected.length);
+            for (int neighbor : selected) {
+                connect(neighbor, node, l);
+            }
+            ep = candidates.best();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 近似 topK 检索
+     * @param query  查询向量（无需归一化）
+     * @param topK   返回数量
+     * @param filter 结果过滤（null 表示不过滤），被过滤的节点仍参与图导航
+     * @return 按相似度降序的结果
+     */
+    public List<SearchHit> search(float[] query, int topK, IntPredicate filter) {
+        if (entryPoint < 0 || topK <= 0) {
+            return List.of();
+        }
+        EmbeddingStorage.Query q = storage.query(VectorDistanceUtils.normalize(query));
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            ep = greedyClosest(q, ep, l);
+        }
+
+        IntPredicate accept = filter == null
+                ? node -> !deleted.get(node)
+                : node -> !deleted.get(node) && filter.test(node);
+        if (!storage.isQuantized()) {
+            NodeHeap results = searchLayer(q, ep, Math.max(efSearch, topK), 0, accept);
+            return results.toSortedHits(topK);
+        }
+        NodeHeap candidates = searchLayer(q, ep, Math.max(efSearch, topK * rerankFactor), 0, accept);
+        return rerank(q, candidates, topK);
+    }
+
+    /**
+     * 精确检索（暴力扫描），用于 recall 基准对比和过滤后候选过少时的兜底
+     * 量化模式下先用 int8 粗排出 topK * rerankFactor 个候选，再用 float 重排
+     */
+    public List<SearchHit> exactSearch(float[] query, int topK, IntPredicate filter) {
+        if (storage.size() == 0 || topK <= 0) {
+            return List.of();
+        }
+        EmbeddingStorage.Query q = storage.query(VectorDistanceUtils.normalize(query));
+
+        int candidatesSize = storage.isQuantized() ? topK * rerankFactor : topK;
+        NodeHeap candidates = new NodeHeap(candidatesSize + 1, true);
+        for (int node = 0; node < storage.size(); node++) {
+            if (deleted.get(node) || (filter != null && !filter.test(node))) continue;
+            candidates.push(node, similarity(q, node));
+            if (candidates.size() > candidatesSize) candidates.pop();
+        }
+        return storage.isQuantized() ? rerank(q, candidates, topK) : candidates.toSortedHits(topK);
+    }
+
+    // 用 float32 给 int8 候选重新打分，取前 topK
+    private List<SearchHit> rerank(EmbeddingStorage.Query q, NodeHeap candidates, int topK) {
+        NodeHeap results = new NodeHeap(topK + 1, true);
+        while (candidates.size() > 0) {
+            int node = candidates.pop();
+            results.push(node, storage.exactScore(q, node));
+            if (results.size() > topK) results.pop();
+        }
+        return results.toSortedHits(topK);
+    }
+
+    // ----------------- graph internals -----------------
+
+    private int randomLevel() {
+        double r = random.nextDouble();
+        return (int) Math.floor(-Math.log(Math.max(r, Double.MIN_VALUE)) * levelMultiplier);
+    }
+
+    private int maxNeighbors(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private float similarity(EmbeddingStorage.Query q, int node) {
+        return storage.score(q, node);
+    }
+
+    private int greedyClosest(EmbeddingStorage.Query q, int ep, int level) {
+        int current = ep;
+        float best = similarity(q, current);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] nl = links.get(current)[level];
+            for (int i = 1; i <= nl[0]; i++) {
+                float s = similarity(q, nl[i]);
+                if (s > best) {
+                    best = s;
+                    current = nl[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 单层 beam search
+     * @param accept 为 null 时所有节点都进入结果集（建图用）
+     * @return 结果堆（堆顶为最差结果）
+     */
+    private NodeHeap searchLayer(EmbeddingStorage.Query q, int ep, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(storage.size());
+        NodeHeap candidates = new NodeHeap(ef * 2, false);
+        NodeHeap results = new NodeHeap(ef + 1, true);
+
+        float epSim = similarity(q, ep);
+        visited.set(ep);
+        candidates.push(ep, epSim);
+        if (accept == null || accept.test(ep)) {
+            results.push(ep, epSim);
+        }
+
+        while (candidates.size() > 0) {
+            float cSim = candidates.peekScore();
+            int c = candidates.pop();
+            if (results.size() >= ef && cSim < results.peekScore()) {
+                break;
+            }
+            int[][] cLinks = links.get(c);
+            if (level >= cLinks.length) continue;
+            int[] nl = cLinks[level];
+            for (int i = 1; i <= nl[0]; i++) {
+                int n = nl[i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float s = similarity(q, n);
+                if (results.size() < ef || s > results.peekScore()) {
+                    candidates.push(n, s);
+                    if (accept == null || accept.test(n)) {
+                        results.push(n, s);
+                        if (results.size() > ef) results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居（论文 Algorithm 4）：优先保留彼此分散的邻居，不足再用被裁掉的补齐
+     */
+    private int[] selectNeighbors(NodeHeap candidates, int max) {
+        List<SearchHit> ordered = candidates.toSortedHits(candidates.size());
+        int[] selected = new int[Math.min(max, ordered.size())];
+        int count = 0;
+        List<Integer> pruned = new ArrayList<>();
+        for (SearchHit hit : ordered) {
+            if (count >= max) break;
+            EmbeddingStorage.Query v = storage.query(hit.node());
+            boolean good = true;
+            for (int i = 0; i < count; i++) {
+                if (storage.score(v, selected[i]) > hit.score()) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                selected[count++] = hit.node();
+            } else {
+                pruned.add(hit.node());
+            }
+        }
+        for (int i = 0; i < pruned.size() && count < selected.length; i++) {
+            selected[count++] = pruned.get(i);
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void setLinks(int node, int level, int[] neighbors, int count) {
+        int[] nl = links.get(node)[level];
+        System.arraycopy(neighbors, 0, nl, 1, count);
+        nl[0] = count;
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] nl = links.get(from)[level];
+        int max = maxNeighbors(level);
+        if (nl[0] < max) {
+            nl[++nl[0]] = to;
+            return;
+        }
+        // 邻居已满：在 原邻居 + 新节点 中重新启发式挑选
+        EmbeddingStorage.Query base = storage.query(from);
+        NodeHeap pool = new NodeHeap(max + 2, true);
+        for (int i = 1; i <= nl[0]; i++) {
+            pool.push(nl[i], storage.score(base, nl[i]));
+        }
+        pool.push(to, storage.score(base, to));
+        int[] selected = selectNeighbors(pool, max);
+        setLinks(from, level, selected, selected.length);
+    }
+
+    // ----------------- persistence -----------------
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(m);
+        out.writeInt(efConstruction);
+        out.writeInt(efSearch);
+        out.writeInt(storage.dimensions());
+        out.writeInt(storage.size());
+        out.writeInt(entryPoint);
+        out.writeInt(maxLevel);
+        for (int node = 0; node < storage.size(); node++) {
+            out.writeBoolean(deleted.get(node));
+            for (float f : storage.get(node)) {
+                out.writeFloat(f);
+            }
+            int[][] nodeLinks = links.get(node);
+            out.writeInt(nodeLinks.length);
+            for (int[] nl : nodeLinks) {
+                out.writeInt(nl[0]);
+                for (int i = 1; i <= nl[0]; i++) {
+                    out.writeInt(nl[i]);
+                }
+            }
+        }
+    }
+
+    public static HnswIndex readFrom(DataInputStream in, boolean quantized, int rerankFactor) throws IOException {
+        int m = in.readInt();
+        int efConstruction = in.readInt();
+        int efSearch = in.readInt();
+        HnswIndex index = new HnswIndex(m, efConstruction, efSearch, quantized, rerankFactor);
+        int dimensions = in.readInt();
+        int size = in.readInt();
+        index.entryPoint = in.readInt();
+        index.maxLevel = in.readInt();
+        for (int node = 0; node < size; node++) {
+            if (in.readBoolean()) {
+                index.markDeleted(node);
+            }
+            float[] v = new float[dimensions];
+            for (int i = 0; i < v.length; i++) {
+                v[i] = in.readFloat();
+            }
+            int levels = in.readInt();
+            int[][] nodeLinks = new int[levels][];
+            for (int l = 0; l < levels; l++) {
+                int count = in.readInt();
+                int[] nl = new int[index.maxNeighbors(l) + 1];
+                nl[0] = count;
+                for (int i = 1; i <= count; i++) {
+                    nl[i] = in.readInt();
+                }
+                nodeLinks[l] = nl;
+            }
+            index.storage.add(v);
+            index.links.add(nodeLinks);
+        }
+        return index;
+    }
+
+    // ----------------- helpers -----------------
+
+    public record SearchHit(int node, float score) {}
+
+    /**
+     * 基于数组的二叉堆（避免 PriorityQueue 装箱）
+     * minHeap=true 时堆顶为最小分数（用作有界结果集），否则堆顶为最大分数（用作候选队列）
+     */
+    private static final class NodeHeap {
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+        private final boolean minHeap;
+
+        NodeHeap(int capacity, boolean minHeap) {
+            int cap = Math.max(capacity, 4);
+            this.nodes = new int[cap];
+            this.scores = new float[cap];
+            this.minHeap = minHeap;
+        }
+
+        int size() {
+            return size;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!before(score, scores[parent])) break;
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        int pop() {
+            int top = nodes[0];
+            size--;
+            if (size > 0) {
+                int node = nodes[size];
+                float score = scores[size];
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) break;
+                    if (child + 1 < size && before(scores[child + 1], scores[child])) child++;
+                    if (!before(scores[child], score)) break;
+                    nodes[i] = nodes[child];
+                    scores[i] = scores[child];
+                    i = child;
+                }
+                nodes[i] = node;
+                scores[i] = score;
+            }
+            return top;
+        }
+
+        // 结果集中分数最高的节点
+        int best() {
+            int best = nodes[0];
+            float bestScore = scores[0];
+            for (int i = 1; i < size; i++) {
+                if (scores[i] > bestScore) {
+                    bestScore = scores[i];
+                    best = nodes[i];
+                }
+            }
+            return best;
+        }
+
+        List<SearchHit> toSortedHits(int limit) {
+            SearchHit[] hits = new SearchHit[size];
+            for (int i = 0; i < size; i++) {
+                hits[i] = new SearchHit(nodes[i], scores[i]);
+            }
+            Arrays.sort(hits, (a, b) -> Float.compare(b.score(), a.score()));
+            return List.of(hits).subList(0, Math.min(limit, hits.length));
+        }
+
+        private boolean before(float a, float b) {
+            return minHeap ? a < b : a > b;
+        }
+    }
+}
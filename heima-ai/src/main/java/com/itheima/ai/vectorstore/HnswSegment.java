@@ -0,0 +1,360 @@
+package com.itheima.ai.vectorstore;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 一个独立的 HNSW 段：图索引 + 文档内容 + 读写锁 + 单文件持久化
+ * HnswVectorStore 只有一个段；PartitionedVectorStore 每个分区一个段
+ */
+@Slf4j
+class HnswSegment {
+
+    private static final int FILE_MAGIC = 0x484E5357; // "HNSW"
+    private static final int FILE_VERSION = 1;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private HnswIndex index;
+
+    // nodeId -> 文档内容（与 index 节点一一对应，删除后置 null）
+    private final List<StoredDocument> documents = new ArrayList<>();
+
+    // documentId -> nodeId
+    private final Map<String, Integer> idToNode = new HashMap<>();
+
+    private volatile boolean dirty = false;
+
+    // 每次写入加一，压缩换入前用来判断重建期间是否有新的写入
+    private long version = 0;
+
+    HnswSegment(int m, int efConstruction, int efSearch, boolean quantized, int rerankFactor) {
+        this.index = new HnswIndex(m, efConstruction, efSearch, quantized, rerankFactor);
+    }
+
+    void add(List<Document> docs, List<float[]> embeddings) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < docs.size(); i++) {
+                Document document = docs.get(i);
+                removeLocked(document.getId());
+                int node = index.add(embeddings.get(i));
+                documents.add(new StoredDocument(document.getId(), document.getText(),
+                        new HashMap<>(document.getMetadata())));
+                idToNode.put(document.getId(), node);
+            }
+            version++;
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return 实际删除的文档数
+     */
+    int delete(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (String id : ids) {
+                if (removeLocked(id)) removed++;
+            }
+            if (removed > 0) {
+                version++;
+                dirty = true;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 按 filter 删除，返回被删除的文档 id
+     */
+    List<String> delete(Expression filter) {
+        lock.writeLock().lock();
+        try {
+            IntPredicate predicate = filterPredicate(filter);
+            List<String> removed = new ArrayList<>();
+            for (int node = 0; node < documents.size(); node++) {
+                StoredDocument doc = documents.get(node);
+                if (doc != null && predicate.test(node)) {
+                    removeLocked(doc.id());
+                    removed.add(doc.id());
+                }
+            }
+            if (!removed.isEmpty()) {
+                version++;
+                dirty = true;
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param filter 已解析的 SpEL 过滤表达式，null 表示不过滤
+     */
+    List<Document> search(float[] queryEmbedding, int topK, double threshold, Expression filter) {
+        lock.readLock().lock();
+        try {
+            IntPredicate predicate = filter == null ? null : filterPredicate(filter);
+            List<HnswIndex.SearchHit> hits = index.search(queryEmbedding, topK, predicate);
+            // 过滤条件很严格时图遍历可能凑不满 topK，退化为精确扫描
+            if (predicate != null && hits.size() < topK) {
+                hits = index.exactSearch(queryEmbedding, topK, predicate);
+            }
+            return toDocuments(hits, threshold);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<Document> exactSearch(float[] queryEmbedding, int topK, double threshold, Expression filter) {
+        lock.readLock().lock();
+        try {
+            IntPredicate predicate = filter == null ? null : filterPredicate(filter);
+            return toDocuments(index.exactSearch(queryEmbedding, topK, predicate), threshold);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void setEfSearch(int efSearch) {
+        lock.writeLock().lock();
+        try {
+            index.setEfSearch(efSearch);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 已存文档的文本，不存在时返回 null
+     */
+    String text(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = idToNode.get(id);
+            return node == null ? null : documents.get(node).text();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int liveSize() {
+        lock.readLock().lock();
+        try {
+            return index.liveSize();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Set<String> documentIds() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(idToNode.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return index.offHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * 软删除节点占全部节点的比例
+     */
+    double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return index.size() == 0 ? 0 : (double) index.deletedCount() / index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 清除软删除的节点：用存活节点的向量重新建图，节点编号重新分配，不需要重新 embedding
+     * 在读锁下重建，期间检索照常进行；换入前如果有新的写入则放弃本次结果，下次再压缩
+     * @return 是否换入了新图
+     */
+    boolean compact() {
+        HnswIndex rebuilt;
+        List<StoredDocument> live;
+        long startVersion;
+        lock.readLock().lock();
+        try {
+            if (index.deletedCount() == 0) return false;
+            startVersion = version;
+            rebuilt = index.emptyCopy();
+            live = new ArrayList<>(index.liveSize());
+            for (int node = 0; node < documents.size(); node++) {
+                StoredDocument doc = documents.get(node);
+                if (doc == null) continue;
+                rebuilt.add(index.vector(node));
+                live.add(doc);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (version != startVersion) return false;
+            index = rebuilt;
+            documents.clear();
+            documents.addAll(live);
+            idToNode.clear();
+            for (int node = 0; node < live.size(); node++) {
+                idToNode.put(live.get(node).id(), node);
+            }
+            version++;
+            dirty = true;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ----------------- persistence -----------------
+
+    /**
+     * 先写临时文件再原子替换，避免写一半崩溃损坏旧文件
+     */
+    void save(Path path) throws IOException {
+        lock.readLock().lock();
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                index.writeTo(out);
+                out.writeInt(documents.size());
+                for (StoredDocument doc : documents) {
+                    out.writeBoolean(doc != null);
+                    if (doc == null) continue;
+                    writeString(out, doc.id());
+                    writeString(out, doc.text());
+                    writeString(out, OBJECT_MAPPER.writeValueAsString(doc.metadata()));
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return 文件格式不识别时返回 null
+     */
+    static HnswSegment load(Path path, int m, int efConstruction, int efSearch,
+                            boolean quantized, int rerankFactor) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            HnswSegment segment = new HnswSegment(m, efConstruction, efSearch, quantized, rerankFactor);
+            segment.index = HnswIndex.readFrom(in, quantized, rerankFactor);
+            segment.index.setEfSearch(efSearch);
+            int count = in.readInt();
+            for (int node = 0; node < count; node++) {
+                if (!in.readBoolean()) {
+                    segment.documents.add(null);
+                    continue;
+                }
+                String id = readString(in);
+                String text = readString(in);
+                Map<String, Object> metadata = OBJECT_MAPPER.readValue(readString(in), new TypeReference<>() {});
+                segment.documents.add(new StoredDocument(id, text, metadata));
+                segment.idToNode.put(id, node);
+            }
+            return segment;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ----------------- helpers -----------------
+
+    private boolean removeLocked(String id) {
+        Integer node = idToNode.remove(id);
+        if (node == null) return false;
+        index.markDeleted(node);
+        documents.set(node, null);
+        return true;
+    }
+
+    private List<Document> toDocuments(List<HnswIndex.SearchHit> hits, double threshold) {
+        List<Document> result = new ArrayList<>(hits.size());
+        for (HnswIndex.SearchHit hit : hits) {
+            if (hit.score() < threshold) continue;
+            result.add(documents.get(hit.node()).toDocument(hit.score()));
+        }
+        return result;
+    }
+
+    private IntPredicate filterPredicate(Expression expression) {
+        return node -> {
+            StoredDocument doc = documents.get(node);
+            if (doc == null) return false;
+            StandardEvaluationContext context = new StandardEvaluationContext();
+            context.setVariable("metadata", doc.metadata());
+            return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+        };
+    }
+
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+
+        Document toDocument(float score) {
+            Map<String, Object> meta = new HashMap<>(metadata);
+            meta.put(DocumentMetadata.DISTANCE.value(), 1.0 - score);
+            return Document.builder().id(id).text(text).metadata(meta).score((double) score).build();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.itheima.ai.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 基于 HNSW 图的本地向量库，替代 SimpleVectorStore 的全量暴力扫描
+ * - add/delete/similaritySearch 语义与 SimpleVectorStore 保持一致（同一套 filter 表达式）
+ * - 图结构 + 文档内容持久化到本地文件，重启直接加载，无需重新 embedding 和建图
+ */
+@Slf4j
+public class HnswVectorStore extends AbstractObservationVectorStore {
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    private final Path persistPath;
+    private final double compactRatio;
+
+    private final HnswSegment segment;
+
+    protected HnswVectorStore(Builder builder) {
+        super(builder);
+        this.persistPath = builder.persistPath;
+        this.compactRatio = builder.compactRatio;
+        this.segment = loadOrCreate(builder);
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public void doAdd(List<Document> docs) {
+        Objects.requireNonNull(docs, "Documents list cannot be null");
+        if (docs.isEmpty()) {
+            throw new IllegalArgumentException("Documents list cannot be empty");
+        }
+
+        // embedding 是远程调用，放在锁外
+        // 按 batchingStrategy 分批，每批一次远程调用，而不是每个文档一次
+        List<float[]> embeddings = this.embeddingModel.embed(docs, EmbeddingOptionsBuilder.builder().build(),
+                this.batchingStrategy);
+        segment.add(docs, embeddings);
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        segment.delete(idList);
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        segment.delete(parse(filterExpression));
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        float[] queryEmbedding = this.embeddingModel.embed(request.getQuery());
+        Expression filter = request.hasFilterExpression() ? parse(request.getFilterExpression()) : null;
+        return segment.search(queryEmbedding, request.getTopK(), request.getSimilarityThreshold(), filter);
+    }
+
+    /**
+     * 调整查询时的 efSearch（越大 recall 越高、延迟越大）
+     */
+    public void setEfSearch(int efSearch) {
+        segment.setEfSearch(efSearch);
+    }
+
+    /**
+     * 精确 topK（暴力扫描），用于和 HNSW 结果对比 recall
+     */
+    public List<Document> exactSearch(SearchRequest request) {
+        float[] queryEmbedding = this.embeddingModel.embed(request.getQuery());
+        Expression filter = request.hasFilterExpression() ? parse(request.getFilterExpression()) : null;
+        return segment.exactSearch(queryEmbedding, request.getTopK(), request.getSimilarityThreshold(), filter);
+    }
+
+    /**
+     * 已存文档的文本，用于判断文档内容是否变化、是否需要重新 embedding
+     */
+    public Optional<String> findText(String id) {
+        return Optional.ofNullable(segment.text(id));
+    }
+
+    public int size() {
+        return segment.liveSize();
+    }
+
+    /**
+     * 持久化图和文档到 persistPath，软删除节点超过 compactRatio 时先压缩
+     */
+    public void save() {
+        if (persistPath == null) return;
+        if (segment.deletedRatio() > compactRatio) segment.compact();
+        if (!segment.isDirty() && Files.exists(persistPath)) return;
+        try {
+            segment.save(persistPath);
+            log.info("Persisted HNSW vector store to {}. live={}", persistPath, segment.liveSize());
+        } catch (IOException e) {
+            log.error("Failed to persist HNSW vector store to {}", persistPath, e);
+        }
+    }
+
+    private HnswSegment loadOrCreate(Builder builder) {
+        if (persistPath != null && Files.exists(persistPath)) {
+            try {
+                HnswSegment loaded = HnswSegment.load(persistPath, builder.m, builder.efConstruction, builder.efSearch,
+                        builder.quantized, builder.rerankFactor);
+                if (loaded != null) {
+                    log.info("Loaded HNSW vector store from {}. live={}", persistPath, loaded.liveSize());
+                    return loaded;
+                }
+                log.warn("Unrecognized HNSW index file {}, starting with an empty index.", persistPath);
+            } catch (IOException e) {
+                log.error("Failed to load HNSW vector store from {}, starting with an empty index.", persistPath, e);
+            }
+        }
+        return new HnswSegment(builder.m, builder.efConstruction, builder.efSearch, builder.quantized, builder.rerankFactor);
+    }
+
+    // filter 表达式只解析一次，然后按节点 metadata 求值
+    private Expression parse(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder("hnsw", operationName)
+                .collectionName(persistPath == null ? "in-memory-hnsw" : persistPath.toString())
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private boolean quantized = false;
+        private int rerankFactor = 4;
+        private double compactRatio = 0.2;
+        private Path persistPath;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * 每个节点的最大邻居数（第0层为 2*M），越大 recall 越高、内存越大
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * 建图时的候选队列长度，越大图质量越好、插入越慢
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * 查询时的候选队列长度（至少为 topK）
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * 是否用 int8 编码建图和检索：堆内只留 int8（float32 的 1/4），float32 移到堆外，只对 topK * rerankFactor 个候选重排
+         */
+        public Builder quantized(boolean quantized) {
+            this.quantized = quantized;
+            return this;
+        }
+
+        public Builder rerankFactor(int rerankFactor) {
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * 软删除节点超过该比例时，save 前先压缩
+         */
+        public Builder compactRatio(double compactRatio) {
+            this.compactRatio = compactRatio;
+            return this;
+        }
+
+        /**
+         * 索引文件路径，为 null 时不持久化
+         */
+        public Builder persistPath(Path persistPath) {
+            this.persistPath = persistPath;
+            return this;
+        }
+
+        @Override
+        public HnswVectorStore build() {
+            return new HnswVectorStore(this);
+        }
+    }
+}
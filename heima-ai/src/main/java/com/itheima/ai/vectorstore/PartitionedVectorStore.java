@@ -0,0 +1,493 @@
+package com.itheima.ai.vectorstore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.observation.conventions.VectorStoreSimilarityMetric;
+import org.springframework.ai.vectorstore.AbstractVectorStoreBuilder;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.ai.vectorstore.observation.AbstractObservationVectorStore;
+import org.springframework.ai.vectorstore.observation.VectorStoreObservationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 metadata 分区（默认 chatId）的向量库：每个分区一个独立的 HNSW 段
+ * - filter 中含 partitionKey == 'x' 时只搜索该分区，成本只和该分区大小有关
+ * - 按 partitionKey == 'x' 删除时直接丢弃整个分区（O(1)）
+ * - 每个分区单独一个文件，只写有变化的分区：调用方在一批写入完成后 save(partition)，
+ *   另有后台线程每 flushInterval 写一次全部有变化的分区，进程被强杀最多丢失这段时间内的零散写入
+ * - 写盘前软删除节点超过 compactRatio 的分区先压缩（用存活向量重新建图）
+ */
+@Slf4j
+public class PartitionedVectorStore extends AbstractObservationVectorStore {
+
+    private static final String FILE_SUFFIX = ".hnsw";
+
+    // 不带分区字段的文档统一放这里
+    private static final String DEFAULT_PARTITION = "";
+
+    private static final int PARTITION_LOCK_STRIPES = 64;
+
+    private final SpelExpressionParser expressionParser = new SpelExpressionParser();
+    private final SimpleVectorStoreFilterExpressionConverter filterExpressionConverter =
+            new SimpleVectorStoreFilterExpressionConverter();
+
+    private final String partitionKey;
+    private final Path persistDir;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final boolean quantized;
+    private final int rerankFactor;
+    private final double compactRatio;
+
+    private final ScheduledExecutorService flusher;
+
+    // 分区文件的写入与删除互斥，避免刚丢弃的分区又被后台刷盘写回
+    private final ReentrantLock fileLock = new ReentrantLock();
+
+    // 同一分区的写入与整段丢弃互斥（按分区哈希分段加锁），避免写进刚被丢弃的段、留下指向旧分区的 id 映射
+    private final ReentrantLock[] partitionLocks = new ReentrantLock[PARTITION_LOCK_STRIPES];
+
+    // partition -> segment
+    private final Map<String, HnswSegment> segments = new ConcurrentHashMap<>();
+
+    // documentId -> partition（按 id 删除时定位分区）
+    private final Map<String, String> documentPartitions = new ConcurrentHashMap<>();
+
+    protected PartitionedVectorStore(Builder builder) {
+        super(builder);
+        this.partitionKey = builder.partitionKey;
+        this.persistDir = builder.persistDir;
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.quantized = builder.quantized;
+        this.rerankFactor = builder.rerankFactor;
+        this.compactRatio = builder.compactRatio;
+        for (int i = 0; i < partitionLocks.length; i++) {
+            partitionLocks[i] = new ReentrantLock();
+        }
+        if (persistDir != null) {
+            load();
+        }
+        if (persistDir != null && builder.flushIntervalMs > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "vector-store-flush");
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, builder.flushIntervalMs, builder.flushIntervalMs,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public void doAdd(List<Document> docs) {
+        Objects.requireNonNull(docs, "Documents list cannot be null");
+        if (docs.isEmpty()) {
+            throw new IllegalArgumentException("Documents list cannot be empty");
+        }
+
+        // embedding 是远程调用，不持有任何分区锁
+        // 按 batchingStrategy 分批，每批一次远程调用，而不是每个文档一次
+        List<float[]> embeddings = this.embeddingModel.embed(docs, EmbeddingOptionsBuilder.builder().build(),
+                this.batchingStrategy);
+
+        Map<String, List<Integer>> byPartition = new LinkedHashMap<>();
+        for (int i = 0; i < docs.size(); i++) {
+            byPartition.computeIfAbsent(partitionOf(docs.get(i)), k -> new ArrayList<>()).add(i);
+        }
+
+        byPartition.forEach((partition, indexes) -> {
+            List<Document> partDocs = new ArrayList<>(indexes.size());
+            List<float[]> partEmbeddings = new ArrayList<>(indexes.size());
+            ReentrantLock lock = partitionLock(partition);
+            lock.lock();
+            try {
+                for (int i : indexes) {
+                    Document document = docs.get(i);
+                    // 同一个 id 换了分区：先从旧分区移除
+                    String previous = documentPartitions.put(document.getId(), partition);
+                    if (previous != null && !previous.equals(partition)) {
+                        HnswSegment old = segments.get(previous);
+                        if (old != null) old.delete(List.of(document.getId()));
+                    }
+                    partDocs.add(document);
+                    partEmbeddings.add(embeddings.get(i));
+                }
+                segments.computeIfAbsent(partition, k -> newSegment()).add(partDocs, partEmbeddings);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void doDelete(List<String> idList) {
+        Map<String, List<String>> byPartition = new HashMap<>();
+        for (String id : idList) {
+            String partition = documentPartitions.remove(id);
+            if (partition != null) {
+                byPartition.computeIfAbsent(partition, k -> new ArrayList<>()).add(id);
+            }
+        }
+        byPartition.forEach((partition, ids) -> {
+            HnswSegment segment = segments.get(partition);
+            if (segment != null) segment.delete(ids);
+        });
+    }
+
+    @Override
+    protected void doDelete(Filter.Expression filterExpression) {
+        // partitionKey == 'x'：整段丢弃
+        if (isPartitionEquality(filterExpression)) {
+            dropPartition(String.valueOf(((Filter.Value) filterExpression.right()).value()));
+            return;
+        }
+        Expression filter = parse(filterExpression);
+        for (HnswSegment segment : targetSegments(filterExpression)) {
+            segment.delete(filter).forEach(documentPartitions::remove);
+        }
+    }
+
+    @Override
+    public List<Document> doSimilaritySearch(SearchRequest request) {
+        List<HnswSegment> targets = request.hasFilterExpression()
+                ? targetSegments(request.getFilterExpression())
+                : List.copyOf(segments.values());
+        if (targets.isEmpty()) {
+            return List.of();
+        }
+
+        float[] queryEmbedding = this.embeddingModel.embed(request.getQuery());
+        // 过滤条件只有分区等值时，分区内不需要再逐条求值
+        Expression filter = request.hasFilterExpression() && !isPartitionEquality(request.getFilterExpression())
+                ? parse(request.getFilterExpression())
+                : null;
+
+        if (targets.size() == 1) {
+            return targets.get(0).search(queryEmbedding, request.getTopK(), request.getSimilarityThreshold(), filter);
+        }
+        List<Document> merged = new ArrayList<>();
+        for (HnswSegment segment : targets) {
+            merged.addAll(segment.search(queryEmbedding, request.getTopK(), request.getSimilarityThreshold(), filter));
+        }
+        merged.sort(Comparator.comparing(Document::getScore).reversed());
+        return merged.size() > request.getTopK() ? merged.subList(0, request.getTopK()) : merged;
+    }
+
+    /**
+     * 丢弃整个分区（内存中的段 + 磁盘文件）
+     */
+    public void dropPartition(String partition) {
+        ReentrantLock lock = partitionLock(partition);
+        lock.lock();
+        try {
+            HnswSegment removed;
+            fileLock.lock();
+            try {
+                removed = segments.remove(partition);
+                if (removed == null) return;
+                if (persistDir != null) {
+                    try {
+                        Files.deleteIfExists(fileOf(partition));
+                    } catch (IOException e) {
+                        log.warn("Failed to delete partition file for {}", partition, e);
+                    }
+                }
+            } finally {
+                fileLock.unlock();
+            }
+            // 只清理该分区自己的 id 映射，与其它分区的数据量无关
+            removed.documentIds().forEach(id -> documentPartitions.remove(id, partition));
+        } finally {
+            lock.unlock();
+        }
+        log.debug("Dropped vector partition {}={}", partitionKey, partition);
+    }
+
+    public int partitionCount() {
+        return segments.size();
+    }
+
+    /**
+     * 分区内的文档 id，分区不存在时返回空集合
+     */
+    public Set<String> documentIds(String partition) {
+        HnswSegment segment = segments.get(partition);
+        return segment == null ? Set.of() : segment.documentIds();
+    }
+
+    /**
+     * 所有分区向量的堆外占用字节数
+     */
+    public long offHeapBytes() {
+        return segments.values().stream().mapToLong(HnswSegment::offHeapBytes).sum();
+    }
+
+    /**
+     * 持久化有变化的分区
+     */
+    public void save() {
+        if (persistDir == null) return;
+        int saved = flush();
+        log.info("Persisted {} dirty vector partitions to {}. total={}", saved, persistDir, segments.size());
+    }
+
+    /**
+     * 立即持久化一个分区（有变化时），用于一批写入完成后不等后台刷盘
+     */
+    public void save(String partition) {
+        HnswSegment segment = segments.get(partition);
+        if (persistDir == null || segment == null) return;
+        saveSegment(partition, segment);
+    }
+
+    /**
+     * 停止后台刷盘并持久化全部有变化的分区
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+            try {
+                flusher.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        save();
+    }
+
+    private int flush() {
+        int saved = 0;
+        for (Map.Entry<String, HnswSegment> entry : segments.entrySet()) {
+            if (saveSegment(entry.getKey(), entry.getValue())) saved++;
+        }
+        if (saved > 0) log.debug("Flushed {} dirty vector partitions to {}.", saved, persistDir);
+        return saved;
+    }
+
+    private boolean saveSegment(String partition, HnswSegment segment) {
+        if (segment.deletedRatio() > compactRatio && segment.compact()) {
+            log.debug("Compacted vector partition {}={}, live={}", partitionKey, partition, segment.liveSize());
+        }
+        if (!segment.isDirty()) return false;
+        fileLock.lock();
+        try {
+            // 分区可能刚被整段丢弃，不能再写回文件
+            if (segments.get(partition) != segment) return false;
+            segment.save(fileOf(partition));
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to persist vector partition {}", partition, e);
+            return false;
+        } finally {
+            fileLock.unlock();
+        }
+    }
+
+    private void load() {
+        if (!Files.isDirectory(persistDir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(persistDir, "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String partition = partitionOfFile(file);
+                HnswSegment segment = HnswSegment.load(file, m, efConstruction, efSearch, quantized, rerankFactor);
+                if (segment == null) {
+                    log.warn("Unrecognized vector partition file {}, skipped.", file);
+                    continue;
+                }
+                segments.put(partition, segment);
+                segment.documentIds().forEach(id -> documentPartitions.put(id, partition));
+            }
+            log.info("Loaded {} vector partitions from {}.", segments.size(), persistDir);
+        } catch (IOException | IllegalArgumentException e) {
+            log.error("Failed to load vector partitions from {}", persistDir, e);
+        }
+    }
+
+    // ----------------- helpers -----------------
+
+    private ReentrantLock partitionLock(String partition) {
+        return partitionLocks[Math.floorMod(partition.hashCode(), partitionLocks.length)];
+    }
+
+    private HnswSegment newSegment() {
+        return new HnswSegment(m, efConstruction, efSearch, quantized, rerankFactor);
+    }
+
+    private String partitionOf(Document document) {
+        Object value = document.getMetadata().get(partitionKey);
+        return value == null ? DEFAULT_PARTITION : value.toString();
+    }
+
+    /**
+     * 从 filter 中找出 partitionKey 的等值条件（顶层或 AND 分支），找不到则需要扫描所有分区
+     */
+    private List<HnswSegment> targetSegments(Filter.Expression expression) {
+        String partition = findPartition(expression);
+        if (partition == null) {
+            return List.copyOf(segments.values());
+        }
+        HnswSegment segment = segments.get(partition);
+        return segment == null ? List.of() : List.of(segment);
+    }
+
+    private String findPartition(Filter.Expression expression) {
+        if (isPartitionEquality(expression)) {
+            return String.valueOf(((Filter.Value) expression.right()).value());
+        }
+        if (expression.type() == Filter.ExpressionType.AND) {
+            if (expression.left() instanceof Filter.Expression left) {
+                String p = findPartition(left);
+                if (p != null) return p;
+            }
+            if (expression.right() instanceof Filter.Expression right) {
+                return findPartition(right);
+            }
+        }
+        return null;
+    }
+
+    private boolean isPartitionEquality(Filter.Expression expression) {
+        return expression.type() == Filter.ExpressionType.EQ
+                && expression.left() instanceof Filter.Key key
+                && partitionKey.equals(unquote(key.key()))
+                && expression.right() instanceof Filter.Value;
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("\"") && key.endsWith("\"") || key.startsWith("'") && key.endsWith("'"))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private Expression parse(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    // 分区值可能含任意字符，文件名用 URL-safe Base64 编码
+    private Path fileOf(String partition) {
+        String encoded = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(partition.getBytes(StandardCharsets.UTF_8));
+        return persistDir.resolve(encoded + FILE_SUFFIX);
+    }
+
+    private static String partitionOfFile(Path file) {
+        String name = file.getFileName().toString();
+        String encoded = name.substring(0, name.length() - FILE_SUFFIX.length());
+        return new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public VectorStoreObservationContext.Builder createObservationContextBuilder(String operationName) {
+        return VectorStoreObservationContext.builder("hnsw-partitioned", operationName)
+                .collectionName(persistDir == null ? "in-memory-partitions" : persistDir.toString())
+                .similarityMetric(VectorStoreSimilarityMetric.COSINE.value());
+    }
+
+    public static final class Builder extends AbstractVectorStoreBuilder<Builder> {
+
+        private String partitionKey = "chatId";
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 64;
+        private boolean quantized = false;
+        private int rerankFactor = 4;
+        private double compactRatio = 0.2;
+        private long flushIntervalMs = 30_000;
+        private Path persistDir;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            super(embeddingModel);
+        }
+
+        /**
+         * 分区所用的 metadata 字段
+         */
+        public Builder partitionKey(String partitionKey) {
+            this.partitionKey = partitionKey;
+            return this;
+        }
+
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * 是否用 int8 编码建图和检索：堆内只留 int8（float32 的 1/4），float32 移到堆外，只对 topK * rerankFactor 个候选重排
+         */
+        public Builder quantized(boolean quantized) {
+            this.quantized = quantized;
+            return this;
+        }
+
+        public Builder rerankFactor(int rerankFactor) {
+            this.rerankFactor = rerankFactor;
+            return this;
+        }
+
+        /**
+         * 软删除节点超过该比例的分区在写盘前压缩
+         */
+        public Builder compactRatio(double compactRatio) {
+            this.compactRatio = compactRatio;
+            return this;
+        }
+
+        /**
+         * 后台刷盘间隔，<= 0 时只在 save / close 时写盘
+         */
+        public Builder flushIntervalMs(long flushIntervalMs) {
+            this.flushIntervalMs = flushIntervalMs;
+            return this;
+        }
+
+        /**
+         * 分区文件目录，为 null 时不持久化
+         */
+        public Builder persistDir(Path persistDir) {
+            this.persistDir = persistDir;
+            return this;
+        }
+
+        @Override
+        public PartitionedVectorStore build() {
+            return new PartitionedVectorStore(this);
+        }
+    }
+}
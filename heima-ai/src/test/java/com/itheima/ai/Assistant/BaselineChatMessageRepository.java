@@ -0,0 +1,31 @@
+package com.itheima.ai.Assistant;
+
+import java.util.*;
+
+/**
+ * 改造前的 InMemoryChatMessageRepository，作为争用基准的对照组
+ * 读写逻辑原样保留：所有方法 synchronized 在同一个实例上，嵌套 HashMap / ArrayList，list 时整表拷贝；
+ * 去掉了启动加载、关闭时写 messages-store.json，避免基准在工作目录读写文件
+ */
+class BaselineChatMessageRepository implements ChatMessageRepository {
+
+    /**
+     * type -> chatId -> messages
+     */
+    private final Map<String, Map<String, List<ChatMessage>>> store = new HashMap<>();
+
+    @Override
+    public synchronized void append(String type, String chatId, ChatMessage message) {
+        store.computeIfAbsent(type, k -> new HashMap<>())
+                .computeIfAbsent(chatId, k -> new ArrayList<>())
+                .add(message);
+    }
+
+    @Override
+    public synchronized List<ChatMessage> list(String type, String chatId) {
+        return new ArrayList<>(
+                store.getOrDefault(type, Map.of())
+                        .getOrDefault(chatId, List.of())
+        );
+    }
+}
@@ -0,0 +1,129 @@
+package com.itheima.ai.Assistant;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * InMemoryChatMessageRepository 在 64 / 128 个线程下的争用
+ * - 负载：1000 个会话，80% 追加、20% 读取，会话随机选取；带预写日志（不触发快照，避免在工作目录写 messages-store.json）
+ * - 对照组是改造前的实现（{@link BaselineChatMessageRepository}）：synchronized 方法、嵌套 HashMap / ArrayList、list 时拷贝
+ * - 正确性：每个线程写入同一会话的消息保持写入顺序；读到的视图不随之后的追加变化；刷盘后新实例重放日志得到相同内容
+ */
+@Tag("benchmark")
+class ChatMessageContentionBenchmarkTest {
+
+    private static final int CONVERSATIONS = 1000;
+    private static final int OPS_PER_THREAD = 5_000;
+    private static final int APPEND_PERCENT = 80;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendAndListUnderContention() throws Exception {
+        System.out.printf("%8s %-12s %12s%n", "threads", "mode", "ops/s");
+        int round = 0;
+        for (int threads : new int[]{64, 128}) {
+            BaselineChatMessageRepository baseline = new BaselineChatMessageRepository();
+            Result before = run(baseline, threads);
+            System.out.printf("%8d %-12s %12.0f%n", threads, "baseline", before.opsPerSecond());
+            verifyOrder(baseline, threads, before.appends());
+
+            Path journalDir = dir.resolve("round-" + round++);
+            InMemoryChatMessageRepository repository = repository(journalDir);
+            Result after = run(repository, threads);
+            System.out.printf("%8d %-12s %12.0f%n", threads, "striped", after.opsPerSecond());
+            verifyOrder(repository, threads, after.appends());
+
+            // 刷盘后用同一日志目录启动新实例，重放结果应与内存一致
+            ReflectionTestUtils.invokeMethod(ReflectionTestUtils.getField(repository, "journal"), "flushQuietly");
+            InMemoryChatMessageRepository replayed = repository(journalDir);
+            for (int c = 0; c < CONVERSATIONS; c++) {
+                assertThat(replayed.list("chat", "c" + c)).isEqualTo(repository.list("chat", "c" + c));
+            }
+        }
+    }
+
+    private static Result run(ChatMessageRepository repository, int threads) throws InterruptedException {
+        AtomicLong appends = new AtomicLong();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(id);
+                ready.countDown();
+                try {
+                    go.await();
+                    for (int i = 0; i < OPS_PER_THREAD; i++) {
+                        String chatId = "c" + random.nextInt(CONVERSATIONS);
+                        boolean append = random.nextInt(100) < APPEND_PERCENT;
+                        if (append) {
+                            repository.append("chat", chatId, new ChatMessage("user", id + ":" + i));
+                            appends.incrementAndGet();
+                        } else {
+                            List<ChatMessage> view = repository.list("chat", chatId);
+                            int size = view.size();
+                            if (size > 0) view.get(size - 1);
+                            assertThat(view).hasSize(size);
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        assertThat(errors).isEmpty();
+        return new Result(threads * OPS_PER_THREAD / seconds, appends.get());
+    }
+
+    // 同一线程写入同一会话的消息，序号必须递增；总条数等于追加次数
+    private static void verifyOrder(ChatMessageRepository repository, int threads, long appends) {
+        long total = 0;
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            int[] last = new int[threads];
+            Arrays.fill(last, -1);
+            for (ChatMessage message : repository.list("chat", "c" + c)) {
+                String[] parts = message.getContent().split(":");
+                int thread = Integer.parseInt(parts[0]), seq = Integer.parseInt(parts[1]);
+                assertThat(seq).isGreaterThan(last[thread]);
+                last[thread] = seq;
+                total++;
+            }
+        }
+        assertThat(total).isEqualTo(appends);
+    }
+
+    private static InMemoryChatMessageRepository repository(Path journalDir) {
+        InMemoryChatMessageRepository repository = new InMemoryChatMessageRepository(new ObjectMapper());
+        ReflectionTestUtils.setField(repository, "journalDir", journalDir.toString());
+        ReflectionTestUtils.setField(repository, "flushIntervalMs", 20L);
+        ReflectionTestUtils.setField(repository, "checkpointRecords", Long.MAX_VALUE);
+        ReflectionTestUtils.invokeMethod(repository, "init");
+        return repository;
+    }
+
+    private record Result(double opsPerSecond, long appends) {
+    }
+}
@@ -0,0 +1,159 @@
+package com.itheima.ai.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.Assistant.ChatMessage;
+import com.itheima.ai.Assistant.ChatMessageRepository;
+import com.itheima.ai.repository.ChatHistoryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static com.itheima.ai.controller.ChatHistoryController.NEXT_BEFORE_HEADER;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class ChatHistoryControllerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, List<ChatMessage>> log = new HashMap<>();
+    // 记录每次读会话记忆的 lastN
+    private final List<Integer> memoryReads = new ArrayList<>();
+    private final ChatMemory chatMemory = new InMemoryChatMemory() {
+        @Override
+        public List<Message> get(String conversationId, int lastN) {
+            memoryReads.add(lastN);
+            return super.get(conversationId, lastN);
+        }
+    };
+
+    private ChatHistoryController controller;
+
+    @BeforeEach
+    void setUp() {
+        ChatMessageRepository repository = new ChatMessageRepository() {
+            @Override
+            public void append(String type, String chatId, ChatMessage message) {
+                log.computeIfAbsent(type + "/" + chatId, k -> new ArrayList<>()).add(message);
+            }
+
+            @Override
+            public List<ChatMessage> list(String type, String chatId) {
+                return log.getOrDefault(type + "/" + chatId, List.of());
+            }
+        };
+        controller = new ChatHistoryController(mock(ChatHistoryRepository.class), repository, chatMemory, objectMapper);
+
+        // q1..a2 只在会话记忆里（消息记录上线前），q3 起两边都有
+        List<Message> memory = new ArrayList<>();
+        for (int i = 1; i <= 4; i++) {
+            memory.add(new UserMessage("q" + i));
+            memory.add(new AssistantMessage("a" + i));
+        }
+        chatMemory.add("c1", memory);
+        for (int i = 3; i <= 4; i++) {
+            repository.append("chat", "c1", new ChatMessage("user", "q" + i));
+            repository.append("chat", "c1", new ChatMessage("assistant", "a" + i));
+        }
+    }
+
+    @Test
+    void fullHistoryPrependsMessagesOnlyInMemory() throws Exception {
+        Result result = get(null, null);
+
+        assertEquals(List.of("q1", "a1", "q2", "a2", "q3", "a3", "q4", "a4"), result.contents());
+        assertNull(result.nextBefore());
+    }
+
+    @Test
+    void pagesCrossFromLogIntoLegacyWithNegativeCursors() throws Exception {
+        Result first = get(null, 3);
+        assertEquals(List.of("a3", "q4", "a4"), first.contents());
+        assertEquals("1", first.nextBefore());
+
+        Result second = get(1, 3);
+        assertEquals(List.of("q2", "a2", "q3"), second.contents());
+        assertEquals("-2", second.nextBefore());
+
+        Result third = get(-2, 3);
+        assertEquals(List.of("q1", "a1"), third.contents());
+        assertNull(third.nextBefore());
+    }
+
+    @Test
+    void conversationFullyInLogDoesNotDuplicateMemory() throws Exception {
+        chatMemory.add("c2", List.of(new UserMessage("x"), new AssistantMessage("y")));
+        log.put("chat/c2", List.of(new ChatMessage("user", "x"), new ChatMessage("assistant", "y")));
+
+        Result result = getChat("c2", null, null);
+
+        assertEquals(List.of("x", "y"), result.contents());
+    }
+
+    @Test
+    void conversationOnlyInMemoryIsServedFromMemory() throws Exception {
+        chatMemory.add("old", List.of(new UserMessage("hi"), new AssistantMessage("hello")));
+
+        Result result = getChat("old", null, 1);
+        assertEquals(List.of("hello"), result.contents());
+        assertEquals("-1", result.nextBefore());
+        assertEquals(List.of("hi"), getChat("old", -1, 1).contents());
+    }
+
+    @Test
+    void readsOnlyTheMemoryTailThePageNeeds() throws Exception {
+        assertEquals(List.of("a3", "q4", "a4"), get(null, 3).contents());
+        assertEquals(List.of(), memoryReads);
+
+        // 消息记录 4 条，本页还差 2 条旧消息，再多读 1 条判断是否还有更早的
+        Result second = get(1, 3);
+        assertEquals(List.of("q2", "a2", "q3"), second.contents());
+        assertEquals("-2", second.nextBefore());
+        assertEquals(List.of(7), memoryReads);
+
+        Result third = get(-2, 2);
+        assertEquals(List.of("q1", "a1"), third.contents());
+        assertNull(third.nextBefore());
+        assertEquals(List.of(7, 9), memoryReads);
+    }
+
+    @Test
+    void conversationWithoutLegacyStopsReadingMemory() throws Exception {
+        chatMemory.add("c2", List.of(new UserMessage("x"), new AssistantMessage("y")));
+        log.put("chat/c2", new ArrayList<>(List.of(new ChatMessage("user", "x"), new ChatMessage("assistant", "y"))));
+
+        assertEquals(List.of("x", "y"), getChat("c2", null, 10).contents());
+        assertEquals(1, memoryReads.size());
+
+        chatMemory.add("c2", List.of(new UserMessage("z")));
+        log.get("chat/c2").add(new ChatMessage("user", "z"));
+        assertEquals(List.of("x", "y", "z"), getChat("c2", null, 10).contents());
+        assertEquals(List.of("x", "y", "z"), getChat("c2", null, null).contents());
+        assertEquals(1, memoryReads.size());
+    }
+
+    private Result get(Integer before, Integer limit) throws Exception {
+        return getChat("c1", before, limit);
+    }
+
+    private Result getChat(String chatId, Integer before, Integer limit) throws Exception {
+        ResponseEntity<StreamingResponseBody> response = controller.getChatHistory("chat", chatId, before, limit);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+        List<ChatMessage> messages = objectMapper.readValue(out.toByteArray(), new TypeReference<>() {});
+        return new Result(messages.stream().map(ChatMessage::getContent).toList(),
+                response.getHeaders().getFirst(NEXT_BEFORE_HEADER));
+    }
+
+    private record Result(List<String> contents, String nextBefore) {
+    }
+}
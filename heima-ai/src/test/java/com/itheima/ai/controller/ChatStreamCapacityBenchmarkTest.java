@@ -0,0 +1,248 @@
+package com.itheima.ai.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.Assistant.ChatStreamRecorder;
+import com.itheima.ai.Assistant.InMemoryChatMessageRepository;
+import com.itheima.ai.config.ExecutionMode;
+import com.itheima.ai.repository.InMemoryChatHistoryRepository;
+import com.itheima.ai.stream.SseStreamHub;
+import com.itheima.ai.support.StubChatModel;
+import org.apache.coyote.AbstractProtocol;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.web.embedded.TomcatVirtualThreadsWebServerFactoryCustomizer;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletRegistrationBean;
+import org.springframework.boot.task.SimpleAsyncTaskExecutorBuilder;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.servlet.context.AnnotationConfigServletWebServerApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 平台线程 / 虚拟线程模式下的并发流式对话容量
+ * - 内嵌 Tomcat + DispatcherServlet 跑真实的 ChatController（/ai/chat），ChatClient 带会话记忆 advisor，模型换成 StubChatModel：
+ *   首 token 200 ms，之后每 25 ms 一个，共 20 个
+ * - 平台模式 Tomcat 限 16 个请求线程、MVC 写流式响应用 8 个线程的 applicationTaskExecutor；
+ *   虚拟模式按 spring.threads.virtual.enabled 的做法把两者都换成虚拟线程
+ * - 同时发出 STREAMS 个请求，统计同时在途的流数、首 token 与完整回答的 p50 / p95（从同时发出算起）
+ * 虚拟线程需要 Java 21+，更低版本只跑平台模式
+ */
+@Tag("benchmark")
+class ChatStreamCapacityBenchmarkTest {
+
+    private static final int STREAMS = 400;
+    private static final int WARMUP = 20;
+    private static final int TOMCAT_THREADS = 16;
+    // spring.task.execution.pool.core-size 的默认值
+    private static final int TASK_THREADS = 8;
+    private static final int TOKENS = 20;
+    private static final long FIRST_TOKEN_MS = 200;
+    private static final long TOKEN_MS = 25;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentStreamsPlatformVersusVirtual() throws Exception {
+        System.out.printf("%-8s %8s %10s %10s %10s %10s %10s %8s%n", "mode", "streams", "wall ms",
+                "ttft p50", "ttft p95", "total p50", "total p95", "peak");
+        Result platform = run(false);
+        print("platform", platform);
+        // 流式回答不占请求线程和写响应的线程：同时在途的流数不受两个线程池大小的限制
+        assertThat(platform.peakStreams()).isGreaterThan(TOMCAT_THREADS + TASK_THREADS);
+
+        if (Runtime.version().feature() < 21) {
+            System.out.printf("virtual threads unavailable on Java %s, skipped%n", Runtime.version());
+            return;
+        }
+        Result virtual = run(true);
+        print("virtual", virtual);
+        assertThat(virtual.peakStreams()).isGreaterThan(TOMCAT_THREADS + TASK_THREADS);
+    }
+
+    private Result run(boolean virtualThreads) throws Exception {
+        ExecutionMode executionMode = new ExecutionMode();
+        ReflectionTestUtils.setField(executionMode, "virtualRequested", virtualThreads);
+        ReflectionTestUtils.invokeMethod(executionMode, "init");
+        StubChatModel model = new StubChatModel(TOKENS, FIRST_TOKEN_MS, TOKEN_MS);
+        AnnotationConfigServletWebServerApplicationContext context =
+                server(executionMode, model, dir.resolve(virtualThreads ? "virtual" : "platform"));
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            int port = context.getWebServer().getPort();
+            // 预热：类加载、JIT、连接池
+            fire(client, port, model, WARMUP);
+            long start = System.nanoTime();
+            List<Timing> timings = fire(client, port, model, STREAMS);
+            long wallMs = (System.nanoTime() - start) / 1_000_000;
+            assertThat(model.streams()).isEqualTo(WARMUP + STREAMS);
+            long[] ttft = timings.stream().mapToLong(t -> t.firstNanos() - start).sorted().toArray();
+            long[] total = timings.stream().mapToLong(t -> t.endNanos() - start).sorted().toArray();
+            return new Result(wallMs, percentile(ttft, 0.5), percentile(ttft, 0.95),
+                    percentile(total, 0.5), percentile(total, 0.95), model.maxInFlight());
+        } finally {
+            context.close();
+            ReflectionTestUtils.invokeMethod(executionMode, "shutdown");
+        }
+    }
+
+    // 同时发出 count 个请求，等全部结束；校验每个回答完整
+    private static List<Timing> fire(HttpClient client, int port, StubChatModel model, int count) throws Exception {
+        List<CompletableFuture<Timing>> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            HttpRequest request = HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + port + "/ai/chat?prompt=q" + i + "&chatId=c" + i)).build();
+            TimedBody body = new TimedBody();
+            requests.add(client.sendAsync(request, HttpResponse.BodyHandlers.fromSubscriber(body, b -> b))
+                    .thenCompose(response -> {
+                        assertThat(response.statusCode()).isEqualTo(200);
+                        return body.timing;
+                    }));
+        }
+        List<Timing> timings = new ArrayList<>();
+        for (CompletableFuture<Timing> request : requests) {
+            Timing timing = request.get(60, TimeUnit.SECONDS);
+            assertThat(timing.body()).isEqualTo(model.answer());
+            timings.add(timing);
+        }
+        return timings;
+    }
+
+    private static AnnotationConfigServletWebServerApplicationContext server(ExecutionMode executionMode,
+                                                                            StubChatModel model, Path journalDir) {
+        // 与 Spring Boot 按 spring.threads.virtual.enabled 自动配置的一致：Tomcat 执行器，以及 MVC 写流式响应用的 applicationTaskExecutor
+        TomcatServletWebServerFactory factory = new TomcatServletWebServerFactory(0);
+        AsyncTaskExecutor taskExecutor;
+        if (executionMode.isVirtual()) {
+            new TomcatVirtualThreadsWebServerFactoryCustomizer().customize(factory);
+            taskExecutor = new SimpleAsyncTaskExecutorBuilder().virtualThreads(true).threadNamePrefix("task-").build();
+        } else {
+            factory.addConnectorCustomizers(connector ->
+                    ((AbstractProtocol<?>) connector.getProtocolHandler()).setMaxThreads(TOMCAT_THREADS));
+            taskExecutor = new ThreadPoolTaskExecutorBuilder().corePoolSize(TASK_THREADS).threadNamePrefix("task-").build();
+        }
+
+        InMemoryChatHistoryRepository history = new InMemoryChatHistoryRepository(new ObjectMapper());
+        InMemoryChatMessageRepository messages = new InMemoryChatMessageRepository(new ObjectMapper());
+        for (Object repository : List.of(history, messages)) {
+            // 不触发快照，避免在工作目录写 json 文件
+            ReflectionTestUtils.setField(repository, "journalDir", journalDir.toString());
+            ReflectionTestUtils.setField(repository, "flushIntervalMs", 20L);
+            ReflectionTestUtils.setField(repository, "checkpointRecords", Long.MAX_VALUE);
+            ReflectionTestUtils.invokeMethod(repository, "init");
+        }
+        ChatClient chatClient = ChatClient.builder(model)
+                .defaultAdvisors(new MessageChatMemoryAdvisor(new InMemoryChatMemory()))
+                .build();
+
+        AnnotationConfigServletWebServerApplicationContext context = new AnnotationConfigServletWebServerApplicationContext();
+        context.register(WebConfig.class);
+        context.registerBean(TomcatServletWebServerFactory.class, () -> factory);
+        context.registerBean("applicationTaskExecutor", AsyncTaskExecutor.class, () -> taskExecutor);
+        context.registerBean(ChatController.class, () -> new ChatController(chatClient, history, messages,
+                new ChatStreamRecorder(messages), new SseStreamHub()));
+        context.refresh();
+        return context;
+    }
+
+    private static long percentile(long[] sortedNanos, double p) {
+        return sortedNanos[Math.min(sortedNanos.length - 1, (int) (sortedNanos.length * p))] / 1_000_000;
+    }
+
+    private static void print(String mode, Result result) {
+        System.out.printf("%-8s %8d %10d %10d %10d %10d %10d %8d%n", mode, STREAMS, result.wallMs(),
+                result.ttftP50Ms(), result.ttftP95Ms(), result.totalP50Ms(), result.totalP95Ms(), result.peakStreams());
+    }
+
+    @Configuration
+    @EnableWebMvc
+    static class WebConfig implements WebMvcConfigurer {
+
+        @Autowired
+        private AsyncTaskExecutor applicationTaskExecutor;
+
+        @Override
+        public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+            configurer.setTaskExecutor(applicationTaskExecutor);
+        }
+
+        @Bean
+        DispatcherServlet dispatcherServlet() {
+            return new DispatcherServlet();
+        }
+
+        @Bean
+        DispatcherServletRegistrationBean dispatcherServletRegistration(DispatcherServlet dispatcherServlet) {
+            return new DispatcherServletRegistrationBean(dispatcherServlet, "/");
+        }
+    }
+
+    // 记录首个分块和结束的时刻，响应体按 UTF-8 拼接
+    private static final class TimedBody implements Flow.Subscriber<List<ByteBuffer>> {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CompletableFuture<Timing> timing = new CompletableFuture<>();
+        private long first;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                if (!buffer.hasRemaining()) continue;
+                if (first == 0) first = System.nanoTime();
+                byte[] chunk = new byte[buffer.remaining()];
+                buffer.get(chunk);
+                bytes.writeBytes(chunk);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            timing.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            timing.complete(new Timing(first, System.nanoTime(), bytes.toString(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private record Timing(long firstNanos, long endNanos, String body) {
+    }
+
+    private record Result(long wallMs, long ttftP50Ms, long ttftP95Ms, long totalP50Ms, long totalP95Ms,
+                          int peakStreams) {
+    }
+}
@@ -0,0 +1,118 @@
+package com.itheima.ai.embedding;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DiskEmbeddingCacheTest {
+
+    private static final int DIMENSIONS = 8;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void entriesSurviveReopen() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            cache.put(key(1), vector(1));
+            cache.put(key(2), vector(2));
+        }
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.size()).isEqualTo(2);
+            assertThat(cache.get(key(2))).containsExactly(vector(2));
+            assertThat(cache.get(key(3))).isNull();
+        }
+    }
+
+    @Test
+    void zeroFilledTailIsTruncated() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            cache.put(key(1), vector(1));
+        }
+        long validSize = Files.size(file);
+
+        // 断电后文件长度已更新、数据块还是零：记录头写进去了，CRC 和向量是零
+        ByteBuffer torn = ByteBuffer.allocate(32 + 4 + 4 + DIMENSIONS * Float.BYTES);
+        torn.put(key(2)).putInt(DIMENSIONS);
+        append(file, torn.array());
+
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.size()).isEqualTo(1);
+            assertThat(cache.get(key(2))).isNull();
+            cache.put(key(3), vector(3));
+        }
+        assertThat(Files.size(file)).isEqualTo(validSize * 2 - 8);
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.get(key(3))).containsExactly(vector(3));
+        }
+    }
+
+    @Test
+    void corruptRecordTruncatesTheRest() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            cache.put(key(1), vector(1));
+            cache.put(key(2), vector(2));
+            cache.put(key(3), vector(3));
+        }
+        int recordBytes = 32 + 4 + 4 + DIMENSIONS * Float.BYTES;
+        byte[] bytes = Files.readAllBytes(file);
+        // 第二条记录的向量中翻转一个字节
+        bytes[8 + recordBytes + 40 + 3] ^= 0x40;
+        Files.write(file, bytes);
+
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.size()).isEqualTo(1);
+            assertThat(cache.get(key(1))).containsExactly(vector(1));
+        }
+        assertThat(Files.size(file)).isEqualTo(8 + recordBytes);
+    }
+
+    @Test
+    void legacyFileWithoutHeaderIsDiscarded() throws IOException {
+        Path file = dir.resolve("embeddings.bin");
+        // 旧格式：[key][dim][float * dim]，没有文件头和 CRC
+        ByteBuffer legacy = ByteBuffer.allocate(32 + 4 + DIMENSIONS * Float.BYTES);
+        legacy.put(key(1)).putInt(DIMENSIONS);
+        Files.write(file, legacy.array());
+
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.size()).isZero();
+            cache.put(key(1), vector(1));
+        }
+        try (DiskEmbeddingCache cache = new DiskEmbeddingCache(file)) {
+            assertThat(cache.get(key(1))).containsExactly(vector(1));
+        }
+    }
+
+    private static void append(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private static byte[] key(int n) {
+        byte[] key = new byte[32];
+        Arrays.fill(key, (byte) n);
+        return key;
+    }
+
+    private static float[] vector(int n) {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            v[i] = n + i * 0.25f;
+        }
+        return v;
+    }
+}
@@ -0,0 +1,237 @@
+package com.itheima.ai.journal;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 崩溃恢复：进程在任意时刻被杀后，重启得到的状态 = 已提交快照 + 快照之后写盘的日志，每条记录恰好一次
+ * 崩溃通过丢弃实例模拟（停掉后台线程、关闭段文件，不调用 close 做最后一次快照）
+ */
+class WriteAheadLogTest {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path dir;
+
+    private final List<Journal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() throws IOException {
+        for (Journal journal : opened) {
+            journal.wal.close();
+        }
+    }
+
+    @Test
+    void snapshotPlusTailReplayedAfterCrash() throws IOException {
+        Journal journal = open();
+        journal.append("r1", "r2");
+        journal.wal.checkpoint();
+        journal.append("r3");
+        journal.crash();
+
+        assertThat(open().state).containsExactly("r1", "r2", "r3");
+    }
+
+    @Test
+    void tornTailIsTruncatedMidFrame() throws IOException {
+        Journal journal = open();
+        journal.append("r1", "r2", "r3");
+        journal.crash();
+        Path segment = lastSegment();
+        long size = Files.size(segment);
+        // 最后一条记录只写了一半
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3);
+        }
+
+        Journal reopened = open();
+        assertThat(reopened.state).containsExactly("r1", "r2");
+        assertThat(Files.size(segment)).isLessThan(size - 3);
+
+        reopened.append("r4");
+        reopened.crash();
+        assertThat(open().state).containsExactly("r1", "r2", "r4");
+    }
+
+    @Test
+    void tornHeaderIsTruncated() throws IOException {
+        Journal journal = open();
+        journal.append("r1");
+        journal.crash();
+        // 只写进去半个记录头
+        appendBytes(lastSegment(), new byte[]{0, 0, 0});
+
+        assertThat(open().state).containsExactly("r1");
+    }
+
+    @Test
+    void corruptedTailRecordIsDropped() throws IOException {
+        Journal journal = open();
+        journal.append("r1", "r2", "r3");
+        journal.crash();
+        Path segment = lastSegment();
+        // 长度完整但内容损坏（断电后数据块是旧内容），CRC 不匹配
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{'x'}), Files.size(segment) - 2);
+        }
+
+        assertThat(open().state).containsExactly("r1", "r2");
+    }
+
+    @Test
+    void crashBetweenSnapshotTmpAndMarkerReplaysPreviousSnapshotAndLog() throws IOException {
+        Journal journal = open();
+        journal.append("r1", "r2");
+        journal.wal.checkpoint();
+        journal.append("r3", "r4");
+        // checkpoint 文件写不进去：快照 tmp 已写好，提交点之前中断
+        Path blocker = Files.createDirectory(dir.resolve("checkpoint.tmp"));
+        journal.wal.checkpoint();
+        journal.append("r5");
+        journal.crash();
+        Files.delete(blocker);
+        assertThat(tmpFiles()).hasSize(1);
+
+        Journal reopened = open();
+        assertThat(reopened.state).containsExactly("r1", "r2", "r3", "r4", "r5");
+
+        // 之后的快照正常提交，再次重启不会重复
+        reopened.wal.checkpoint();
+        reopened.append("r6");
+        reopened.crash();
+        assertThat(open().state).containsExactly("r1", "r2", "r3", "r4", "r5", "r6");
+    }
+
+    @Test
+    void crashBetweenMarkerAndRenameRollsSnapshotForward() throws IOException {
+        Journal journal = open();
+        journal.append("r1", "r2");
+        journal.wal.checkpoint();
+        journal.append("r3", "r4");
+        journal.flush();
+        Path backup = Files.createDirectory(dir.resolve("backup"));
+        copyFiles(dir, backup);
+
+        journal.wal.checkpoint();
+        journal.append("r5");
+        journal.crash();
+
+        // 还原成“checkpoint 已原子替换，快照还是 tmp、旧日志段还没删”时的磁盘状态
+        long coveredSeq = Long.parseLong(Files.readAllLines(dir.resolve("checkpoint")).get(0).trim());
+        Files.move(snapshot(), dir.resolve("state.json." + coveredSeq + ".tmp"));
+        copyFiles(backup, dir);
+        assertThat(readSnapshot()).containsExactly("r1", "r2");
+
+        Journal reopened = open();
+        assertThat(reopened.state).containsExactly("r1", "r2", "r3", "r4", "r5");
+        assertThat(tmpFiles()).isEmpty();
+        assertThat(readSnapshot()).containsExactly("r1", "r2", "r3", "r4");
+    }
+
+    // ----------------- helpers -----------------
+
+    private Journal open() throws IOException {
+        Journal journal = new Journal();
+        if (Files.exists(snapshot())) {
+            journal.state.addAll(readSnapshot());
+        }
+        journal.wal.replay(String.class, journal.state::add);
+        journal.wal.start();
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path snapshot() {
+        return dir.resolve("state.json");
+    }
+
+    private List<String> readSnapshot() throws IOException {
+        return OBJECT_MAPPER.readValue(snapshot().toFile(), new TypeReference<>() {});
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-"))
+                    .filter(p -> p.toFile().length() > 0)
+                    .max((a, b) -> Long.compare(seqOf(a), seqOf(b)))
+                    .orElseThrow();
+        }
+    }
+
+    private static long seqOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring("wal-".length(), name.length() - ".log".length()));
+    }
+
+    private List<Path> tmpFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("state.json.")).toList();
+        }
+    }
+
+    private static void copyFiles(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                if (file.getFileName().toString().startsWith("checkpoint")) continue;
+                Files.copy(file, to.resolve(file.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private static void appendBytes(Path file, byte[] bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    private final class Journal {
+
+        final List<String> state = new ArrayList<>();
+        final WriteAheadLog wal;
+
+        Journal() throws IOException {
+            // 不靠后台刷盘和记录数阈值，测试里显式 flush / checkpoint
+            wal = new WriteAheadLog(dir, OBJECT_MAPPER, () -> Map.of(snapshot(), List.copyOf(state)),
+                    3_600_000L, Long.MAX_VALUE);
+        }
+
+        void append(String... records) {
+            for (String record : records) {
+                wal.append(record, () -> state.add(record));
+            }
+        }
+
+        void flush() {
+            ReflectionTestUtils.invokeMethod(wal, "flushQuietly");
+        }
+
+        // 已入队的记录写盘后直接丢弃实例，不做关闭时的快照
+        void crash() throws IOException {
+            flush();
+            ((ScheduledExecutorService) ReflectionTestUtils.getField(wal, "scheduler")).shutdownNow();
+            ((FileChannel) ReflectionTestUtils.getField(wal, "segment")).close();
+            opened.remove(this);
+        }
+    }
+}
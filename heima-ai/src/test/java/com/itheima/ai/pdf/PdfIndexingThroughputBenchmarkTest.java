@@ -0,0 +1,84 @@
+package com.itheima.ai.pdf;
+
+import com.itheima.ai.config.ExecutionMode;
+import com.itheima.ai.embedding.TokenAndCountBatchingStrategy;
+import com.itheima.ai.search.HybridRetriever;
+import com.itheima.ai.support.StubEmbeddingModel;
+import com.itheima.ai.vectorstore.PartitionedVectorStore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * PDF 入库吞吐：embedding 模型用每次调用固定耗时 100 ms 的桩，对比分批大小和并发批次数
+ * 吞吐主要取决于远程调用次数和并发，不受本机 CPU 影响；每种配置打印 chunk/s 和实际调用次数
+ */
+@Tag("benchmark")
+class PdfIndexingThroughputBenchmarkTest {
+
+    private static final int DIMENSIONS = 256;
+    private static final long LATENCY_MS = 100;
+    private static final int PARAGRAPHS = 400;
+
+    @Test
+    void batchingAndConcurrency() {
+        String text = document();
+        double sequential = 0;
+        for (int[] config : new int[][]{{1, 1}, {10, 1}, {10, 2}, {10, 4}, {10, 8}}) {
+            int batchSize = config[0], concurrency = config[1];
+            StubEmbeddingModel embeddingModel = new StubEmbeddingModel(DIMENSIONS, LATENCY_MS);
+            PdfRagService service = service(embeddingModel, batchSize, concurrency);
+
+            long start = System.nanoTime();
+            service.indexPdf("bench", "bench.pdf", text, 0L);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int chunks = embeddingModel.texts();
+            double throughput = chunks / seconds;
+            System.out.printf("batch=%-3d concurrency=%-2d chunks=%d calls=%d maxInFlight=%d time=%.2f s throughput=%.1f chunks/s%n",
+                    batchSize, concurrency, chunks, embeddingModel.calls(), embeddingModel.maxInFlight(), seconds, throughput);
+            ReflectionTestUtils.invokeMethod(service, "shutdown");
+
+            if (batchSize == 1) sequential = throughput;
+            if (batchSize == 10 && concurrency == 4) {
+                assertThat(embeddingModel.maxInFlight()).isLessThanOrEqualTo(4);
+                assertThat(throughput).isGreaterThan(sequential * 10);
+            }
+        }
+    }
+
+    private static PdfRagService service(StubEmbeddingModel embeddingModel, int batchSize, int concurrency) {
+        BatchingStrategy batching = new TokenAndCountBatchingStrategy(batchSize, 8191);
+        PartitionedVectorStore vectorStore = PartitionedVectorStore.builder(embeddingModel)
+                .batchingStrategy(batching)
+                .build();
+        ExecutionMode executionMode = new ExecutionMode();
+        ReflectionTestUtils.invokeMethod(executionMode, "init");
+
+        PdfRagService service = new PdfRagService(vectorStore, embeddingModel, batching,
+                mock(PdfAssetRepository.class), mock(HybridRetriever.class), executionMode);
+        ReflectionTestUtils.setField(service, "concurrency", concurrency);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "backoffMs", 100L);
+        ReflectionTestUtils.setField(service, "chunkMaxTokens", 200);
+        ReflectionTestUtils.setField(service, "chunkMinTokens", 100);
+        ReflectionTestUtils.invokeMethod(service, "init");
+        return service;
+    }
+
+    // 每段约 150 token，chunk 上限 200 token，即每段一个 chunk
+    private static String document() {
+        StringBuilder sb = new StringBuilder();
+        for (int p = 0; p < PARAGRAPHS; p++) {
+            for (int s = 0; s < 10; s++) {
+                sb.append("Paragraph ").append(p).append(" sentence ").append(s)
+                        .append(" describes the embedding throughput of batched requests. ");
+            }
+            sb.append("\n\n");
+        }
+        return sb.toString();
+    }
+}
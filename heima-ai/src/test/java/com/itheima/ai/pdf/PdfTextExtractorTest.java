@@ -0,0 +1,108 @@
+package com.itheima.ai.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class PdfTextExtractorTest {
+
+    private static final int PAGES = 64;
+
+    @TempDir
+    Path dir;
+
+    private PdfTextExtractor extractor;
+    private Path pdf;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        extractor = new PdfTextExtractor();
+        ReflectionTestUtils.setField(extractor, "workers", 4);
+        ReflectionTestUtils.setField(extractor, "scratchThresholdMb", 16L);
+        ReflectionTestUtils.setField(extractor, "maxMainMemoryMb", 8L);
+        ReflectionTestUtils.invokeMethod(extractor, "init");
+
+        pdf = dir.resolve("pages.pdf");
+        try (PDDocument doc = new PDDocument()) {
+            for (int i = 1; i <= PAGES; i++) {
+                PDPage page = new PDPage();
+                doc.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(doc, page)) {
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText("page " + i);
+                    content.endText();
+                }
+            }
+            doc.save(pdf.toFile());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(extractor, "shutdown");
+    }
+
+    @Test
+    void runtimeExceptionOnOnePageYieldsEmptyPageAndKeepsOrder() throws Exception {
+        failOnPage(7, () -> new IllegalStateException("malformed page"));
+        List<String> texts = new ArrayList<>();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                extractor.extract(pdf, (page, total, text) -> {
+                    assertThat(page).isEqualTo(texts.size() + 1);
+                    texts.add(text.strip());
+                }, () -> false));
+
+        assertThat(texts).hasSize(PAGES);
+        assertThat(texts.get(6)).isEmpty();
+        assertThat(texts.get(5)).isEqualTo("page 6");
+        assertThat(texts.get(PAGES - 1)).isEqualTo("page " + PAGES);
+    }
+
+    @Test
+    void workerFailureFailsExtractionInsteadOfHanging() {
+        // Error 不按单页失败处理：该 worker 退出，其余 worker 不能卡在窗口上
+        failOnPage(3, () -> new StackOverflowError("deeply nested content"));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Exception e = assertThrows(Exception.class, () -> extractor.extract(pdf, (page, total, text) -> {
+            }, () -> false));
+            assertThat(e).hasRootCauseInstanceOf(StackOverflowError.class);
+        });
+    }
+
+    private void failOnPage(int failingPage, Supplier<Throwable> failure) {
+        PdfTextExtractor.StripperFactory factory = () -> new PDFTextStripper() {
+            @Override
+            public String getText(PDDocument doc) throws IOException {
+                if (getStartPage() == failingPage) {
+                    Throwable t = failure.get();
+                    if (t instanceof RuntimeException re) throw re;
+                    throw (Error) t;
+                }
+                return super.getText(doc);
+            }
+        };
+        ReflectionTestUtils.setField(extractor, "stripperFactory", factory);
+    }
+}
@@ -0,0 +1,151 @@
+package com.itheima.ai.pdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.config.ExecutionMode;
+import com.itheima.ai.embedding.TokenAndCountBatchingStrategy;
+import com.itheima.ai.prompt.ContextPacker;
+import com.itheima.ai.search.CjkTokenizer;
+import com.itheima.ai.search.HybridRetriever;
+import com.itheima.ai.vectorstore.PartitionedVectorStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.*;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 用仓库里的固定 PDF 和用例评测 PDF 检索（src/test/resources/retrieval-eval）
+ * - fixture.pdf：24 个章节，每节含一条“监测编号 + 首次调查年份”和一条“站长”事实，其余为相似的填充句
+ * - cases.json：单证据和跨章节双证据问题，证据为答案所在的原文句子
+ * 走与上传相同的链路：PdfTextExtractor 按页抽取 -> Indexer 切分、embedding、入库 -> 混合检索；切分和检索参数与 application.yaml 默认值一致
+ * embedding 用按词哈希的词袋向量（同词的问题和片段相似度高），不访问网络，结果可复现
+ * 打印各模式的 recall@K、命中率、平均片段数和上下文 token 数
+ */
+class RetrievalEvaluationTest {
+
+    private static final String CHAT_ID = "retrieval-eval";
+    private static final int DIMENSIONS = 512;
+
+    private ExecutionMode executionMode;
+    private HybridRetriever hybridRetriever;
+    private PdfRagService pdfRagService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        EmbeddingModel embeddingModel = new BagOfWordsEmbeddingModel();
+        TokenAndCountBatchingStrategy batching = new TokenAndCountBatchingStrategy(10, 8191);
+        PartitionedVectorStore vectorStore = PartitionedVectorStore.builder(embeddingModel)
+                .batchingStrategy(batching)
+                .build();
+        executionMode = new ExecutionMode();
+        ReflectionTestUtils.invokeMethod(executionMode, "init");
+        hybridRetriever = new HybridRetriever(executionMode);
+        ReflectionTestUtils.setField(hybridRetriever, "rrfK", 60);
+        ReflectionTestUtils.setField(hybridRetriever, "candidates", 20);
+        ReflectionTestUtils.setField(hybridRetriever, "workers", 4);
+        ReflectionTestUtils.invokeMethod(hybridRetriever, "init");
+
+        pdfRagService = new PdfRagService(vectorStore, embeddingModel, batching,
+                mock(PdfAssetRepository.class), hybridRetriever, executionMode);
+        ReflectionTestUtils.setField(pdfRagService, "concurrency", 2);
+        ReflectionTestUtils.setField(pdfRagService, "maxAttempts", 1);
+        ReflectionTestUtils.setField(pdfRagService, "chunkMaxTokens", 800);
+        ReflectionTestUtils.setField(pdfRagService, "chunkMinTokens", 400);
+        ReflectionTestUtils.setField(pdfRagService, "minK", 1);
+        ReflectionTestUtils.setField(pdfRagService, "maxK", 4);
+        ReflectionTestUtils.setField(pdfRagService, "similarityThreshold", 0.3);
+        ReflectionTestUtils.setField(pdfRagService, "maxGap", 0.1);
+        ReflectionTestUtils.setField(pdfRagService, "neighbors", 1);
+        ReflectionTestUtils.invokeMethod(pdfRagService, "init");
+
+        PdfTextExtractor extractor = new PdfTextExtractor();
+        ReflectionTestUtils.setField(extractor, "workers", 2);
+        ReflectionTestUtils.setField(extractor, "scratchThresholdMb", 16L);
+        ReflectionTestUtils.setField(extractor, "maxMainMemoryMb", 8L);
+        ReflectionTestUtils.invokeMethod(extractor, "init");
+        try (PdfRagService.Indexer indexer = pdfRagService.openIndexer(CHAT_ID, "fixture.pdf", 0L, null)) {
+            Path pdf = new ClassPathResource("retrieval-eval/fixture.pdf").getFile().toPath();
+            extractor.extract(pdf, (page, totalPages, text) -> indexer.appendPage(page, text), () -> false);
+            indexer.finish();
+        } finally {
+            ReflectionTestUtils.invokeMethod(extractor, "shutdown");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(pdfRagService, "shutdown");
+        ReflectionTestUtils.invokeMethod(hybridRetriever, "shutdown");
+        ReflectionTestUtils.invokeMethod(executionMode, "shutdown");
+    }
+
+    @Test
+    void recallAndContextSizeOnFixture() throws Exception {
+        RetrievalEvaluator.Request request;
+        try (InputStream in = new ClassPathResource("retrieval-eval/cases.json").getInputStream()) {
+            request = new ObjectMapper().readValue(in, RetrievalEvaluator.Request.class);
+        }
+        RetrievalEvaluator evaluator = new RetrievalEvaluator(pdfRagService, new ContextPacker(new InMemoryChatMemory()));
+
+        RetrievalEvaluator.Report report = evaluator.evaluate(CHAT_ID, request);
+
+        System.out.printf("%-10s %8s %8s %8s %14s %10s%n", "mode", "recall", "hitRate", "chunks", "contextTokens", "ms");
+        report.modes().forEach((mode, r) -> System.out.printf("%-10s %8.3f %8.3f %8.2f %14.1f %10.2f%n",
+                mode, r.recall(), r.hitRate(), r.chunks(), r.contextTokens(), r.millis()));
+
+        assertThat(report.cases()).isEqualTo(request.cases().size());
+        RetrievalEvaluator.ModeResult top1 = report.modes().get("top1");
+        RetrievalEvaluator.ModeResult top6 = report.modes().get("top6");
+        RetrievalEvaluator.ModeResult adaptive = report.modes().get("adaptive");
+        // 召回随 K 单调不降，上下文随 K 增长
+        assertThat(top6.recall()).isGreaterThanOrEqualTo(top1.recall());
+        assertThat(top6.contextTokens()).isGreaterThan(top1.contextTokens());
+        // 回归基线：单证据问题的答案句都应能被检索到，自适应检索不比固定 top2 差
+        assertThat(top6.recall()).isGreaterThanOrEqualTo(0.9);
+        assertThat(adaptive.recall()).isGreaterThanOrEqualTo(report.modes().get("top2").recall());
+    }
+
+    /**
+     * 词袋向量：每个词（与 BM25 同一分词器）哈希到一个维度，计数后由向量库归一化
+     */
+    private static final class BagOfWordsEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vector(text), embeddings.size()));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        private static float[] vector(String text) {
+            float[] v = new float[DIMENSIONS];
+            for (String token : CjkTokenizer.tokenize(text)) {
+                v[Math.floorMod(token.hashCode(), DIMENSIONS)] += 1;
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.itheima.ai.pdf;
+
+import com.itheima.ai.prompt.ContextPacker;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * 检索离线评测：对已入库的 PDF 跑一组问题，比较固定 topK 与自适应检索（只在测试中使用，见 RetrievalEvaluationTest）
+ * - 每个问题给出若干证据短语（答案所在的原文），检索结果的正文包含该短语即算召回；比较时忽略空白，
+ *   不依赖 chunkIndex，换了切分方式同一份用例仍然可用
+ * - recall 为每题召回的证据比例的平均值；hitRate 为证据全部召回的题目比例；contextTokens 为每题检索结果的平均 token 数
+ */
+@Slf4j
+@RequiredArgsConstructor
+class RetrievalEvaluator {
+
+    private final PdfRagService pdfRagService;
+    private final ContextPacker contextPacker;
+
+    /**
+     * @param chatId 已入库的 PDF
+     */
+    Report evaluate(String chatId, Request request) {
+        List<Case> cases = request.cases() == null ? List.of() : request.cases();
+        List<Integer> ks = request.k() == null || request.k().isEmpty() ? List.of(2) : request.k();
+
+        Map<String, Function<Case, List<Document>>> modes = new LinkedHashMap<>();
+        for (int k : ks) {
+            modes.put("top" + k, c -> pdfRagService.retrieveTopK(chatId, c.question(), k));
+        }
+        modes.put("adaptive", c -> pdfRagService.retrieveAdaptive(chatId, c.question()));
+
+        Map<String, ModeResult> results = new LinkedHashMap<>();
+        modes.forEach((name, retrieval) -> {
+            ModeResult result = run(cases, retrieval);
+            results.put(name, result);
+            log.info("Retrieval eval {}: recall={} hitRate={} chunks={} contextTokens={} latency={} ms over {} cases",
+                    name, result.recall(), result.hitRate(), result.chunks(), result.contextTokens(),
+                    result.millis(), cases.size());
+        });
+        return new Report(cases.size(), results);
+    }
+
+    private ModeResult run(List<Case> cases, Function<Case, List<Document>> retrieval) {
+        double recall = 0, chunks = 0, tokens = 0, millis = 0;
+        int hits = 0;
+        for (Case c : cases) {
+            long start = System.nanoTime();
+            List<Document> docs = retrieval.apply(c);
+            millis += (System.nanoTime() - start) / 1e6;
+
+            List<String> texts = docs.stream().map(d -> normalize(d.getText())).toList();
+            List<String> evidence = c.evidence() == null ? List.of() : c.evidence();
+            long found = evidence.stream()
+                    .map(RetrievalEvaluator::normalize)
+                    .filter(e -> texts.stream().anyMatch(t -> t.contains(e)))
+                    .count();
+            recall += evidence.isEmpty() ? 1 : (double) found / evidence.size();
+            if (found == evidence.size()) hits++;
+            chunks += docs.size();
+            tokens += docs.stream().mapToInt(d -> contextPacker.count(d.getText())).sum();
+        }
+        int n = Math.max(cases.size(), 1);
+        return new ModeResult(round(recall / n), round((double) hits / n), round(chunks / n),
+                round(tokens / n), round(millis / n));
+    }
+
+    // PDF 抽取的文本换行、空格位置不固定，比较前去掉所有空白
+    private static String normalize(String text) {
+        return text == null ? "" : text.replaceAll("\\s+", "");
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+
+    /**
+     * @param k     要对比的固定 topK，默认 [2]
+     * @param cases 评测用例
+     */
+    record Request(List<Integer> k, List<Case> cases) {}
+
+    /**
+     * @param evidence 答案所在的原文短语
+     */
+    record Case(String question, List<String> evidence) {}
+
+    record ModeResult(double recall, double hitRate, double chunks, double contextTokens, double millis) {}
+
+    record Report(int cases, Map<String, ModeResult> modes) {}
+}
@@ -0,0 +1,163 @@
+package com.itheima.ai.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.journal.WriteAheadLog;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JournaledChatMemoryTest {
+
+    private static final long HOUR_MS = 3_600_000L;
+
+    @TempDir
+    Path dir;
+
+    private final List<JournaledChatMemory> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeMemories() throws IOException {
+        for (JournaledChatMemory memory : opened) {
+            memory.close();
+        }
+    }
+
+    @Test
+    void keepsOnlyLatestMessagesPerConversation() throws IOException {
+        JournaledChatMemory memory = open();
+        memory.add("c1", List.of(new UserMessage("q1"), new AssistantMessage("a1")));
+        memory.add("c1", List.of(new UserMessage("q2"), new AssistantMessage("a2")));
+
+        assertThat(texts(memory, "c1")).containsExactly("a1", "q2", "a2");
+        assertThat(texts(memory.get("c1", 2))).containsExactly("q2", "a2");
+    }
+
+    @Test
+    void reactivatedConversationIsNotDuplicatedAfterCheckpointAndReopen() throws IOException {
+        JournaledChatMemory memory = open();
+        memory.add("c1", List.of(new UserMessage("q1")));
+        memory.add("c2", List.of(new UserMessage("other")));
+        evict(memory, "c1");
+        assertThat(Files.exists(spillFile("c1"))).isTrue();
+
+        // 再次使用后写进 chat-memory.json，spill 文件随之删除
+        memory.add("c1", List.of(new AssistantMessage("a1")));
+        journal(memory).checkpoint();
+        assertThat(Files.exists(spillFile("c1"))).isFalse();
+        close(memory);
+
+        JournaledChatMemory reopened = open();
+        assertThat(texts(reopened, "c1")).containsExactly("q1", "a1");
+        assertThat(texts(reopened, "c2")).containsExactly("other");
+    }
+
+    @Test
+    void staleSpillFileLeftByCrashIsIgnoredOnReopen() throws IOException {
+        JournaledChatMemory memory = open();
+        memory.add("c1", List.of(new UserMessage("q1")));
+        evict(memory, "c1");
+        byte[] spilled = Files.readAllBytes(spillFile("c1"));
+
+        memory.add("c1", List.of(new AssistantMessage("a1")));
+        journal(memory).checkpoint();
+        close(memory);
+        // chat-memory.json 已提交、删除 spill 文件之前崩溃
+        Files.write(spillFile("c1"), spilled);
+
+        JournaledChatMemory reopened = open();
+        assertThat(texts(reopened, "c1")).containsExactly("q1", "a1");
+        assertThat(Files.exists(spillFile("c1"))).isFalse();
+    }
+
+    @Test
+    void logTailReplaysOntoSpilledConversation() throws IOException {
+        JournaledChatMemory memory = open();
+        memory.add("c1", List.of(new UserMessage("q1")));
+        evict(memory, "c1");
+        memory.add("c1", List.of(new AssistantMessage("a1")));
+        crash(memory);
+
+        JournaledChatMemory reopened = open();
+        assertThat(texts(reopened, "c1")).containsExactly("q1", "a1");
+
+        // 重启后再做一次快照并重开，仍然只有一份
+        journal(reopened).checkpoint();
+        close(reopened);
+        assertThat(texts(open(), "c1")).containsExactly("q1", "a1");
+    }
+
+    @Test
+    void clearRemovesSpilledConversation() throws IOException {
+        JournaledChatMemory memory = open();
+        memory.add("c1", List.of(new UserMessage("q1")));
+        evict(memory, "c1");
+
+        memory.clear("c1");
+        close(memory);
+
+        assertThat(Files.exists(spillFile("c1"))).isFalse();
+        assertThat(open().get("c1", 10)).isEmpty();
+    }
+
+    // ----------------- helpers -----------------
+
+    private JournaledChatMemory open() throws IOException {
+        JournaledChatMemory memory = new JournaledChatMemory(new ObjectMapper(), dir.resolve("chat-memory.json"),
+                dir.resolve("journal"), HOUR_MS, Long.MAX_VALUE, dir.resolve("spill"), 3, HOUR_MS, Long.MAX_VALUE);
+        opened.add(memory);
+        return memory;
+    }
+
+    private void close(JournaledChatMemory memory) throws IOException {
+        opened.remove(memory);
+        memory.close();
+    }
+
+    // 把会话标记为早已空闲，下一次快照即被淘汰到 spill 目录
+    private static void evict(JournaledChatMemory memory, String chatId) {
+        Map<?, ?> conversations = (Map<?, ?>) ReflectionTestUtils.getField(memory, "conversations");
+        ReflectionTestUtils.setField(conversations.get(chatId), "lastAccess", 0L);
+        journal(memory).checkpoint();
+        assertThat(conversations.containsKey(chatId)).isFalse();
+    }
+
+    // 日志写盘后直接丢弃实例，不做关闭时的快照
+    private void crash(JournaledChatMemory memory) throws IOException {
+        WriteAheadLog journal = journal(memory);
+        ReflectionTestUtils.invokeMethod(journal, "flushQuietly");
+        ((ScheduledExecutorService) ReflectionTestUtils.getField(journal, "scheduler")).shutdownNow();
+        ((FileChannel) ReflectionTestUtils.getField(journal, "segment")).close();
+        opened.remove(memory);
+    }
+
+    private static WriteAheadLog journal(JournaledChatMemory memory) {
+        return (WriteAheadLog) ReflectionTestUtils.getField(memory, "journal");
+    }
+
+    private Path spillFile(String chatId) {
+        return dir.resolve("spill").resolve(chatId + ".json");
+    }
+
+    private static List<String> texts(JournaledChatMemory memory, String chatId) {
+        return texts(memory.get(chatId, Integer.MAX_VALUE));
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+}
@@ -0,0 +1,89 @@
+package com.itheima.ai.repository;
+
+import com.itheima.ai.support.EmbeddedRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在本地 redis-server 上执行 ZSET 读写和旧 SET 的迁移脚本
+ */
+class RedisChatHistoryTest {
+
+    private final StringRedisTemplate template = EmbeddedRedis.template();
+
+    private RedisChatHistory history;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        history = new RedisChatHistory(template);
+    }
+
+    @Test
+    void pagesByMostRecentActivity() throws InterruptedException {
+        for (String chatId : List.of("c1", "c2", "c3", "c4")) {
+            history.save("chat", chatId);
+            Thread.sleep(2);
+        }
+        history.save("chat", "c2");
+
+        assertEquals(List.of("c2", "c4", "c3", "c1"), history.getChatIds("chat", 0, Integer.MAX_VALUE));
+        assertEquals(List.of("c4", "c3"), history.getChatIds("chat", 1, 2));
+        assertEquals(List.of(), history.getChatIds("chat", 4, 2));
+        assertEquals(List.of(), history.getChatIds("chat", 0, 0));
+    }
+
+    @Test
+    void legacySetMembersAreKeptAfterRecentChats() {
+        template.opsForSet().add("chat:history:chat", "old1", "old2");
+
+        history.save("chat", "new1");
+        history.save("chat", "old1");
+
+        // 迁移来的成员 score 为 0，同分按成员倒序
+        assertEquals(List.of("old1", "new1", "old2"), history.getChatIds("chat", 0, Integer.MAX_VALUE));
+        assertFalse(template.hasKey("chat:history:chat"));
+        assertEquals(0d, template.opsForZSet().score("chat:history:recent:chat", "old2"));
+    }
+
+    @Test
+    void migrationDoesNotOverwriteExistingActivity() {
+        history.save("pdf", "p1");
+        Double active = template.opsForZSet().score("chat:history:recent:pdf", "p1");
+        // 另一个旧版本实例在迁移之后又写了旧 SET
+        template.opsForSet().add("chat:history:pdf", "p1", "p0");
+
+        new RedisChatHistory(template).getChatIds("pdf", 0, 10);
+
+        assertEquals(active, template.opsForZSet().score("chat:history:recent:pdf", "p1"));
+        assertEquals(List.of("p1", "p0"), history.getChatIds("pdf", 0, 10));
+    }
+
+    @Test
+    void migratesOncePerTypePerProcess() {
+        template.opsForSet().add("chat:history:pdf", "p1");
+
+        assertEquals(List.of("p1"), history.getChatIds("pdf", 0, 10));
+        // 同一进程内不再执行迁移脚本，之后出现的旧 SET 保持原样
+        template.opsForSet().add("chat:history:pdf", "late");
+        history.save("pdf", "p2");
+
+        assertEquals(List.of("p2", "p1"), history.getChatIds("pdf", 0, 10));
+        assertTrue(template.hasKey("chat:history:pdf"));
+    }
+
+    @Test
+    void ignoresLegacyKeyThatIsNotASet() {
+        template.opsForValue().set("chat:history:service", "not-a-set");
+
+        history.save("service", "s1");
+
+        assertEquals(List.of("s1"), history.getChatIds("service", 0, 10));
+        assertEquals("not-a-set", template.opsForValue().get("chat:history:service"));
+    }
+}
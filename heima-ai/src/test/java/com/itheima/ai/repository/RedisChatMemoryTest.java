@@ -0,0 +1,203 @@
+package com.itheima.ai.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.itheima.ai.entity.po.Msg;
+import com.itheima.ai.support.EmbeddedRedis;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 在本地 redis-server 上执行 APPEND_SCRIPT / MIGRATE_SCRIPT，验证顺序、截断、迁移，并打印单次调用延迟
+ */
+class RedisChatMemoryTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StringRedisTemplate template = EmbeddedRedis.template();
+
+    private RedisChatMemory memory;
+
+    @BeforeEach
+    void setUp() {
+        EmbeddedRedis.flushAll();
+        memory = new RedisChatMemory(template, objectMapper, 5, Duration.ZERO);
+    }
+
+    @Test
+    void returnsLastMessagesInChronologicalOrder() {
+        memory.add("c1", List.of(user("q1"), assistant("a1")));
+        memory.add("c1", List.of(user("q2"), assistant("a2")));
+        memory.add("c1", List.of(user("q3")));
+
+        assertEquals(List.of("q1", "a1", "q2", "a2", "q3"), texts(memory.get("c1", 10)));
+        assertEquals(List.of("a2", "q3"), texts(memory.get("c1", 2)));
+        assertEquals(List.of(), memory.get("c1", 0));
+    }
+
+    @Test
+    void trimsOldestBeyondMaxMessages() {
+        for (int i = 1; i <= 8; i++) {
+            memory.add("c1", List.of(user("m" + i)));
+        }
+        // 一次追加超过上限的多条消息也只保留最后 5 条
+        memory.add("c2", List.of(user("x1"), user("x2"), user("x3"), user("x4"), user("x5"), user("x6"), user("x7")));
+
+        assertEquals(5L, template.opsForList().size("chat:list:c1"));
+        assertEquals(List.of("m4", "m5", "m6", "m7", "m8"), texts(memory.get("c1", 10)));
+        assertEquals(List.of("x3", "x4", "x5", "x6", "x7"), texts(memory.get("c2", 10)));
+    }
+
+    @Test
+    void refreshesTtlOnAppend() {
+        RedisChatMemory expiring = new RedisChatMemory(template, objectMapper, 5, Duration.ofMinutes(10));
+        expiring.add("c1", List.of(user("q1")));
+
+        Long ttlMs = template.getExpire("chat:list:c1", TimeUnit.MILLISECONDS);
+        assertTrue(ttlMs > 0 && ttlMs <= Duration.ofMinutes(10).toMillis(), "ttl=" + ttlMs);
+        memory.add("c2", List.of(user("q1")));
+        assertEquals(-1L, template.getExpire("chat:list:c2"));
+    }
+
+    @Test
+    void concurrentAppendsStayContiguousAndOrdered() throws Exception {
+        RedisChatMemory large = new RedisChatMemory(template, objectMapper, 10_000, Duration.ZERO);
+        int threads = 8, rounds = 50;
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < rounds; i++) {
+                    large.add("c1", List.of(user(id + ":" + i), assistant(id + ":" + i)));
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        List<String> texts = texts(large.get("c1", Integer.MAX_VALUE));
+        assertEquals(threads * rounds * 2, texts.size());
+        int[] last = new int[threads];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < texts.size(); i += 2) {
+            // 一次 add 的两条消息相邻，同一线程的追加保持先后顺序
+            assertEquals(texts.get(i), texts.get(i + 1));
+            String[] parts = texts.get(i).split(":");
+            int thread = Integer.parseInt(parts[0]), seq = Integer.parseInt(parts[1]);
+            assertEquals(last[thread] + 1, seq);
+            last[thread] = seq;
+        }
+    }
+
+    @Test
+    void migratesLegacyNewestFirstKeyOnRead() throws Exception {
+        // 旧版本 LPUSH：列表头是最新一条
+        template.opsForList().leftPushAll("chat:c1", json(user("q1")), json(assistant("a1")), json(user("q2")));
+
+        assertEquals(List.of("a1", "q2"), texts(memory.get("c1", 2)));
+        assertFalse(template.hasKey("chat:c1"));
+        assertEquals(List.of("q1", "a1", "q2"), texts(memory.get("c1", 10)));
+    }
+
+    @Test
+    void migrationTrimsLegacyListToMaxMessages() throws Exception {
+        for (int i = 1; i <= 7; i++) {
+            template.opsForList().leftPush("chat:c1", json(user("m" + i)));
+        }
+
+        assertEquals(List.of("m3", "m4", "m5", "m6", "m7"), texts(memory.get("c1", 10)));
+    }
+
+    @Test
+    void migratesLegacyKeyBeforeAppending() throws Exception {
+        template.opsForList().leftPushAll("chat:c1", json(user("q1")), json(assistant("a1")));
+
+        memory.add("c1", List.of(user("q2")));
+
+        assertFalse(template.hasKey("chat:c1"));
+        assertEquals(List.of("q1", "a1", "q2"), texts(memory.get("c1", 10)));
+    }
+
+    @Test
+    void leavesLegacyKeyAloneOnceMigrated() throws Exception {
+        memory.add("c1", List.of(user("q1")));
+        template.opsForList().leftPush("chat:c1", json(user("stale")));
+
+        assertEquals(List.of("q1"), texts(memory.get("c1", 10)));
+        memory.clear("c1");
+        assertFalse(template.hasKey("chat:list:c1"));
+        assertFalse(template.hasKey("chat:c1"));
+        assertEquals(List.of(), memory.get("c1", 10));
+    }
+
+    @Test
+    void reportsPerCallLatency() {
+        RedisChatMemory bounded = new RedisChatMemory(template, objectMapper, 200, Duration.ofMinutes(30));
+        int calls = 2_000;
+        String answer = "a".repeat(400);
+        // 预热脚本缓存和连接
+        for (int i = 0; i < 200; i++) {
+            bounded.add("warmup", List.of(user("q" + i), assistant(answer)));
+            bounded.get("warmup", 20);
+        }
+
+        long[] appendNanos = new long[calls];
+        long[] readNanos = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            bounded.add("c1", List.of(user("q" + i), assistant(answer)));
+            appendNanos[i] = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Message> tail = bounded.get("c1", 20);
+            readNanos[i] = System.nanoTime() - start;
+            assertEquals("q" + i, tail.get(tail.size() - 2).getText());
+        }
+
+        assertEquals(200L, template.opsForList().size("chat:list:c1"));
+        System.out.printf("%-12s %10s %10s %10s%n", "op", "p50 us", "p99 us", "max us");
+        print("append", appendNanos);
+        print("get(20)", readNanos);
+    }
+
+    private static void print(String op, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-12s %10d %10d %10d%n", op, sorted[sorted.length / 2] / 1000,
+                sorted[(int) (sorted.length * 0.99)] / 1000, sorted[sorted.length - 1] / 1000);
+    }
+
+    private String json(Message message) throws Exception {
+        return objectMapper.writeValueAsString(new Msg(message));
+    }
+
+    private static List<String> texts(List<Message> messages) {
+        return messages.stream().map(Message::getText).toList();
+    }
+
+    private static Message user(String text) {
+        return new UserMessage(text);
+    }
+
+    private static Message assistant(String text) {
+        return new AssistantMessage(text);
+    }
+}
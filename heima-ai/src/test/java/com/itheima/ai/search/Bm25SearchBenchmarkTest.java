@@ -0,0 +1,113 @@
+package com.itheima.ai.search;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Bm25Index 检索在 1 万 ~ 10 万文档上的延迟和每次查询的分配量
+ * 词表按 Zipf 分布抽取（少数高频词的倒排链很长），每个文档另含一个唯一词；
+ * 查询为某文档的唯一词 + 该文档中的 3 个词，要求该文档排第一
+ * 累加器复用后，每次查询的分配量（分词、堆、结果）与索引文档数和命中文档数都无关
+ */
+@Tag("benchmark")
+class Bm25SearchBenchmarkTest {
+
+    private static final int[] SIZES = {10_000, 50_000, 100_000};
+    private static final int VOCABULARY = 20_000;
+    private static final int DOC_TOKENS = 80;
+    private static final int QUERIES = 2_000;
+    private static final int WARMUP = 500;
+    private static final int TOP_K = 10;
+
+    @Test
+    void latencyAndAllocationPerQuery() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        double[] zipf = zipfCdf();
+
+        System.out.printf("%8s %10s %10s %10s %12s%n", "docs", "avg ms", "p95 ms", "postings", "bytes/query");
+        for (int size : SIZES) {
+            SplittableRandom random = new SplittableRandom(size);
+            Bm25Index index = new Bm25Index();
+            List<String[]> words = new ArrayList<>(size);
+            Map<String, Integer> docFreq = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                String[] doc = new String[DOC_TOKENS];
+                for (int t = 0; t < DOC_TOKENS; t++) {
+                    doc[t] = "w" + sample(zipf, random);
+                }
+                words.add(doc);
+                new HashSet<>(Arrays.asList(doc)).forEach(w -> docFreq.merge(w, 1, Integer::sum));
+                String text = String.join(" ", doc) + " uniq" + i;
+                index.put("doc-" + i, List.of(new Bm25Index.Field(text, 1f)));
+            }
+
+            List<Integer> targets = new ArrayList<>(QUERIES + WARMUP);
+            List<String> queries = new ArrayList<>(QUERIES + WARMUP);
+            for (int q = 0; q < QUERIES + WARMUP; q++) {
+                int target = random.nextInt(size);
+                String[] doc = words.get(target);
+                targets.add(target);
+                queries.add("uniq" + target + " " + doc[random.nextInt(DOC_TOKENS)] + " "
+                        + doc[random.nextInt(DOC_TOKENS)] + " " + doc[random.nextInt(DOC_TOKENS)]);
+            }
+            for (int q = 0; q < WARMUP; q++) {
+                index.search(queries.get(q), TOP_K);
+            }
+
+            long[] nanos = new long[QUERIES];
+            long allocated = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                String query = queries.get(WARMUP + q);
+                long bytes = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                List<Bm25Index.Hit> hits = index.search(query, TOP_K);
+                nanos[q] = System.nanoTime() - start;
+                allocated += threads.getThreadAllocatedBytes(threadId) - bytes;
+                assertThat(hits).isNotEmpty();
+                assertThat(hits.get(0).id()).isEqualTo("doc-" + targets.get(WARMUP + q));
+            }
+            Arrays.sort(nanos);
+            double avg = Arrays.stream(nanos).average().orElse(0) / 1e6;
+            double p95 = nanos[(int) (QUERIES * 0.95)] / 1e6;
+            // 查询词的倒排链总长，即命中文档数的上界
+            long touched = queries.subList(WARMUP, WARMUP + QUERIES).stream()
+                    .mapToLong(q -> postingsLength(docFreq, q)).sum() / QUERIES;
+            System.out.printf("%8d %10.3f %10.3f %10d %12d%n", size, avg, p95, touched, allocated / QUERIES);
+
+            // 旧实现每次查询分配 float[文档数]：10 万文档即 400KB
+            assertThat(allocated / QUERIES).isLessThan(32 * 1024);
+        }
+    }
+
+    private static long postingsLength(Map<String, Integer> docFreq, String query) {
+        // 唯一词只出现在一个文档中
+        return 1 + new HashSet<>(Arrays.asList(query.split(" "))).stream()
+                .mapToLong(w -> docFreq.getOrDefault(w, 0))
+                .sum();
+    }
+
+    private static double[] zipfCdf() {
+        double[] cdf = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            sum += 1.0 / (i + 1);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, SplittableRandom random) {
+        int i = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(i < 0 ? -i - 1 : i, cdf.length - 1);
+    }
+}
@@ -0,0 +1,157 @@
+package com.itheima.ai.service;
+
+import com.itheima.ai.support.StubEmbeddingModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SemanticResponseCacheTest {
+
+    private static final List<ServiceKbItem> ITEMS = List.of(
+            new ServiceKbItem("price", "价格", "Java 就业班 19800 元", new String[]{"价格"}));
+
+    private static final int DIMENSIONS = 64;
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel(DIMENSIONS);
+    private final ServiceKbRepository kbRepository = mock(ServiceKbRepository.class);
+
+    private SemanticResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new SemanticResponseCache(embeddingModel, kbRepository);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "similarityThreshold", 0.95);
+        ReflectionTestUtils.setField(cache, "maxEntries", 100);
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 60L);
+        ReflectionTestUtils.invokeMethod(cache, "init");
+    }
+
+    @Test
+    void nearDuplicatePromptHitsAboveThreshold() {
+        float[] base = axis(0);
+        embeddingModel.register("Java 就业班多少钱", base);
+        // 余弦约 0.99：同一个问题的不同说法
+        embeddingModel.register("Java就业班多少钱？", mix(base, axis(1), 0.15f));
+        // 余弦约 0.89：相近但不同的问题
+        embeddingModel.register("Java 就业班学多久", mix(base, axis(1), 0.5f));
+
+        cache.put(cache.key("Java 就业班多少钱", ITEMS, List.of()), "19800 元", 1000);
+
+        assertEquals(Optional.of("19800 元"), cache.get(cache.key("Java就业班多少钱？", ITEMS, List.of())));
+        assertEquals(Optional.empty(), cache.get(cache.key("Java 就业班学多久", ITEMS, List.of())));
+        // 检索到的知识不同，即使问题相同也不命中
+        assertEquals(Optional.empty(), cache.get(cache.key("Java 就业班多少钱", List.of(), List.of())));
+    }
+
+    @Test
+    void knowledgeBaseChangeInvalidatesEntriesAndPendingWrites() {
+        ArgumentCaptor<ServiceKbRepository.ChangeListener> listener =
+                ArgumentCaptor.forClass(ServiceKbRepository.ChangeListener.class);
+        verify(kbRepository).addChangeListener(listener.capture());
+        cache.put(cache.key("Java 就业班多少钱", ITEMS, List.of()), "19800 元", 1000);
+        // 变更前开始生成的回答
+        SemanticResponseCache.Key inFlight = cache.key("Python 班多少钱", ITEMS, List.of());
+
+        listener.getValue().onChange(ITEMS, List.of());
+        cache.put(inFlight, "旧价格", 1000);
+
+        assertEquals(Optional.empty(), cache.get(cache.key("Java 就业班多少钱", ITEMS, List.of())));
+        assertEquals(Optional.empty(), cache.get(cache.key("Python 班多少钱", ITEMS, List.of())));
+        SemanticResponseCache.Stats stats = cache.stats();
+        assertEquals(1, stats.invalidations());
+        assertEquals(0, stats.entries());
+        assertEquals(1, stats.kbVersion());
+    }
+
+    @Test
+    void expiredEntriesMissAndAreEvicted() throws InterruptedException {
+        ReflectionTestUtils.setField(cache, "ttlMinutes", 0L);
+        cache.put(cache.key("Java 就业班多少钱", ITEMS, List.of()), "19800 元", 1000);
+        Thread.sleep(5);
+
+        assertEquals(Optional.empty(), cache.get(cache.key("Java 就业班多少钱", ITEMS, List.of())));
+        // 下一次写入时清掉过期条目
+        cache.put(cache.key("Python 班多少钱", ITEMS, List.of()), "15800 元", 1000);
+        assertEquals(1, cache.stats().entries());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        cache.put(cache.key("q1", ITEMS, List.of()), "a1", 1000);
+        cache.put(cache.key("q2", ITEMS, List.of()), "a2", 1000);
+        // 命中刷新 q1 的顺序，q2 成为最久未用
+        assertEquals(Optional.of("a1"), cache.get(cache.key("q1", ITEMS, List.of())));
+
+        cache.put(cache.key("q3", ITEMS, List.of()), "a3", 1000);
+
+        assertEquals(2, cache.stats().entries());
+        assertEquals(Optional.of("a1"), cache.get(cache.key("q1", ITEMS, List.of())));
+        assertEquals(Optional.empty(), cache.get(cache.key("q2", ITEMS, List.of())));
+        assertEquals(Optional.of("a3"), cache.get(cache.key("q3", ITEMS, List.of())));
+    }
+
+    @Test
+    void statsCountHitsMissesAndSavedGenerationTime() {
+        cache.put(cache.key("q1", ITEMS, List.of()), "a1", 1500);
+
+        cache.get(cache.key("q1", ITEMS, List.of()));
+        cache.get(cache.key("q1", ITEMS, List.of()));
+        cache.get(cache.key("q2", ITEMS, List.of()));
+        cache.get(null);
+
+        SemanticResponseCache.Stats stats = cache.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(2.0 / 3, stats.hitRate(), 1e-9);
+        // 每次命中省下 生成耗时 - 查缓存耗时
+        assertTrue(stats.savedMs() > 2 * 1400 && stats.savedMs() <= 2 * 1500, "savedMs=" + stats.savedMs());
+        assertEquals(1, stats.entries());
+        assertEquals(100, stats.maxEntries());
+    }
+
+    @Test
+    void followUpDoesNotHitAnswerCachedUnderDifferentHistory() {
+        List<Message> javaTalk = List.of(new UserMessage("Java 就业班学多久？"), new AssistantMessage("6 个月"));
+        List<Message> pythonTalk = List.of(new UserMessage("Python 班学多久？"), new AssistantMessage("4 个月"));
+
+        cache.put(cache.key("那价格呢？", ITEMS, javaTalk), "Java 就业班 19800 元", 1000);
+
+        assertEquals(Optional.empty(), cache.get(cache.key("那价格呢？", ITEMS, pythonTalk)));
+        assertEquals(Optional.empty(), cache.get(cache.key("那价格呢？", ITEMS, List.of())));
+        assertEquals(Optional.of("Java 就业班 19800 元"), cache.get(cache.key("那价格呢？", ITEMS, javaTalk)));
+    }
+
+    @Test
+    void firstQuestionsShareEntriesAcrossChats() {
+        cache.put(cache.key("Java 就业班多少钱", ITEMS, List.of()), "19800 元", 1000);
+
+        assertEquals(Optional.of("19800 元"), cache.get(cache.key("Java 就业班多少钱", ITEMS, null)));
+    }
+
+    private static float[] axis(int i) {
+        float[] v = new float[DIMENSIONS];
+        v[i] = 1;
+        return v;
+    }
+
+    private static float[] mix(float[] a, float[] b, float weight) {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            v[i] = a[i] + weight * b[i];
+        }
+        return v;
+    }
+}
@@ -0,0 +1,104 @@
+package com.itheima.ai.stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SseStreamHubTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private SseStreamHub hub;
+    private final Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+    private final List<ServerSentEvent<String>> received = new CopyOnWriteArrayList<>();
+    private Disposable first;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        hub = new SseStreamHub();
+        ReflectionTestUtils.setField(hub, "coalesceMs", 1L);
+        ReflectionTestUtils.setField(hub, "coalesceBytes", 1);
+        ReflectionTestUtils.setField(hub, "heartbeatSeconds", 60L);
+        ReflectionTestUtils.setField(hub, "resumeGraceSeconds", 30L);
+        ReflectionTestUtils.setField(hub, "retainSeconds", 60L);
+
+        first = hub.stream("service", "c1", "价格多少", null, tokens::asFlux).subscribe(received::add);
+        tokens.tryEmitNext("19800");
+        for (int i = 0; i < 100 && received.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(received).hasSize(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        first.dispose();
+        ReflectionTestUtils.invokeMethod(hub, "shutdown");
+    }
+
+    @Test
+    void resumesSameAnswerFromLastEventId() {
+        String lastEventId = received.get(0).id();
+        Flux<ServerSentEvent<String>> resumed = hub.stream("service", "c1", "价格多少", lastEventId,
+                () -> Flux.error(new AssertionError("must not call the model again")));
+
+        tokens.tryEmitNext(" 元");
+        tokens.tryEmitComplete();
+
+        List<ServerSentEvent<String>> events = resumed.collectList().block(TIMEOUT);
+        assertThat(events).extracting(ServerSentEvent::data).containsExactly(" 元", lastEventId.split(":")[0]);
+        assertThat(events.get(events.size() - 1).event()).isEqualTo("done");
+    }
+
+    @Test
+    void completesEveryAttachedConnectionAndRetiresAnswer() throws Exception {
+        ReflectionTestUtils.setField(hub, "retainSeconds", 0L);
+        CompletableFuture<List<ServerSentEvent<String>>> resumed =
+                hub.stream("service", "c1", "价格多少", received.get(0).id(), Flux::empty).collectList().toFuture();
+
+        tokens.tryEmitComplete();
+
+        assertThat(resumed.get(5, TimeUnit.SECONDS)).extracting(ServerSentEvent::event).containsExactly("done");
+        assertThat(received).extracting(ServerSentEvent::event).containsExactly(null, "done");
+        Map<?, ?> answers = (Map<?, ?>) ReflectionTestUtils.getField(hub, "answers");
+        for (int i = 0; i < 100 && !answers.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(answers).isEmpty();
+    }
+
+    @Test
+    void refusesToResumeAnswerOfAnotherChat() {
+        assertExpired(hub.stream("service", "c2", "价格多少", received.get(0).id(), Flux::empty));
+    }
+
+    @Test
+    void refusesToResumeAnswerOfAnotherEndpoint() {
+        assertExpired(hub.stream("pdf", "c1", "价格多少", received.get(0).id(), Flux::empty));
+    }
+
+    @Test
+    void refusesToResumeAnswerOfAnotherPrompt() {
+        assertExpired(hub.stream("service", "c1", "学多久", received.get(0).id(), Flux::empty));
+    }
+
+    private static void assertExpired(Flux<ServerSentEvent<String>> events) {
+        List<ServerSentEvent<String>> list = events.collectList().block(TIMEOUT);
+        assertThat(list).hasSize(1);
+        assertThat(list.get(0).event()).isEqualTo("expired");
+    }
+}
@@ -0,0 +1,66 @@
+package com.itheima.ai.support;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+
+/**
+ * 测试用的本地 redis-server（embedded-redis 自带的二进制），整个测试 JVM 共用一个实例，退出时停止
+ * 用真实的 Redis 执行 Lua 脚本，而不是在 Java 里复现脚本逻辑；各测试开始前 {@link #flushAll()}
+ */
+public final class EmbeddedRedis {
+
+    private static StringRedisTemplate template;
+
+    private EmbeddedRedis() {
+    }
+
+    public static synchronized StringRedisTemplate template() {
+        if (template == null) {
+            int port = freePort();
+            try {
+                RedisServer server = RedisServer.newRedisServer()
+                        .port(port)
+                        .setting("bind 127.0.0.1")
+                        .setting("save \"\"")
+                        .setting("appendonly no")
+                        .build();
+                server.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        server.stop();
+                    } catch (IOException ignored) {
+                    }
+                }, "embedded-redis-stop"));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to start embedded redis-server", e);
+            }
+            LettuceConnectionFactory connectionFactory =
+                    new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+            connectionFactory.afterPropertiesSet();
+            connectionFactory.start();
+            template = new StringRedisTemplate(connectionFactory);
+        }
+        return template;
+    }
+
+    public static void flushAll() {
+        template().execute(connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        }, true);
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.itheima.ai.support;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * 测试用的 ChatModel，不访问网络
+ * - stream 先等 firstTokenMs 再出第一个 token，之后每 tokenMs 出一个；等待用 Reactor 的计时器，不占线程，
+ *   与 OpenAI 客户端基于 WebClient 的流式响应一致
+ * - 回答固定为 {@link #answer()}，记录同时在途的流数
+ */
+public class StubChatModel implements ChatModel {
+
+    private final int tokens;
+    private final long firstTokenMs;
+    private final long tokenMs;
+
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public StubChatModel(int tokens, long firstTokenMs, long tokenMs) {
+        this.tokens = tokens;
+        this.firstTokenMs = firstTokenMs;
+        this.tokenMs = tokenMs;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return response(answer());
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            streams.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            return Flux.range(0, tokens)
+                    .concatMap(i -> Mono.just(response(token(i)))
+                            .delayElement(Duration.ofMillis(i == 0 ? firstTokenMs : tokenMs)))
+                    .doFinally(signal -> inFlight.decrementAndGet());
+        });
+    }
+
+    /**
+     * 完整回答：所有 token 依次拼接
+     */
+    public String answer() {
+        return IntStream.range(0, tokens).mapToObj(StubChatModel::token).collect(Collectors.joining());
+    }
+
+    public int streams() {
+        return streams.get();
+    }
+
+    /**
+     * 同时在途的流数的最大值
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    private static String token(int i) {
+        return "t" + i + " ";
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
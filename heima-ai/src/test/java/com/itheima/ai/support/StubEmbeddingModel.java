@@ -0,0 +1,106 @@
+package com.itheima.ai.support;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的 EmbeddingModel，不访问网络
+ * - 预先登记的文本返回登记的向量，其余文本按文本哈希生成固定的随机向量（同一文本结果相同）
+ * - 每次 call 可模拟远程调用耗时，并记录调用次数和文本条数
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+    private final long latencyMs;
+    private final Map<String, float[]> vectors = new ConcurrentHashMap<>();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger texts = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    public StubEmbeddingModel(int dimensions) {
+        this(dimensions, 0);
+    }
+
+    /**
+     * @param latencyMs 每次 call 的模拟耗时
+     */
+    public StubEmbeddingModel(int dimensions, long latencyMs) {
+        this.dimensions = dimensions;
+        this.latencyMs = latencyMs;
+    }
+
+    public void register(String text, float[] vector) {
+        vectors.put(text, vector);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        calls.incrementAndGet();
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (String text : request.getInstructions()) {
+                embeddings.add(new Embedding(vectorOf(text), embeddings.size()));
+            }
+            texts.addAndGet(embeddings.size());
+            return new EmbeddingResponse(embeddings);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int calls() {
+        return calls.get();
+    }
+
+    public int texts() {
+        return texts.get();
+    }
+
+    /**
+     * 同时在途的 call 数的最大值
+     */
+    public int maxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public float[] vectorOf(String text) {
+        float[] registered = vectors.get(text);
+        if (registered != null) return registered;
+        SplittableRandom random = new SplittableRandom(text.hashCode());
+        float[] v = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            v[i] = (float) (random.nextDouble() * 2 - 1);
+        }
+        return v;
+    }
+}
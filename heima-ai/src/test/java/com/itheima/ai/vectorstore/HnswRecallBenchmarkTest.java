@@ -0,0 +1,121 @@
+package com.itheima.ai.vectorstore;
+
+import com.itheima.ai.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * HNSW 与暴力扫描（SimpleVectorStore）的 recall / 延迟对比
+ * 数据为带簇结构的随机向量（接近真实 embedding 的分布），以 SimpleVectorStore 的 topK 为标准答案，
+ * 对不同 efSearch 分别统计 recall@K 和单次查询的平均 / p95 延迟
+ * 规模用 -Dbenchmark.size 调整，默认 20000 条 256 维
+ */
+@Tag("benchmark")
+class HnswRecallBenchmarkTest {
+
+    private static final int DIMENSIONS = 256;
+    private static final int CLUSTERS = 200;
+    private static final int QUERIES = 200;
+    private static final int TOP_K = 10;
+    private static final int WARMUP = 50;
+
+    private final int size = Integer.getInteger("benchmark.size", 20_000);
+
+    @Test
+    void recallAndLatencyAgainstBruteForce() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(DIMENSIONS);
+        SplittableRandom random = new SplittableRandom(7);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, 1.0f, null);
+        }
+        List<Document> docs = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String text = "doc-" + i;
+            embeddingModel.register(text, gaussian(random, 1.2f, centers[random.nextInt(CLUSTERS)]));
+            docs.add(new Document(text, text, Map.of()));
+        }
+        List<String> queries = new ArrayList<>(QUERIES);
+        for (int q = 0; q < QUERIES; q++) {
+            String text = "query-" + q;
+            embeddingModel.register(text, gaussian(random, 1.2f, centers[random.nextInt(CLUSTERS)]));
+            queries.add(text);
+        }
+
+        SimpleVectorStore bruteForce = SimpleVectorStore.builder(embeddingModel).build();
+        bruteForce.add(docs);
+        Result exact = run(bruteForce, queries, null);
+        System.out.printf("brute force: size=%d dim=%d avg=%.3f ms p95=%.3f ms%n",
+                size, DIMENSIONS, exact.avgMillis(), exact.p95Millis());
+
+        for (boolean quantized : new boolean[]{false, true}) {
+            HnswVectorStore hnsw = HnswVectorStore.builder(embeddingModel)
+                    .m(16)
+                    .efConstruction(200)
+                    .quantized(quantized)
+                    .build();
+            long start = System.nanoTime();
+            hnsw.add(docs);
+            System.out.printf("hnsw quantized=%s build=%d ms%n", quantized, (System.nanoTime() - start) / 1_000_000);
+
+            for (int ef : new int[]{16, 32, 64, 128, 256}) {
+                hnsw.setEfSearch(ef);
+                Result result = run(hnsw, queries, exact.ids());
+                System.out.printf("  efSearch=%-4d recall@%d=%.4f avg=%.3f ms p95=%.3f ms (%.1fx faster)%n",
+                        ef, TOP_K, result.recall(), result.avgMillis(), result.p95Millis(),
+                        exact.avgMillis() / result.avgMillis());
+                if (ef == 128) {
+                    assertThat(result.recall()).isGreaterThan(0.9);
+                }
+            }
+        }
+    }
+
+    private static Result run(VectorStore store, List<String> queries, List<Set<String>> truth) {
+        for (int i = 0; i < WARMUP; i++) {
+            store.similaritySearch(request(queries.get(i % queries.size())));
+        }
+        List<Set<String>> ids = new ArrayList<>(queries.size());
+        long[] nanos = new long[queries.size()];
+        double recall = 0;
+        for (int q = 0; q < queries.size(); q++) {
+            long start = System.nanoTime();
+            List<Document> hits = store.similaritySearch(request(queries.get(q)));
+            nanos[q] = System.nanoTime() - start;
+            Set<String> found = new HashSet<>();
+            hits.forEach(d -> found.add(d.getId()));
+            ids.add(found);
+            if (truth != null) {
+                long matched = found.stream().filter(truth.get(q)::contains).count();
+                recall += (double) matched / truth.get(q).size();
+            }
+        }
+        Arrays.sort(nanos);
+        double avg = Arrays.stream(nanos).average().orElse(0) / 1e6;
+        double p95 = nanos[(int) (nanos.length * 0.95)] / 1e6;
+        return new Result(ids, recall / queries.size(), avg, p95);
+    }
+
+    private static SearchRequest request(String query) {
+        return SearchRequest.builder().query(query).topK(TOP_K).build();
+    }
+
+    private static float[] gaussian(SplittableRandom random, float sigma, float[] center) {
+        float[] v = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            double g = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+            v[i] = (float) (g * sigma) + (center == null ? 0 : center[i]);
+        }
+        return v;
+    }
+
+    private record Result(List<Set<String>> ids, double recall, double avgMillis, double p95Millis) {}
+}
@@ -0,0 +1,160 @@
+package com.itheima.ai.vectorstore;
+
+import com.itheima.ai.support.StubEmbeddingModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PartitionedVectorStoreTest {
+
+    private static final int DIMENSIONS = 32;
+
+    @TempDir
+    Path dir;
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel(DIMENSIONS);
+    private final List<PartitionedVectorStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeStores() {
+        opened.forEach(PartitionedVectorStore::close);
+    }
+
+    @Test
+    void savedPartitionIsLoadedAfterRestart() {
+        PartitionedVectorStore store = open(0);
+        store.add(docs("a", 5));
+        store.save("a");
+
+        PartitionedVectorStore restarted = open(0);
+        assertThat(restarted.documentIds("a")).hasSize(5);
+        List<Document> hits = restarted.similaritySearch(SearchRequest.builder()
+                .query("a-3").topK(1).filterExpression("chatId == 'a'").build());
+        assertThat(hits).extracting(Document::getText).containsExactly("a-3");
+    }
+
+    @Test
+    void backgroundFlushPersistsWithoutExplicitSave() throws InterruptedException {
+        PartitionedVectorStore store = open(50);
+        store.add(docs("a", 3));
+
+        // 不调用 save/close，模拟进程被强杀前只有后台刷盘
+        for (int i = 0; i < 100 && !hasPartitionFile(); i++) {
+            Thread.sleep(50);
+        }
+        assertThat(open(0).documentIds("a")).hasSize(3);
+    }
+
+    @Test
+    void droppedPartitionIsNotWrittenBack() {
+        PartitionedVectorStore store = open(0);
+        store.add(docs("a", 3));
+        store.save("a");
+        store.dropPartition("a");
+        store.save();
+
+        assertThat(hasPartitionFile()).isFalse();
+        assertThat(open(0).documentIds("a")).isEmpty();
+    }
+
+    @Test
+    void compactionRemovesTombstonesAndKeepsLiveDocuments() {
+        HnswSegment segment = new HnswSegment(8, 50, 32, true, 4);
+        List<Document> docs = docs("a", 20);
+        segment.add(docs, docs.stream().map(d -> embeddingModel.vectorOf(d.getText())).toList());
+        segment.delete(docs.subList(0, 10).stream().map(Document::getId).toList());
+        assertThat(segment.deletedRatio()).isEqualTo(0.5);
+
+        assertThat(segment.compact()).isTrue();
+
+        assertThat(segment.deletedRatio()).isZero();
+        assertThat(segment.liveSize()).isEqualTo(10);
+        assertThat(segment.documentIds()).isEqualTo(docs.subList(10, 20).stream().map(Document::getId)
+                .collect(Collectors.toSet()));
+        for (Document doc : docs.subList(10, 20)) {
+            List<Document> hits = segment.search(embeddingModel.vectorOf(doc.getText()), 1, 0, null);
+            assertThat(hits).extracting(Document::getId).containsExactly(doc.getId());
+        }
+    }
+
+    @Test
+    void saveCompactsPartitionsAboveRatio() {
+        PartitionedVectorStore store = open(0);
+        List<Document> docs = docs("a", 20);
+        store.add(docs);
+        store.delete(docs.subList(0, 10).stream().map(Document::getId).toList());
+        store.save("a");
+
+        PartitionedVectorStore restarted = open(0);
+        assertThat(restarted.documentIds("a")).hasSize(10);
+        List<Document> hits = restarted.similaritySearch(SearchRequest.builder()
+                .query("a-15").topK(1).filterExpression("chatId == 'a'").build());
+        assertThat(hits).extracting(Document::getText).containsExactly("a-15");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void concurrentDropDoesNotLeaveDocumentsInDetachedSegment() throws Exception {
+        PartitionedVectorStore store = open(0);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread dropper = new Thread(() -> {
+            while (!done.get()) store.dropPartition("a");
+        });
+        dropper.start();
+        try {
+            for (int i = 0; i < 500; i++) {
+                store.add(docs("a", 4));
+            }
+        } finally {
+            done.set(true);
+            dropper.join();
+        }
+
+        // 每个 id 映射都指向现存分区里的文档，反之亦然
+        Map<String, String> documentPartitions =
+                (Map<String, String>) ReflectionTestUtils.getField(store, "documentPartitions");
+        assertThat(documentPartitions.keySet()).isEqualTo(store.documentIds("a"));
+        assertThat(documentPartitions.values()).allMatch("a"::equals);
+    }
+
+    private PartitionedVectorStore open(long flushIntervalMs) {
+        PartitionedVectorStore store = PartitionedVectorStore.builder(embeddingModel)
+                .m(8)
+                .efConstruction(50)
+                .quantized(true)
+                .compactRatio(0.2)
+                .flushIntervalMs(flushIntervalMs)
+                .persistDir(dir)
+                .build();
+        opened.add(store);
+        return store;
+    }
+
+    private boolean hasPartitionFile() {
+        try (var files = Files.list(dir)) {
+            return files.anyMatch(f -> f.getFileName().toString().endsWith(".hnsw"));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static List<Document> docs(String chatId, int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> new Document(chatId + "-" + i, Map.of("chatId", chatId)))
+                .toList();
+    }
+}